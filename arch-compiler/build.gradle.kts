@@ -12,6 +12,8 @@ dependencies {
     implementation(Dep.CodeGen.javapoet)
     implementation(Dep.CodeGen.autoService)
     annotationProcessor(Dep.CodeGen.autoService)
+    testImplementation(Dep.Test.junit)
+    testImplementation(Dep.Test.compileTesting)
 }
 
 java {
@@ -18,6 +18,7 @@ package com.qmuiteam.qmui.arch;
 import com.google.auto.service.AutoService;
 import com.qmuiteam.qmui.arch.annotation.ActivityScheme;
 import com.qmuiteam.qmui.arch.annotation.FragmentScheme;
+import com.squareup.javapoet.ArrayTypeName;
 import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.CodeBlock;
 import com.squareup.javapoet.FieldSpec;
@@ -29,6 +30,7 @@ import com.squareup.javapoet.TypeSpec;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
@@ -65,8 +67,8 @@ public class SchemeProcessor extends BaseProcessor {
             "com.qmuiteam.qmui.arch.scheme", "FragmentSchemeItem");
 
     private static TypeName SchemeItemList = ParameterizedTypeName.get(ListName, SchemeItem);
-    private static TypeName MapByAction = ParameterizedTypeName.get(MapName,
-            StringName, SchemeItemList);
+    private static TypeName SchemeItemArray = ArrayTypeName.of(SchemeItem);
+    private static TypeName SchemeItemArrayByAction = ArrayTypeName.of(SchemeItemArray);
     private static TypeName MapForSchemeRequired = ParameterizedTypeName.get(ArrayMapName,
             StringName, StringName);
 
@@ -81,15 +83,6 @@ public class SchemeProcessor extends BaseProcessor {
                 .classBuilder(SchemeMap.simpleName() + "Impl")
                 .addModifiers(Modifier.PUBLIC)
                 .addSuperinterface(SchemeMap);
-        classBuilder.addField(FieldSpec.builder(MapByAction, "mSchemeMap")
-                .addModifiers(Modifier.PRIVATE)
-                .build());
-
-
-        MethodSpec.Builder constructorBuilder = MethodSpec.constructorBuilder()
-                .addModifiers(Modifier.PUBLIC)
-                .addStatement("mSchemeMap = new $T<>()", HashMapName);
-
 
         Map<String, List<Item>> schemeMap = new HashMap<>();
         for (Element element : activitySchemes) {
@@ -134,11 +127,31 @@ public class SchemeProcessor extends BaseProcessor {
             }
         }
 
-        constructorBuilder.addStatement("$T elements", SchemeItemList);
-        constructorBuilder.addStatement("$T required = null", MapForSchemeRequired);
-        for (String key : schemeMap.keySet()) {
-            List<Item> items = schemeMap.get(key);
-            constructorBuilder.addStatement("elements = new $T<>()", ArrayListName);
+        // the items of an action are created on the first lookup of the action,
+        // and actions are found by a string switch, which is a switch on hash code.
+        List<String> actions = new ArrayList<>(schemeMap.keySet());
+        Collections.sort(actions);
+        classBuilder.addField(FieldSpec.builder(SchemeItemArrayByAction, "mItemsByAction")
+                .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                .initializer("new $T[$L][]", SchemeItem, actions.size())
+                .build());
+
+        MethodSpec.Builder indexOfAction = MethodSpec.methodBuilder("indexOfAction")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(TypeName.INT)
+                .addParameter(StringName, "action")
+                .beginControlFlow("switch (action)");
+        MethodSpec.Builder createItems = MethodSpec.methodBuilder("createItems")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(SchemeItemArray)
+                .addParameter(TypeName.INT, "index")
+                .beginControlFlow("switch (index)");
+        for (int i = 0; i < actions.size(); i++) {
+            String action = actions.get(i);
+            indexOfAction.addCode("case $S:\n$>return $L;\n$<", action, i);
+            createItems.addCode("case $L:\n$>return createItems$L();\n$<", i, i);
+
+            List<Item> items = schemeMap.get(action);
             items.sort(new Comparator<Item>() {
                 @Override
                 public int compare(Item item, Item t1) {
@@ -147,114 +160,31 @@ public class SchemeProcessor extends BaseProcessor {
                     return Integer.compare(c2, c1);
                 }
             });
-            for (Item item : items) {
-                ClassName elementName = ClassName.get(item.element);
-                if (item.isActivity) {
-                    ActivityScheme annotation = item.element.getAnnotation(ActivityScheme.class);
-                    AnnotationMirror annotationMirror = getAnnotationMirror(item.element, ActivityScheme.class);
-                    if (annotationMirror == null) {
-                        continue;
-                    }
-
-                    appendRequired(constructorBuilder, annotation.required());
-
-                    CodeBlock customFactory = generateCustomFactory(true, annotationMirror);
-                    CodeBlock intParam = generateTypedParams(annotation.keysWithIntValue());
-                    CodeBlock boolParam = generateTypedParams(annotation.keysWithBoolValue());
-                    CodeBlock longParam = generateTypedParams(annotation.keysWithLongValue());
-                    CodeBlock floatParam = generateTypedParams(annotation.keysWithFloatValue());
-                    CodeBlock doubleParam = generateTypedParams(annotation.keysWithDoubleValue());
-                    CodeBlock defaultParam = generateTypedParams(annotation.defaultParams());
-                    CodeBlock customMatcher = generateCustomMatcher(annotationMirror);
-                    CodeBlock valueConverter = generateValueInterceptor(annotationMirror);
-
-                    CodeBlock codeBlock = CodeBlock.builder()
-                            .add("elements.add(")
-                            /**/.add("new $T(", ActivitySchemeItem)
-                            /*---*/.add("$T.class", elementName)
-                            /*---*/.add(",")
-                            /*---*/.add("$L", annotation.useRefreshIfCurrentMatched())
-                            /*---*/.add(",")
-                            /*---*/.add(customFactory)
-                            /*---*/.add(",")
-                            /*---*/.add("required")
-                            /*---*/.add(",")
-                            /*---*/.add(intParam)
-                            /*---*/.add(",")
-                            /*---*/.add(boolParam)
-                            /*---*/.add(",")
-                            /*---*/.add(longParam)
-                            /*---*/.add(",")
-                            /*---*/.add(floatParam)
-                            /*---*/.add(",")
-                            /*---*/.add(doubleParam)
-                            /*---*/.add(",")
-                            /*---*/.add(defaultParam)
-                            /*---*/.add(",")
-                            /*---*/.add(customMatcher)
-                            /*---*/.add(",")
-                            /*---*/.add(valueConverter)
-                            /**/.add(")")
-                            .add(")")
-                            .build();
-                    constructorBuilder.addStatement(codeBlock);
-                } else {
-                    FragmentScheme annotation = item.element.getAnnotation(FragmentScheme.class);
-                    AnnotationMirror annotationMirror = getAnnotationMirror(item.element, FragmentScheme.class);
-                    if (annotationMirror == null) {
-                        continue;
-                    }
-                    appendRequired(constructorBuilder, annotation.required());
-                    CodeBlock customFactory = generateCustomFactory(false, annotationMirror);
-                    CodeBlock activities = generateFragmentHostActivityList(annotation);
-                    CodeBlock intParam = generateTypedParams(annotation.keysWithIntValue());
-                    CodeBlock boolParam = generateTypedParams(annotation.keysWithBoolValue());
-                    CodeBlock longParam = generateTypedParams(annotation.keysWithLongValue());
-                    CodeBlock floatParam = generateTypedParams(annotation.keysWithFloatValue());
-                    CodeBlock doubleParam = generateTypedParams(annotation.keysWithDoubleValue());
-                    CodeBlock defaultParam = generateTypedParams(annotation.defaultParams());
-                    CodeBlock customMatcher = generateCustomMatcher(annotationMirror);
-                    CodeBlock valueConverter = generateValueInterceptor(annotationMirror);
-
-                    CodeBlock codeBlock = CodeBlock.builder()
-                            .add("elements.add(")
-                            /**/.add("new $T(", FragmentSchemeItem)
-                            /*---*/.add("$T.class", elementName)
-                            /*---*/.add(",")
-                            /*---*/.add("$L", annotation.useRefreshIfCurrentMatched())
-                            /*---*/.add(",")
-                            /*---*/.add(activities)
-                            /*---*/.add(",")
-                            /*---*/.add(customFactory)
-                            /*---*/.add(",")
-                            /*---*/.add("$L", annotation.forceNewActivity())
-                            /*---*/.add(",")
-                            /*---*/.add("required")
-                            /*---*/.add(",")
-                            /*---*/.add(intParam)
-                            /*---*/.add(",")
-                            /*---*/.add(boolParam)
-                            /*---*/.add(",")
-                            /*---*/.add(longParam)
-                            /*---*/.add(",")
-                            /*---*/.add(floatParam)
-                            /*---*/.add(",")
-                            /*---*/.add(doubleParam)
-                            /*---*/.add(",")
-                            /*---*/.add(defaultParam)
-                            /*---*/.add(",")
-                            /*---*/.add(customMatcher)
-                            /*---*/.add(",")
-                            /*---*/.add(valueConverter)
-                            /**/.add(")")
-                            .add(")")
-                            .build();
-                    constructorBuilder.addStatement(codeBlock);
-                }
-            }
-
-            constructorBuilder.addStatement("mSchemeMap.put($S, elements)", key);
+            MethodSpec.Builder createActionItems = MethodSpec.methodBuilder("createItems" + i)
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                    .returns(SchemeItemArray)
+                    .addComment("action: $L", action)
+                    .addStatement("$T elements = new $T<>($L)", SchemeItemList, ArrayListName, items.size())
+                    .addStatement("$T required = null", MapForSchemeRequired);
+            addSchemeItems(createActionItems, items);
+            createActionItems.addStatement("return elements.toArray(new $T[0])", SchemeItem);
+            classBuilder.addMethod(createActionItems.build());
         }
+        indexOfAction.addCode("default:\n$>return -1;\n$<")
+                .endControlFlow();
+        createItems.addCode("default:\n$>return new $T[0];\n$<", SchemeItem)
+                .endControlFlow();
+
+        MethodSpec.Builder getItems = MethodSpec.methodBuilder("getItems")
+                .addModifiers(Modifier.PRIVATE, Modifier.SYNCHRONIZED)
+                .returns(SchemeItemArray)
+                .addParameter(TypeName.INT, "index")
+                .addStatement("$T items = mItemsByAction[index]", SchemeItemArray)
+                .beginControlFlow("if (items == null)")
+                /**/.addStatement("items = createItems(index)")
+                /**/.addStatement("mItemsByAction[index] = items")
+                .endControlFlow()
+                .addStatement("return items");
 
         ExecutableElement findScheme = getOverrideMethod(
                 SchemeMap, "findScheme");
@@ -263,24 +193,28 @@ public class SchemeProcessor extends BaseProcessor {
         String schemeAction = findSchemeParams.get(1).getSimpleName().toString();
         String schemeParam = findSchemeParams.get(2).getSimpleName().toString();
         MethodSpec.Builder getRecordMetaById = MethodSpec.overriding(findScheme)
-                .addStatement("$T list = mSchemeMap.get($L)", SchemeItemList, schemeAction)
-                .beginControlFlow("if(list == null || list.isEmpty())")
+                .addStatement("int index = indexOfAction($L)", schemeAction)
+                .beginControlFlow("if(index < 0)")
                 /**/.addStatement("return null")
                 .endControlFlow()
-                .beginControlFlow("for (int i = 0; i < list.size(); i++)")
-                /**/.addStatement("$T item = list.get(i)", SchemeItem)
+                .addStatement("$T items = getItems(index)", SchemeItemArray)
+                .beginControlFlow("for (int i = 0; i < items.length; i++)")
+                /**/.addStatement("$T item = items[i]", SchemeItem)
                 /**/.beginControlFlow("if(item.match($L, $L))", schemeHandler, schemeParam)
                 /*--*/.addStatement("return item")
                 /**/.endControlFlow()
                 .endControlFlow()
                 .addStatement("return null");
+        // no item is created to answer exists
         ExecutableElement exists = getOverrideMethod(
                 SchemeMap, "exists");
         MethodSpec.Builder getRecordMetaByClass = MethodSpec.overriding(exists)
-                .addStatement("return mSchemeMap.containsKey($L)", exists.getParameters().get(1).getSimpleName().toString());
+                .addStatement("return indexOfAction($L) >= 0", exists.getParameters().get(1).getSimpleName().toString());
 
         classBuilder
-                .addMethod(constructorBuilder.build())
+                .addMethod(indexOfAction.build())
+                .addMethod(createItems.build())
+                .addMethod(getItems.build())
                 .addMethod(getRecordMetaById.build())
                 .addMethod(getRecordMetaByClass.build());
         try {
@@ -292,6 +226,114 @@ public class SchemeProcessor extends BaseProcessor {
         return true;
     }
 
+    private void addSchemeItems(MethodSpec.Builder builder, List<Item> items) {
+        for (Item item : items) {
+            ClassName elementName = ClassName.get(item.element);
+            if (item.isActivity) {
+                ActivityScheme annotation = item.element.getAnnotation(ActivityScheme.class);
+                AnnotationMirror annotationMirror = getAnnotationMirror(item.element, ActivityScheme.class);
+                if (annotationMirror == null) {
+                    continue;
+                }
+
+                appendRequired(builder, annotation.required());
+
+                CodeBlock customFactory = generateCustomFactory(true, annotationMirror);
+                CodeBlock intParam = generateTypedParams(annotation.keysWithIntValue());
+                CodeBlock boolParam = generateTypedParams(annotation.keysWithBoolValue());
+                CodeBlock longParam = generateTypedParams(annotation.keysWithLongValue());
+                CodeBlock floatParam = generateTypedParams(annotation.keysWithFloatValue());
+                CodeBlock doubleParam = generateTypedParams(annotation.keysWithDoubleValue());
+                CodeBlock defaultParam = generateTypedParams(annotation.defaultParams());
+                CodeBlock customMatcher = generateCustomMatcher(annotationMirror);
+                CodeBlock valueConverter = generateValueInterceptor(annotationMirror);
+
+                CodeBlock codeBlock = CodeBlock.builder()
+                        .add("elements.add(")
+                        /**/.add("new $T(", ActivitySchemeItem)
+                        /*---*/.add("$T.class", elementName)
+                        /*---*/.add(",")
+                        /*---*/.add("$L", annotation.useRefreshIfCurrentMatched())
+                        /*---*/.add(",")
+                        /*---*/.add(customFactory)
+                        /*---*/.add(",")
+                        /*---*/.add("required")
+                        /*---*/.add(",")
+                        /*---*/.add(intParam)
+                        /*---*/.add(",")
+                        /*---*/.add(boolParam)
+                        /*---*/.add(",")
+                        /*---*/.add(longParam)
+                        /*---*/.add(",")
+                        /*---*/.add(floatParam)
+                        /*---*/.add(",")
+                        /*---*/.add(doubleParam)
+                        /*---*/.add(",")
+                        /*---*/.add(defaultParam)
+                        /*---*/.add(",")
+                        /*---*/.add(customMatcher)
+                        /*---*/.add(",")
+                        /*---*/.add(valueConverter)
+                        /**/.add(")")
+                        .add(")")
+                        .build();
+                builder.addStatement(codeBlock);
+            } else {
+                FragmentScheme annotation = item.element.getAnnotation(FragmentScheme.class);
+                AnnotationMirror annotationMirror = getAnnotationMirror(item.element, FragmentScheme.class);
+                if (annotationMirror == null) {
+                    continue;
+                }
+                appendRequired(builder, annotation.required());
+                CodeBlock customFactory = generateCustomFactory(false, annotationMirror);
+                CodeBlock activities = generateFragmentHostActivityList(annotation);
+                CodeBlock intParam = generateTypedParams(annotation.keysWithIntValue());
+                CodeBlock boolParam = generateTypedParams(annotation.keysWithBoolValue());
+                CodeBlock longParam = generateTypedParams(annotation.keysWithLongValue());
+                CodeBlock floatParam = generateTypedParams(annotation.keysWithFloatValue());
+                CodeBlock doubleParam = generateTypedParams(annotation.keysWithDoubleValue());
+                CodeBlock defaultParam = generateTypedParams(annotation.defaultParams());
+                CodeBlock customMatcher = generateCustomMatcher(annotationMirror);
+                CodeBlock valueConverter = generateValueInterceptor(annotationMirror);
+
+                CodeBlock codeBlock = CodeBlock.builder()
+                        .add("elements.add(")
+                        /**/.add("new $T(", FragmentSchemeItem)
+                        /*---*/.add("$T.class", elementName)
+                        /*---*/.add(",")
+                        /*---*/.add("$L", annotation.useRefreshIfCurrentMatched())
+                        /*---*/.add(",")
+                        /*---*/.add(activities)
+                        /*---*/.add(",")
+                        /*---*/.add(customFactory)
+                        /*---*/.add(",")
+                        /*---*/.add("$L", annotation.forceNewActivity())
+                        /*---*/.add(",")
+                        /*---*/.add("required")
+                        /*---*/.add(",")
+                        /*---*/.add(intParam)
+                        /*---*/.add(",")
+                        /*---*/.add(boolParam)
+                        /*---*/.add(",")
+                        /*---*/.add(longParam)
+                        /*---*/.add(",")
+                        /*---*/.add(floatParam)
+                        /*---*/.add(",")
+                        /*---*/.add(doubleParam)
+                        /*---*/.add(",")
+                        /*---*/.add(defaultParam)
+                        /*---*/.add(",")
+                        /*---*/.add(customMatcher)
+                        /*---*/.add(",")
+                        /*---*/.add(valueConverter)
+                        /**/.add(")")
+                        .add(")")
+                        .build();
+                builder.addStatement(codeBlock);
+            }
+        }
+    }
+
     private void appendRequired(MethodSpec.Builder constructorBuilder, String[] required) {
         if (required == null || required.length == 0) {
             constructorBuilder.addStatement("required =null");
@@ -361,7 +403,8 @@ public class SchemeProcessor extends BaseProcessor {
             throw new IllegalStateException("customMatcher must implement interface QMUISchemeMatcher.");
         }
 
-        return CodeBlock.of("$T.class", typeMirror);
+        // created with the item, so no reflection is needed when matching or converting
+        return CodeBlock.of("new $T()", typeMirror);
     }
 
     private CodeBlock generateValueInterceptor(AnnotationMirror annotationMirror){
@@ -371,10 +414,10 @@ public class SchemeProcessor extends BaseProcessor {
         }
         TypeMirror typeMirror = (TypeMirror) valueConverter.getValue();
         if (!isSubtypeOfType(typeMirror, QMUISchemeValueConverterType)) {
-            throw new IllegalStateException("customMatcher must implement interface QMUISchemeMatcher.");
+            throw new IllegalStateException("valueConverter must implement interface QMUISchemeValueConverter.");
         }
 
-        return CodeBlock.of("$T.class", typeMirror);
+        return CodeBlock.of("new $T()", typeMirror);
     }
 
     private CodeBlock generateFragmentHostActivityList(FragmentScheme fragmentScheme){
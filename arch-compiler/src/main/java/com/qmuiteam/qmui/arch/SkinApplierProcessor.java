@@ -0,0 +1,250 @@
+/*
+ * Tencent is pleased to support the open source community by making QMUI_Android available.
+ *
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qmuiteam.qmui.arch;
+
+import com.google.auto.service.AutoService;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.WildcardTypeName;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+
+/**
+ * Generate an IQMUISkinApplier for every view class with methods annotated by QMUISkinSetter,
+ * and a QMUISkinApplierRegistryImpl to find them. The annotation lives in the qmui library,
+ * so it is referenced by name here.
+ */
+@AutoService(Processor.class)
+public class SkinApplierProcessor extends BaseProcessor {
+
+    static final String SKIN_SETTER_TYPE = "com.qmuiteam.qmui.skin.annotation.QMUISkinSetter";
+    static final String VIEW_TYPE = "android.view.View";
+    static final String COLOR_STATE_LIST_TYPE = "android.content.res.ColorStateList";
+    static final String DRAWABLE_TYPE = "android.graphics.drawable.Drawable";
+    static final String APPLIER_SUFFIX = "_QMUISkinApplier";
+
+    private static final ClassName SkinManagerName = ClassName.get(
+            "com.qmuiteam.qmui.skin", "QMUISkinManager");
+    private static final ClassName SkinApplierName = ClassName.get(
+            "com.qmuiteam.qmui.skin", "IQMUISkinApplier");
+    private static final ClassName SkinApplierRegistryName = ClassName.get(
+            "com.qmuiteam.qmui.skin", "QMUISkinApplierRegistry");
+    private static final ClassName ViewName = ClassName.get("android.view", "View");
+    private static final ClassName ThemeName = ClassName.get("android.content.res", "Resources", "Theme");
+    private static final TypeName AnyClassName = ParameterizedTypeName.get(
+            OriginClassName, WildcardTypeName.subtypeOf(Object.class));
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement setterAnnotation = mElementUtils.getTypeElement(SKIN_SETTER_TYPE);
+        if (setterAnnotation == null) {
+            return false;
+        }
+        Set<? extends Element> elements = roundEnv.getElementsAnnotatedWith(setterAnnotation);
+        if (elements.isEmpty()) {
+            return true;
+        }
+        Set<TypeElement> viewClasses = new LinkedHashSet<>();
+        for (Element element : elements) {
+            if (checkSetter(element)) {
+                viewClasses.add((TypeElement) element.getEnclosingElement());
+            }
+        }
+
+        MethodSpec.Builder getApplier = MethodSpec.methodBuilder("getApplier")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(SkinApplierName)
+                .addParameter(AnyClassName, "viewClass");
+        for (TypeElement viewClass : viewClasses) {
+            ClassName applierName = generateApplier(viewClass);
+            if (applierName != null) {
+                getApplier.beginControlFlow("if (viewClass == $T.class)", ClassName.get(viewClass))
+                        .addStatement("return new $T()", applierName)
+                        .endControlFlow();
+            }
+        }
+        getApplier.addStatement("return null");
+
+        TypeSpec registry = TypeSpec.classBuilder(SkinApplierRegistryName.simpleName() + "Impl")
+                .addModifiers(Modifier.PUBLIC)
+                .addSuperinterface(SkinApplierRegistryName)
+                .addMethod(getApplier.build())
+                .build();
+        try {
+            JavaFile.builder(SkinApplierRegistryName.packageName(), registry)
+                    .build().writeTo(mFiler);
+        } catch (IOException e) {
+            error(null, "Unable to generate QMUISkinApplierRegistryImpl: %s", e.getMessage());
+        }
+        return true;
+    }
+
+    private boolean checkSetter(Element element) {
+        if (element.getKind() != ElementKind.METHOD) {
+            error(element, "QMUISkinSetter must be annotated on methods");
+            return false;
+        }
+        ExecutableElement method = (ExecutableElement) element;
+        if (!method.getModifiers().contains(Modifier.PUBLIC) || method.getModifiers().contains(Modifier.STATIC)) {
+            error(element, "QMUISkinSetter must be annotated on public instance methods");
+            return false;
+        }
+        if (method.getParameters().size() != 1 || getValueGetter(method.getParameters().get(0).asType()) == null) {
+            error(element, "QMUISkinSetter must be annotated on methods with one parameter " +
+                    "of type int(color), float, ColorStateList or Drawable");
+            return false;
+        }
+        if (!isSubtypeOfType(method.getEnclosingElement().asType(), VIEW_TYPE)) {
+            error(element, "QMUISkinSetter must be annotated on methods of View subclasses");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the QMUISkinManager method used to resolve the attr for the setter parameter type
+     */
+    private static String getValueGetter(TypeMirror parameterType) {
+        if (parameterType.getKind() == TypeKind.INT) {
+            return "getSkinColor(theme, attr)";
+        }
+        if (parameterType.getKind() == TypeKind.FLOAT) {
+            return "getSkinFloat(theme, attr)";
+        }
+        if (isTypeEqual(parameterType, COLOR_STATE_LIST_TYPE)) {
+            return "getSkinColorStateList(target.getContext(), theme, attr)";
+        }
+        if (isTypeEqual(parameterType, DRAWABLE_TYPE)) {
+            return "getSkinDrawable(target.getContext(), theme, attr)";
+        }
+        return null;
+    }
+
+    private ClassName generateApplier(TypeElement viewClass) {
+        // setters of annotated super classes are applied too, subclass wins for the same rule name
+        Map<String, ExecutableElement> setters = new LinkedHashMap<>();
+        collectSetters(viewClass, setters);
+
+        ClassName viewName = ClassName.get(viewClass);
+        ClassName applierName = ClassName.get(viewName.packageName(),
+                String.join("_", viewName.simpleNames()) + APPLIER_SUFFIX);
+
+        // rule ids are assigned at runtime, so they are read into static fields when the applier is loaded,
+        // and apply compares ints instead of switching on the rule name.
+        TypeSpec.Builder applier = TypeSpec.classBuilder(applierName)
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .addSuperinterface(SkinApplierName);
+        MethodSpec.Builder apply = MethodSpec.methodBuilder("apply")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.BOOLEAN)
+                .addParameter(SkinManagerName, "manager")
+                .addParameter(ViewName, "view")
+                .addParameter(ThemeName, "theme")
+                .addParameter(TypeName.INT, "ruleId")
+                .addParameter(TypeName.INT, "attr")
+                .addStatement("$T target = ($T) view", viewName, viewName);
+        int index = 0;
+        for (Map.Entry<String, ExecutableElement> entry : setters.entrySet()) {
+            String field = "RULE_" + index++;
+            applier.addField(FieldSpec.builder(TypeName.INT, field,
+                    Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("$T.getRuleId($S)", SkinManagerName, entry.getKey())
+                    .build());
+            ExecutableElement setter = entry.getValue();
+            apply.beginControlFlow("if (ruleId == $N)", field)
+                    .addStatement("target.$N(manager.$L)", setter.getSimpleName().toString(),
+                            getValueGetter(setter.getParameters().get(0).asType()))
+                    .addStatement("return true")
+                    .endControlFlow();
+        }
+        apply.addStatement("return false");
+        applier.addMethod(apply.build());
+
+        try {
+            JavaFile.builder(applierName.packageName(), applier.build()).build().writeTo(mFiler);
+        } catch (IOException e) {
+            error(viewClass, "Unable to generate %s: %s", applierName.simpleName(), e.getMessage());
+            return null;
+        }
+        return applierName;
+    }
+
+    private void collectSetters(TypeElement typeElement, Map<String, ExecutableElement> setters) {
+        TypeMirror superType = typeElement.getSuperclass();
+        if (superType.getKind() == TypeKind.DECLARED) {
+            collectSetters((TypeElement) ((DeclaredType) superType).asElement(), setters);
+        }
+        for (Element element : typeElement.getEnclosedElements()) {
+            if (element.getKind() != ElementKind.METHOD) {
+                continue;
+            }
+            String name = getSkinRuleName(element);
+            if (name != null && checkSetterQuietly((ExecutableElement) element)) {
+                setters.put(name, (ExecutableElement) element);
+            }
+        }
+    }
+
+    private static boolean checkSetterQuietly(ExecutableElement method) {
+        return method.getModifiers().contains(Modifier.PUBLIC)
+                && !method.getModifiers().contains(Modifier.STATIC)
+                && method.getParameters().size() == 1
+                && getValueGetter(method.getParameters().get(0).asType()) != null;
+    }
+
+    private static String getSkinRuleName(Element element) {
+        List<? extends AnnotationMirror> list = element.getAnnotationMirrors();
+        for (AnnotationMirror item : list) {
+            if (item.getAnnotationType().toString().equals(SKIN_SETTER_TYPE)) {
+                AnnotationValue value = getAnnotationValue(item, "value");
+                return value == null ? null : (String) value.getValue();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        Set<String> types = new LinkedHashSet<>();
+        types.add(SKIN_SETTER_TYPE);
+        return types;
+    }
+}
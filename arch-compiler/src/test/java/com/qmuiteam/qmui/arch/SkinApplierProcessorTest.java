@@ -0,0 +1,210 @@
+package com.qmuiteam.qmui.arch;
+
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.JavaFileObject;
+
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Runs {@link SkinApplierProcessor} over small views. The android and qmui classes the generated code
+ * refers to are replaced by stubs with the same names.
+ */
+public class SkinApplierProcessorTest {
+
+    private static final List<JavaFileObject> STUBS = Arrays.asList(
+            JavaFileObjects.forSourceLines("android.content.Context",
+                    "package android.content;",
+                    "public class Context {}"),
+            JavaFileObjects.forSourceLines("android.content.res.Resources",
+                    "package android.content.res;",
+                    "public class Resources {",
+                    "    public class Theme {}",
+                    "}"),
+            JavaFileObjects.forSourceLines("android.content.res.ColorStateList",
+                    "package android.content.res;",
+                    "public class ColorStateList {}"),
+            JavaFileObjects.forSourceLines("android.graphics.drawable.Drawable",
+                    "package android.graphics.drawable;",
+                    "public abstract class Drawable {}"),
+            JavaFileObjects.forSourceLines("android.view.View",
+                    "package android.view;",
+                    "public class View {",
+                    "    public android.content.Context getContext() { return null; }",
+                    "}"),
+            JavaFileObjects.forSourceLines("com.qmuiteam.qmui.skin.annotation.QMUISkinSetter",
+                    "package com.qmuiteam.qmui.skin.annotation;",
+                    "public @interface QMUISkinSetter {",
+                    "    String value();",
+                    "}"),
+            JavaFileObjects.forSourceLines("com.qmuiteam.qmui.skin.IQMUISkinApplier",
+                    "package com.qmuiteam.qmui.skin;",
+                    "public interface IQMUISkinApplier {",
+                    "    boolean apply(QMUISkinManager manager, android.view.View view,",
+                    "                  android.content.res.Resources.Theme theme, int ruleId, int attr);",
+                    "}"),
+            JavaFileObjects.forSourceLines("com.qmuiteam.qmui.skin.QMUISkinApplierRegistry",
+                    "package com.qmuiteam.qmui.skin;",
+                    "public interface QMUISkinApplierRegistry {",
+                    "    IQMUISkinApplier getApplier(Class<?> viewClass);",
+                    "}"),
+            JavaFileObjects.forSourceLines("com.qmuiteam.qmui.skin.QMUISkinManager",
+                    "package com.qmuiteam.qmui.skin;",
+                    "import android.content.Context;",
+                    "import android.content.res.ColorStateList;",
+                    "import android.content.res.Resources;",
+                    "import android.graphics.drawable.Drawable;",
+                    "public class QMUISkinManager {",
+                    "    public static int getRuleId(String name) { return name.hashCode(); }",
+                    "    public int getSkinColor(Resources.Theme theme, int attr) { return attr; }",
+                    "    public float getSkinFloat(Resources.Theme theme, int attr) { return attr; }",
+                    "    public ColorStateList getSkinColorStateList(Context context, Resources.Theme theme, int attr) {",
+                    "        return null;",
+                    "    }",
+                    "    public Drawable getSkinDrawable(Context context, Resources.Theme theme, int attr) {",
+                    "        return null;",
+                    "    }",
+                    "}"));
+
+    private static final JavaFileObject SKIN_BUTTON = JavaFileObjects.forSourceLines("test.SkinButton",
+            "package test;",
+            "import android.content.res.ColorStateList;",
+            "import android.view.View;",
+            "import com.qmuiteam.qmui.skin.annotation.QMUISkinSetter;",
+            "public class SkinButton extends View {",
+            "    @QMUISkinSetter(\"textColor\")",
+            "    public void setTextColor(int color) {}",
+            "    @QMUISkinSetter(\"bgColor\")",
+            "    public void setBgColor(ColorStateList color) {}",
+            "}");
+
+    private static final JavaFileObject SKIN_ICON_BUTTON = JavaFileObjects.forSourceLines("test.SkinIconButton",
+            "package test;",
+            "import android.graphics.drawable.Drawable;",
+            "import com.qmuiteam.qmui.skin.annotation.QMUISkinSetter;",
+            "public class SkinIconButton extends SkinButton {",
+            "    @QMUISkinSetter(\"src\")",
+            "    public void setIcon(Drawable icon) {}",
+            "    @QMUISkinSetter(\"textColor\")",
+            "    public void setLabelColor(int color) {}",
+            "}");
+
+    private static final JavaFileObject PLAIN_VIEW = JavaFileObjects.forSourceLines("test.PlainView",
+            "package test;",
+            "import android.view.View;",
+            "public class PlainView extends View {",
+            "    public void setTextColor(int color) {}",
+            "}");
+
+    private static final JavaFileObject PLAIN_SUB_BUTTON = JavaFileObjects.forSourceLines("test.PlainSubButton",
+            "package test;",
+            "public class PlainSubButton extends SkinButton {}");
+
+    @Test
+    public void generateApplierWithRuleIds() {
+        Compilation compilation = compile(SKIN_BUTTON);
+        assertThat(compilation).succeeded();
+        assertThat(compilation).generatedSourceFile("test.SkinButton_QMUISkinApplier")
+                .contentsAsUtf8String()
+                .contains("private static final int RULE_0 = QMUISkinManager.getRuleId(\"textColor\");");
+        assertThat(compilation).generatedSourceFile("test.SkinButton_QMUISkinApplier")
+                .contentsAsUtf8String()
+                .contains("private static final int RULE_1 = QMUISkinManager.getRuleId(\"bgColor\");");
+        assertThat(compilation).generatedSourceFile("test.SkinButton_QMUISkinApplier")
+                .contentsAsUtf8String()
+                .contains("if (ruleId == RULE_0) {");
+        assertThat(compilation).generatedSourceFile("test.SkinButton_QMUISkinApplier")
+                .contentsAsUtf8String()
+                .contains("target.setTextColor(manager.getSkinColor(theme, attr));");
+        assertThat(compilation).generatedSourceFile("test.SkinButton_QMUISkinApplier")
+                .contentsAsUtf8String()
+                .contains("target.setBgColor(manager.getSkinColorStateList(target.getContext(), theme, attr));");
+        // rules without a setter fall back to the rule handlers
+        assertThat(compilation).generatedSourceFile("test.SkinButton_QMUISkinApplier")
+                .contentsAsUtf8String()
+                .contains("return false;");
+        assertThat(compilation).generatedSourceFile("test.SkinButton_QMUISkinApplier")
+                .contentsAsUtf8String()
+                .doesNotContain("switch");
+    }
+
+    @Test
+    public void subclassAppliesSetterOfSuperClass() {
+        Compilation compilation = compile(SKIN_BUTTON, SKIN_ICON_BUTTON);
+        assertThat(compilation).succeeded();
+        assertThat(compilation).generatedSourceFile("test.SkinIconButton_QMUISkinApplier")
+                .contentsAsUtf8String()
+                .contains("target.setBgColor(manager.getSkinColorStateList(target.getContext(), theme, attr));");
+        assertThat(compilation).generatedSourceFile("test.SkinIconButton_QMUISkinApplier")
+                .contentsAsUtf8String()
+                .contains("target.setIcon(manager.getSkinDrawable(target.getContext(), theme, attr));");
+        // the subclass setter wins for the same rule name
+        assertThat(compilation).generatedSourceFile("test.SkinIconButton_QMUISkinApplier")
+                .contentsAsUtf8String()
+                .contains("target.setLabelColor(manager.getSkinColor(theme, attr));");
+        assertThat(compilation).generatedSourceFile("test.SkinIconButton_QMUISkinApplier")
+                .contentsAsUtf8String()
+                .doesNotContain("target.setTextColor(");
+    }
+
+    @Test
+    public void registryFallsBackForUnannotatedViews() {
+        Compilation compilation = compile(SKIN_BUTTON, PLAIN_VIEW, PLAIN_SUB_BUTTON);
+        assertThat(compilation).succeeded();
+        assertThat(compilation).generatedSourceFile("com.qmuiteam.qmui.skin.QMUISkinApplierRegistryImpl")
+                .contentsAsUtf8String()
+                .contains("if (viewClass == SkinButton.class) {");
+        assertThat(compilation).generatedSourceFile("com.qmuiteam.qmui.skin.QMUISkinApplierRegistryImpl")
+                .contentsAsUtf8String()
+                .contains("return new SkinButton_QMUISkinApplier();");
+        // unannotated views get no applier, QMUISkinManager walks up to the nearest annotated super class
+        // and uses the rule handlers when there is none
+        assertThat(compilation).generatedSourceFile("com.qmuiteam.qmui.skin.QMUISkinApplierRegistryImpl")
+                .contentsAsUtf8String()
+                .doesNotContain("PlainView");
+        assertThat(compilation).generatedSourceFile("com.qmuiteam.qmui.skin.QMUISkinApplierRegistryImpl")
+                .contentsAsUtf8String()
+                .doesNotContain("PlainSubButton");
+        assertThat(compilation).generatedSourceFile("com.qmuiteam.qmui.skin.QMUISkinApplierRegistryImpl")
+                .contentsAsUtf8String()
+                .contains("return null;");
+        assertFalse(compilation.generatedSourceFile("test.PlainView_QMUISkinApplier").isPresent());
+        assertFalse(compilation.generatedSourceFile("test.PlainSubButton_QMUISkinApplier").isPresent());
+    }
+
+    @Test
+    public void noRegistryWithoutAnnotatedViews() {
+        Compilation compilation = compile(PLAIN_VIEW);
+        assertThat(compilation).succeeded();
+        assertFalse(compilation.generatedSourceFile("com.qmuiteam.qmui.skin.QMUISkinApplierRegistryImpl").isPresent());
+    }
+
+    @Test
+    public void rejectUnsupportedSetter() {
+        Compilation compilation = compile(JavaFileObjects.forSourceLines("test.BadView",
+                "package test;",
+                "import android.view.View;",
+                "import com.qmuiteam.qmui.skin.annotation.QMUISkinSetter;",
+                "public class BadView extends View {",
+                "    @QMUISkinSetter(\"text\")",
+                "    public void setText(String text) {}",
+                "}"));
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("QMUISkinSetter must be annotated on methods with one parameter");
+    }
+
+    private static Compilation compile(JavaFileObject... sources) {
+        List<JavaFileObject> files = new ArrayList<>(STUBS);
+        files.addAll(Arrays.asList(sources));
+        return javac().withProcessors(new SkinApplierProcessor()).compile(files);
+    }
+}
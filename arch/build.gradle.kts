@@ -38,4 +38,8 @@ dependencies {
     api(Dep.AndroidX.fragment)
     api(project(":arch-annotation"))
     compileOnly(project(":qmui"))
+
+    testImplementation(project(":qmui"))
+    testImplementation(Dep.Test.junit)
+    testImplementation(Dep.Test.robolectric)
 }
\ No newline at end of file
@@ -32,11 +32,11 @@ internal class ActivitySchemeItem(
     keysForFloat: Array<String>?,
     keysForDouble: Array<String>?,
     defaultParams: Array<String>?,
-    schemeMatcherCls: Class<out QMUISchemeMatcher>?,
-    schemeValueConverterCls: Class<out QMUISchemeValueConverter>?
+    schemeMatcher: QMUISchemeMatcher?,
+    schemeValueConverter: QMUISchemeValueConverter?
 ) : SchemeItem(
     required, useRefreshIfMatchedCurrent, keysForInt, keysForBool,
-    keysForLong, keysForFloat, keysForDouble, defaultParams, schemeMatcherCls, schemeValueConverterCls
+    keysForLong, keysForFloat, keysForDouble, defaultParams, schemeMatcher, schemeValueConverter
 ) {
     override fun handle(
         handler: QMUISchemeHandler,
@@ -40,11 +40,11 @@ internal class FragmentSchemeItem(
     keysForFloat: Array<String>?,
     keysForDouble: Array<String>?,
     defaultParams: Array<String>?,
-    schemeMatcherCls: Class<out QMUISchemeMatcher>?,
-    schemeValueConverterCls: Class<out QMUISchemeValueConverter>?
+    schemeMatcher: QMUISchemeMatcher?,
+    schemeValueConverter: QMUISchemeValueConverter?
 ) : SchemeItem(
     required, useRefreshIfMatchedCurrent, keysForInt, keysForBool, keysForLong,
-    keysForFloat, keysForDouble, defaultParams, schemeMatcherCls, schemeValueConverterCls
+    keysForFloat, keysForDouble, defaultParams, schemeMatcher, schemeValueConverter
 ) {
     override fun handle(
         handler: QMUISchemeHandler,
@@ -63,6 +63,15 @@ class QMUISchemeHandler private constructor(builder: Builder) {
     val defaultIntentFactory = builder.defaultIntentFactory
     val defaultFragmentFactory = builder.defaultFragmentFactory
     val defaultSchemeMatcher = builder.defaultSchemeMatcher
+    internal val defaultSchemeMatcherInstance: QMUISchemeMatcher? = try {
+        defaultSchemeMatcher.newInstance()
+    } catch (e: Exception) {
+        QMUILog.printErrStackTrace(
+            TAG, e,
+            "error to instance QMUISchemeMatcher: %s", defaultSchemeMatcher.simpleName
+        )
+        null
+    }
     private val fallbackInterceptor = builder.fallbackInterceptor
     private var lastHandledScheme: List<String>? = null
     private var lastSchemeHandledTime: Long = 0
@@ -94,15 +103,8 @@ class QMUISchemeHandler private constructor(builder: Builder) {
         val schemeInfoList = ArrayList<SchemeInfo>(schemes.size)
         for (schemeParam in schemes) {
             val scheme = schemeParam.substring(prefix.length)
-            val elements: Array<String?> = scheme.split("\\?".toRegex()).toTypedArray()
-            val action = elements[0]
-            if (elements.isEmpty() || action == null || action.isEmpty()) {
-                return false
-            }
             val params = mutableMapOf<String, String>()
-            if (elements.size > 1) {
-                parseParamsToMap(elements[1], params)
-            }
+            val action = parseScheme(scheme, params) ?: return false
             schemeInfoList.add(SchemeInfo(action, params, scheme))
         }
         var handled = false
@@ -11,10 +11,21 @@ fun parseParamsToMap(schemeParams: String?, queryMap: MutableMap<String, String>
     if (schemeParams == null || schemeParams.isEmpty()) {
         return
     }
-    var start = 0
+    parseParamsToMap(schemeParams, 0, schemeParams.length, queryMap)
+}
+
+/**
+ * parse the params in [[paramsStart], [paramsEnd]) of [schemeParams] in one pass without copying the range first.
+ * names and values are kept as they are in the scheme.
+ */
+fun parseParamsToMap(schemeParams: String, paramsStart: Int, paramsEnd: Int, queryMap: MutableMap<String, String>) {
+    if (paramsStart >= paramsEnd) {
+        return
+    }
+    var start = paramsStart
     do {
         val next = schemeParams.indexOf('&', start)
-        val end = if (next == -1) schemeParams.length else next
+        val end = if (next == -1 || next > paramsEnd) paramsEnd else next
         if (start == end) {
             start += 1
             continue
@@ -31,5 +42,24 @@ fun parseParamsToMap(schemeParams: String?, queryMap: MutableMap<String, String>
         val value = if (separator == end) "" else schemeParams.substring(separator + 1, end)
         queryMap[name] = value
         start = end + 1
-    } while (start < schemeParams.length)
-}
\ No newline at end of file
+    } while (start < paramsEnd)
+}
+
+/**
+ * split [scheme] without the prefix into the action and the params put into [queryMap].
+ * the action ends at the first '?', and the params end at the next '?' if there is one.
+ *
+ * @return the action, or null if it is empty.
+ */
+internal fun parseScheme(scheme: String, queryMap: MutableMap<String, String>): String? {
+    val paramsStart = scheme.indexOf('?')
+    val action = if (paramsStart < 0) scheme else scheme.substring(0, paramsStart)
+    if (action.isEmpty()) {
+        return null
+    }
+    if (paramsStart >= 0) {
+        val paramsEnd = scheme.indexOf('?', paramsStart + 1)
+        parseParamsToMap(scheme, paramsStart + 1, if (paramsEnd < 0) scheme.length else paramsEnd, queryMap)
+    }
+    return action
+}
@@ -17,40 +17,66 @@ package com.qmuiteam.qmui.arch.scheme
 
 import android.util.ArrayMap
 import com.qmuiteam.qmui.QMUILog
-import java.util.*
 
-private val schemeMatchers by lazy {
-    HashMap<Class<out QMUISchemeMatcher>, QMUISchemeMatcher>()
-}
-private val schemeValueConverters by lazy {
-    HashMap<Class<out QMUISchemeValueConverter>, QMUISchemeValueConverter>()
+private fun putValueTypes(valueTypes: ArrayMap<String, Class<*>>, keys: Array<String>?, type: Class<*>) {
+    if (keys == null) {
+        return
+    }
+    for (key in keys) {
+        // the first declared type wins, the same as the order they were checked before
+        if (!valueTypes.containsKey(key)) {
+            valueTypes[key] = type
+        }
+    }
 }
 
 abstract class SchemeItem(
-    private val required: ArrayMap<String, String?>?,
+    required: ArrayMap<String, String?>?,
     val isUseRefreshIfMatchedCurrent: Boolean,
-    private val keysForInt: Array<String>?,
-    private val keysForBool: Array<String>?,
-    private val keysForLong: Array<String>?,
-    private val keysForFloat: Array<String>?,
-    private val keysForDouble: Array<String>?,
-    private val defaultParams: Array<String>?,
-    private val schemeMatcherCls: Class<out QMUISchemeMatcher>?,
-    private val schemeValueConverterCls: Class<out QMUISchemeValueConverter>?
+    keysForInt: Array<String>?,
+    keysForBool: Array<String>?,
+    keysForLong: Array<String>?,
+    keysForFloat: Array<String>?,
+    keysForDouble: Array<String>?,
+    defaultParams: Array<String>?,
+    private val schemeMatcher: QMUISchemeMatcher?,
+    private val schemeValueConverter: QMUISchemeValueConverter?
 ) {
 
-    fun convertFrom(schemeParams: Map<String, String>?): Map<String, SchemeValue>? {
-        val originMap = mutableMapOf<String, String>()
-        if (defaultParams != null) {
-            for (item in defaultParams) {
-                if (item.isNotEmpty()) {
-                    val pair = item.split("=")
-                    if (pair.size == 2) {
-                        originMap[pair[0]] = pair[1]
-                    }
+    // the match plan, resolved when the item is created: required keys and the values they must be,
+    // null value means the scheme only needs to provide the key.
+    private val requiredKeys: Array<String> =
+        if (required == null) emptyArray() else Array(required.size) { required.keyAt(it) }
+    private val requiredValues: Array<String?> =
+        if (required == null) emptyArray() else Array(required.size) { required.valueAt(it) }
+
+    private val valueTypes = ArrayMap<String, Class<*>>().also {
+        putValueTypes(it, keysForInt, Integer.TYPE)
+        putValueTypes(it, arrayOf(QMUISchemeHandler.ARG_FORCE_TO_NEW_ACTIVITY, QMUISchemeHandler.ARG_FINISH_CURRENT), java.lang.Boolean.TYPE)
+        putValueTypes(it, keysForBool, java.lang.Boolean.TYPE)
+        putValueTypes(it, keysForLong, java.lang.Long.TYPE)
+        putValueTypes(it, keysForFloat, java.lang.Float.TYPE)
+        putValueTypes(it, keysForDouble, java.lang.Double.TYPE)
+    }
+
+    private val defaultParamMap: ArrayMap<String, String>? = defaultParams?.let { params ->
+        val map = ArrayMap<String, String>(params.size)
+        for (item in params) {
+            if (item.isNotEmpty()) {
+                val pair = item.split("=")
+                if (pair.size == 2) {
+                    map[pair[0]] = pair[1]
                 }
             }
         }
+        if (map.isEmpty()) null else map
+    }
+
+    fun convertFrom(schemeParams: Map<String, String>?): Map<String, SchemeValue>? {
+        val originMap = mutableMapOf<String, String>()
+        if (defaultParamMap != null) {
+            originMap.putAll(defaultParamMap)
+        }
         if (schemeParams != null) {
             originMap.putAll(schemeParams)
         }
@@ -62,39 +88,22 @@ abstract class SchemeItem(
             if (name.isEmpty()) {
                 continue
             }
-            var usedValue = value
-            if (schemeValueConverterCls != null) {
-                var converter = schemeValueConverters[schemeValueConverterCls]
-                if (converter == null) {
-                    try {
-                        converter = schemeValueConverterCls.newInstance()
-                        schemeValueConverters[schemeValueConverterCls] = converter
-                    } catch (e: Exception) {
-                        QMUILog.printErrStackTrace(
-                            QMUISchemeHandler.TAG, e,
-                            "error to instance QMUISchemeValueConverter: %d", schemeValueConverterCls.simpleName
-                        )
-                    }
-                }
-                if (converter != null) {
-                    usedValue = converter.convert(name, value, originMap)
-                }
-            }
+            val usedValue = schemeValueConverter?.convert(name, value, originMap) ?: value
             try {
-                when {
-                    keysForInt?.contains(name) == true -> {
+                when (valueTypes[name]) {
+                    Integer.TYPE -> {
                         queryMap[name] = SchemeValue(usedValue, Integer.valueOf(usedValue), Integer.TYPE)
                     }
-                    isBoolKey(name) -> {
+                    java.lang.Boolean.TYPE -> {
                         queryMap[name] = SchemeValue(usedValue, convertStringToBool(usedValue), java.lang.Boolean.TYPE)
                     }
-                    keysForLong?.contains(name) == true -> {
+                    java.lang.Long.TYPE -> {
                         queryMap[name] = SchemeValue(usedValue, java.lang.Long.valueOf(usedValue), java.lang.Long.TYPE)
                     }
-                    keysForFloat?.contains(name) == true -> {
+                    java.lang.Float.TYPE -> {
                         queryMap[name] = SchemeValue(usedValue, java.lang.Float.valueOf(usedValue), java.lang.Float.TYPE)
                     }
-                    keysForDouble?.contains(name) == true -> {
+                    java.lang.Double.TYPE -> {
                         queryMap[name] = SchemeValue(usedValue, java.lang.Double.valueOf(usedValue), java.lang.Double.TYPE)
                     }
                     else -> {
@@ -108,11 +117,6 @@ abstract class SchemeItem(
         return queryMap
     }
 
-    private fun isBoolKey(name: String): Boolean {
-        return QMUISchemeHandler.ARG_FORCE_TO_NEW_ACTIVITY == name || QMUISchemeHandler.ARG_FINISH_CURRENT == name ||
-                keysForBool?.contains(name) == true
-    }
-
     private fun convertStringToBool(text: String?): Boolean {
         return !(text.isNullOrBlank() || "0" == text || "false" == text.lowercase())
     }
@@ -125,49 +129,27 @@ abstract class SchemeItem(
         return schemeValue != null && schemeValue.type == java.lang.Boolean.TYPE && schemeValue.value as Boolean
     }
 
-    private fun getSchemeMatcher(handler: QMUISchemeHandler): QMUISchemeMatcher? {
-        var schemeMatcherCls = schemeMatcherCls
-        if (schemeMatcherCls == null) {
-            schemeMatcherCls = handler.defaultSchemeMatcher
-        }
-        var matcher = schemeMatchers[schemeMatcherCls]
-        if (matcher == null) {
-            try {
-                matcher = schemeMatcherCls.newInstance()
-                schemeMatchers[schemeMatcherCls] = matcher
-            } catch (e: Exception) {
-                QMUILog.printErrStackTrace(
-                    QMUISchemeHandler.TAG, e,
-                    "error to instance QMUISchemeMatcher: %d", schemeMatcherCls.simpleName
-                )
-            }
-        }
-        return matcher
-    }
-
     // used by generated code(SchemeMapImpl)
     fun match(handler: QMUISchemeHandler, params: Map<String, String?>?): Boolean {
-        val matcher = getSchemeMatcher(handler)
+        val matcher = schemeMatcher ?: handler.defaultSchemeMatcherInstance
         return matcher?.match(this, params) ?: matchRequiredParam(params)
     }
 
     fun matchRequiredParam(params: Map<String, String?>?): Boolean {
-        if (required == null || required.isEmpty()) {
+        if (requiredKeys.isEmpty()) {
             return true
         }
         if (params == null || params.isEmpty()) {
             return false
         }
-        for (i in 0 until required.size) {
-            val key = required.keyAt(i)
-            if (!params.containsKey(key)) {
-                return false
-            }
-            val value = required.valueAt(i)
-                ?: // if no value. that means scheme must provide this key.
-                continue
-            val actual = params[key]
-            if (actual == null || actual != value) {
+        for (i in requiredKeys.indices) {
+            val value = requiredValues[i]
+            if (value == null) {
+                // if no value. that means scheme must provide this key.
+                if (!params.containsKey(requiredKeys[i])) {
+                    return false
+                }
+            } else if (params[requiredKeys[i]] != value) {
                 return false
             }
         }
@@ -0,0 +1,79 @@
+package com.qmuiteam.qmui.arch.scheme
+
+import android.util.ArrayMap
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * The precomputed match plan and value types of [SchemeItem].
+ * It runs with Robolectric as the generated code passes [ArrayMap]s.
+ */
+@RunWith(RobolectricTestRunner::class)
+class SchemeItemTest {
+
+    private class TestSchemeItem(
+        required: ArrayMap<String, String?>?,
+        keysForInt: Array<String>? = null,
+        keysForBool: Array<String>? = null,
+        defaultParams: Array<String>? = null
+    ) : SchemeItem(required, false, keysForInt, keysForBool, null, null, null, defaultParams, null, null) {
+        override fun handle(handler: QMUISchemeHandler, handleContext: SchemeHandleContext, schemeInfo: SchemeInfo): Boolean {
+            return false
+        }
+    }
+
+    private fun required(vararg pairs: Pair<String, String?>): ArrayMap<String, String?> {
+        val map = ArrayMap<String, String?>()
+        for ((key, value) in pairs) {
+            map[key] = value
+        }
+        return map
+    }
+
+    @Test
+    fun matchWithoutRequired() {
+        assertTrue(TestSchemeItem(null).matchRequiredParam(null))
+        assertTrue(TestSchemeItem(required()).matchRequiredParam(mapOf("a" to "1")))
+    }
+
+    @Test
+    fun matchRequiredKey() {
+        val item = TestSchemeItem(required("id" to null))
+        assertTrue(item.matchRequiredParam(mapOf("id" to "1")))
+        assertTrue(item.matchRequiredParam(mapOf("id" to "")))
+        assertFalse(item.matchRequiredParam(mapOf("name" to "1")))
+        assertFalse(item.matchRequiredParam(emptyMap()))
+        assertFalse(item.matchRequiredParam(null))
+    }
+
+    @Test
+    fun matchRequiredValue() {
+        val item = TestSchemeItem(required("type" to "video", "id" to null))
+        assertTrue(item.matchRequiredParam(mapOf("type" to "video", "id" to "1")))
+        assertFalse(item.matchRequiredParam(mapOf("type" to "image", "id" to "1")))
+        assertFalse(item.matchRequiredParam(mapOf("type" to "video")))
+        assertFalse(item.matchRequiredParam(mapOf("id" to "1")))
+    }
+
+    @Test
+    fun convertValueTypes() {
+        val item = TestSchemeItem(null, keysForInt = arrayOf("id"), keysForBool = arrayOf("id", "mute"))
+        val values = item.convertFrom(mapOf("id" to "12", "mute" to "false", "name" to "q"))!!
+        // the first declared type wins
+        assertEquals(12, values["id"]!!.value)
+        assertEquals(Integer.TYPE, values["id"]!!.type)
+        assertEquals(false, values["mute"]!!.value)
+        assertEquals("q", values["name"]!!.value)
+        assertEquals(String::class.java, values["name"]!!.type)
+    }
+
+    @Test
+    fun convertWithDefaultParams() {
+        val item = TestSchemeItem(null, keysForInt = arrayOf("tab"), defaultParams = arrayOf("tab=1", "", "bad"))
+        assertEquals(1, item.convertFrom(null)!!["tab"]!!.value)
+        assertEquals(2, item.convertFrom(mapOf("tab" to "2"))!!["tab"]!!.value)
+        assertNull(TestSchemeItem(null).convertFrom(emptyMap()))
+    }
+}
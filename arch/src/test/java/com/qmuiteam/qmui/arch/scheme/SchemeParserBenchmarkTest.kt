@@ -0,0 +1,139 @@
+package com.qmuiteam.qmui.arch.scheme
+
+import com.sun.management.ThreadMXBean
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import java.util.Random
+
+/**
+ * Compares [parseScheme] with the split based parsing it replaced, over a corpus of schemes
+ * like the ones apps send: a few actions with 0 to 6 params, some of them with empty pairs,
+ * empty values or a second '?'.
+ *
+ * The fastest of several rounds is compared, so a slow round caused by GC or JIT does not fail the test.
+ */
+class SchemeParserBenchmarkTest {
+
+    companion object {
+        private const val CORPUS_SIZE = 2_000
+        private const val WARM_UP_ROUNDS = 20
+        private const val ROUNDS = 50
+
+        private val ACTIONS = arrayOf("home", "article", "video/play", "user_profile", "webview", "chat")
+        private val NAMES = arrayOf("id", "tab", "from", "aid", "uin", "title", "url", "forceNewActivity", "finishCurrent")
+        private val VALUES = arrayOf("1", "0", "true", "push", "123456789", "%E6%A0%87%E9%A2%98", "https%3A%2F%2Fqmuiteam.com%2F", "")
+    }
+
+    @Test
+    fun sameResultAsSplitParsing() {
+        for (scheme in corpus()) {
+            val params = mutableMapOf<String, String>()
+            val action = parseScheme(scheme, params)
+            val expectedParams = mutableMapOf<String, String>()
+            val expectedAction = parseBySplit(scheme, expectedParams)
+            assertEquals(scheme, expectedAction, action)
+            assertEquals(scheme, expectedParams, params)
+        }
+    }
+
+    @Test
+    fun parseCorpus() {
+        val corpus = corpus()
+        repeat(WARM_UP_ROUNDS) {
+            run(corpus, false)
+            run(corpus, true)
+        }
+        var splitNanos = Long.MAX_VALUE
+        var onePassNanos = Long.MAX_VALUE
+        repeat(ROUNDS) {
+            splitNanos = minOf(splitNanos, run(corpus, false))
+            onePassNanos = minOf(onePassNanos, run(corpus, true))
+        }
+        assertTrue("one pass ${onePassNanos / corpus.size}ns per scheme, " +
+                "split ${splitNanos / corpus.size}ns per scheme", onePassNanos <= splitNanos)
+    }
+
+    @Test
+    fun allocateLessThanSplitParsing() {
+        val threadBean = ManagementFactory.getThreadMXBean() as? ThreadMXBean
+        assumeTrue(threadBean != null && threadBean.isThreadAllocatedMemorySupported)
+        threadBean!!.isThreadAllocatedMemoryEnabled = true
+        val threadId = Thread.currentThread().id
+
+        val corpus = corpus()
+        repeat(WARM_UP_ROUNDS) {
+            run(corpus, false)
+            run(corpus, true)
+        }
+        var startBytes = threadBean.getThreadAllocatedBytes(threadId)
+        run(corpus, false)
+        val splitBytes = threadBean.getThreadAllocatedBytes(threadId) - startBytes
+        startBytes = threadBean.getThreadAllocatedBytes(threadId)
+        run(corpus, true)
+        val onePassBytes = threadBean.getThreadAllocatedBytes(threadId) - startBytes
+        assertTrue("one pass allocated $onePassBytes bytes, split allocated $splitBytes bytes",
+                onePassBytes < splitBytes)
+    }
+
+    /**
+     * @return the cost of parsing the whole corpus once in nanoseconds
+     */
+    private fun run(corpus: List<String>, onePass: Boolean): Long {
+        val params = mutableMapOf<String, String>()
+        var actions = 0
+        val start = System.nanoTime()
+        for (scheme in corpus) {
+            params.clear()
+            val action = if (onePass) parseScheme(scheme, params) else parseBySplit(scheme, params)
+            if (action != null) {
+                actions++
+            }
+        }
+        val cost = System.nanoTime() - start
+        assertEquals(corpus.size, actions)
+        return cost
+    }
+
+    private fun corpus(): List<String> {
+        val random = Random(25)
+        return List(CORPUS_SIZE) {
+            val builder = StringBuilder(ACTIONS[random.nextInt(ACTIONS.size)])
+            val paramCount = random.nextInt(7)
+            if (paramCount > 0 || random.nextInt(10) == 0) {
+                builder.append('?')
+            }
+            for (i in 0 until paramCount) {
+                if (i > 0) {
+                    builder.append(if (random.nextInt(20) == 0) "&&" else "&")
+                }
+                builder.append(NAMES[random.nextInt(NAMES.size)])
+                if (random.nextInt(10) != 0) {
+                    builder.append('=').append(VALUES[random.nextInt(VALUES.size)])
+                }
+            }
+            if (random.nextInt(20) == 0) {
+                builder.append("?from=share")
+            }
+            builder.toString()
+        }
+    }
+
+    /**
+     * the parsing of QMUISchemeHandler before [parseScheme]: split the scheme by '?'
+     * with a regex, then parse the second part as a whole.
+     */
+    private fun parseBySplit(scheme: String, queryMap: MutableMap<String, String>): String? {
+        val elements: Array<String?> = scheme.split("\\?".toRegex()).toTypedArray()
+        val action = elements[0]
+        if (elements.isEmpty() || action == null || action.isEmpty()) {
+            return null
+        }
+        if (elements.size > 1) {
+            parseParamsToMap(elements[1], queryMap)
+        }
+        return action
+    }
+}
@@ -0,0 +1,95 @@
+package com.qmuiteam.qmui.arch.scheme
+
+import org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * Local unit test of [parseParamsToMap] and [parseScheme].
+ */
+class SchemeParserTest {
+
+    private fun parse(params: String, start: Int = 0, end: Int = params.length): Map<String, String> {
+        val map = mutableMapOf<String, String>()
+        parseParamsToMap(params, start, end, map)
+        return map
+    }
+
+    @Test
+    fun parseParams() {
+        assertEquals(mapOf("a" to "1", "b" to "2"), parse("a=1&b=2"))
+        assertEquals(mapOf("a" to "1=2"), parse("a=1=2"))
+        assertEquals(mapOf("a" to "2"), parse("a=1&a=2"))
+    }
+
+    @Test
+    fun parseEmptyValuesAndNames() {
+        assertEquals(mapOf("a" to "", "b" to ""), parse("a=&b"))
+        assertEquals(mapOf("b" to "2"), parse("=1&b=2"))
+        assertEquals(emptyMap<String, String>(), parse(""))
+        assertEquals(emptyMap<String, String>(), parse("="))
+    }
+
+    @Test
+    fun skipEmptyPairs() {
+        assertEquals(mapOf("a" to "1", "b" to "2"), parse("a=1&&b=2"))
+        assertEquals(mapOf("a" to "1", "b" to "2"), parse("&&a=1&&&b=2&&"))
+        assertEquals(emptyMap<String, String>(), parse("&&&"))
+    }
+
+    @Test
+    fun parseInRegion() {
+        val scheme = "action?a=1&b=2?c=3"
+        val start = scheme.indexOf('?') + 1
+        val end = scheme.lastIndexOf('?')
+        assertEquals(mapOf("a" to "1", "b" to "2"), parse(scheme, start, end))
+        // the region ends right after a name or inside a value
+        assertEquals(mapOf("a" to "1", "b" to ""), parse(scheme, start, scheme.indexOf("=2")))
+        assertEquals(mapOf("a" to ""), parse(scheme, start, start + 1))
+        assertEquals(mapOf("a" to "1"), parse(scheme, start, start + 3))
+        // an empty or reversed region puts nothing
+        assertEquals(emptyMap<String, String>(), parse(scheme, start, start))
+        assertEquals(emptyMap<String, String>(), parse(scheme, end, start))
+    }
+
+    @Test
+    fun parseWholeString() {
+        val map = mutableMapOf<String, String>()
+        parseParamsToMap("a=1&b=2", map)
+        parseParamsToMap(null, map)
+        assertEquals(mapOf("a" to "1", "b" to "2"), map)
+    }
+
+    @Test
+    fun parseActionAndParams() {
+        val params = mutableMapOf<String, String>()
+        assertEquals("home", parseScheme("home?tab=1&from=push", params))
+        assertEquals(mapOf("tab" to "1", "from" to "push"), params)
+
+        params.clear()
+        assertEquals("home", parseScheme("home", params))
+        assertTrue(params.isEmpty())
+
+        params.clear()
+        assertEquals("home", parseScheme("home?", params))
+        assertTrue(params.isEmpty())
+    }
+
+    @Test
+    fun paramsEndAtTheSecondQuestionMark() {
+        val params = mutableMapOf<String, String>()
+        assertEquals("a", parseScheme("a?b?c", params))
+        assertEquals(mapOf("b" to ""), params)
+
+        params.clear()
+        assertEquals("a", parseScheme("a??b=1", params))
+        assertTrue(params.isEmpty())
+    }
+
+    @Test
+    fun emptyAction() {
+        val params = mutableMapOf<String, String>()
+        assertNull(parseScheme("", params))
+        assertNull(parseScheme("?a=1", params))
+        assertTrue(params.isEmpty())
+    }
+}
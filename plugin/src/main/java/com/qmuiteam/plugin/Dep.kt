@@ -30,6 +30,10 @@ object Dep {
         val fragment = "androidx.fragment:fragment:1.4.0"
     }
 
+    object Coroutines {
+        const val android = "org.jetbrains.kotlinx:kotlinx-coroutines-android:1.5.2"
+    }
+
     object Compose {
         val version = "1.1.0-rc01"
         val animation = "androidx.compose.animation:animation:$version"
@@ -65,4 +69,10 @@ object Dep {
     object Coil {
         const val compose = "io.coil-kt:coil-compose:2.0.0-alpha06"
     }
+
+    object Test {
+        const val junit = "junit:junit:4.13.2"
+        const val robolectric = "org.robolectric:robolectric:4.7.3"
+        const val compileTesting = "com.google.testing.compile:compile-testing:0.19"
+    }
 }
\ No newline at end of file
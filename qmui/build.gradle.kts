@@ -15,6 +15,7 @@ android {
     defaultConfig {
         minSdk = Dep.minSdk
         targetSdk = Dep.targetSdk
+        consumerProguardFiles("consumer-rules.pro")
     }
 
     buildTypes {
@@ -41,4 +42,6 @@ dependencies {
     api(Dep.AndroidX.swiperefreshlayout)
 
     api(Dep.MaterialDesign.material)
+
+    testImplementation(Dep.Test.junit)
 }
\ No newline at end of file
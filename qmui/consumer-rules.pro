@@ -0,0 +1,17 @@
+# QMUISkinOffscreenDispatcher reads RecyclerView's view cache and pool by reflection
+-keepclassmembers class androidx.recyclerview.widget.RecyclerView {
+    androidx.recyclerview.widget.RecyclerView$Recycler mRecycler;
+}
+-keepclassmembers class androidx.recyclerview.widget.RecyclerView$Recycler {
+    java.util.ArrayList mCachedViews;
+}
+-keepclassmembers class androidx.recyclerview.widget.RecyclerView$RecycledViewPool {
+    android.util.SparseArray mScrap;
+}
+-keepclassmembers class androidx.recyclerview.widget.RecyclerView$RecycledViewPool$ScrapData {
+    java.util.ArrayList mScrapHeap;
+}
+
+# QMUISkinManager loads the QMUISkinApplierRegistryImpl generated by arch-compiler by name
+-keep class com.qmuiteam.qmui.skin.QMUISkinApplierRegistryImpl { *; }
+-keep class * implements com.qmuiteam.qmui.skin.IQMUISkinApplier { *; }
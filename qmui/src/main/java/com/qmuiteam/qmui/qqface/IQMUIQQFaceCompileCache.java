@@ -0,0 +1,36 @@
+/*
+ * Tencent is pleased to support the open source community by making QMUI_Android available.
+ *
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qmuiteam.qmui.qqface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * {@link QMUIQQFaceCompiler} 的解析结果缓存，每个 {@link IQMUIQQFaceManager} 对应的 compiler 共用一个。
+ * 实现需要线程安全，默认实现为 {@link QMUIQQFaceCompileCache}。
+ */
+public interface IQMUIQQFaceCompileCache {
+
+    @Nullable
+    QMUIQQFaceCompiler.ElementList get(@NonNull CharSequence text);
+
+    void put(@NonNull CharSequence text, @NonNull QMUIQQFaceCompiler.ElementList elementList);
+
+    /**
+     * @param level {@link android.content.ComponentCallbacks2} 中的 TRIM_MEMORY_* 级别
+     */
+    void trimMemory(int level);
+}
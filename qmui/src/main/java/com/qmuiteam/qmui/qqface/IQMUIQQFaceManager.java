@@ -22,6 +22,8 @@ import android.graphics.drawable.Drawable;
  * QMUIQQFace资源管理接口，其实现参考QMUIDemo
  * 1. 不想将所有emoji表情资源全都打包到qmui中
  * 2. 使用者可以高度自定义表情资源
+ * <p>
+ * 解析可能在子线程进行（见 {@link QMUIPrecomputedQQFaceText}），实现需要保证查询方法线程安全。
  *
  * @author cginechen
  * @date 2016-12-21
@@ -0,0 +1,29 @@
+/*
+ * Tencent is pleased to support the open source community by making QMUI_Android available.
+ *
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qmuiteam.qmui.qqface;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 由 {@link IQMUIQQFaceManager} 一次性导出表情表，{@link QMUIQQFaceCompiler} 使用导出的表构建 {@link QMUIQQFaceMatcher}，
+ * 解析时不再逐个码点查询 manager，也不再为 [xx] 候选创建子字符串。
+ * <p>
+ * 实现此接口即表示导出的表是完整的，解析不会再调用 manager 的查询方法。
+ */
+public interface IQMUIQQFaceTableProvider {
+
+    void exportQQFaceTable(@NonNull QMUIQQFaceMatcher.Builder builder);
+}
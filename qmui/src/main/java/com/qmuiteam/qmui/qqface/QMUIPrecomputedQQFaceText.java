@@ -0,0 +1,181 @@
+/*
+ * Tencent is pleased to support the open source community by making QMUI_Android available.
+ *
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qmuiteam.qmui.qqface;
+
+import android.graphics.Typeface;
+import android.text.TextPaint;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.qmuiteam.qmui.util.QMUILangHelper;
+
+/**
+ * 预先计算好的 {@link QMUIQQFaceView} 内容，类似 {@link android.text.PrecomputedText}。
+ * <p>
+ * 在子线程中完成表情解析与断行，再通过 {@link QMUIQQFaceView#setPrecomputedText(QMUIPrecomputedQQFaceText)}
+ * 交给 View，如果 View 的宽度与参数没有变化，bind 与 measure 不再需要解析和断行。例如在 RecyclerView 的 item 还没有
+ * 上屏时预先计算：
+ * <pre>
+ * final QMUIPrecomputedQQFaceText.Params params = qqFaceView.getPrecomputedTextParams();
+ * executor.execute(() -&gt; {
+ *     QMUIPrecomputedQQFaceText text = QMUIPrecomputedQQFaceText.create(content, params, width);
+ *     qqFaceView.post(() -&gt; qqFaceView.setPrecomputedText(text));
+ * });
+ * </pre>
+ */
+public class QMUIPrecomputedQQFaceText {
+    private final CharSequence mText;
+    private final Params mParams;
+    private final QMUIQQFaceCompiler.ElementList mElementList;
+    private final int mLimitWidth;
+    private final int mLines;
+    private final int mLastLineWidth;
+    private final int mParagraphShowCount;
+    private final boolean mCanNotLayout;
+
+    /**
+     * @param limitWidth View 的宽度（包含 padding），AT_MOST 模式下为 min(可用宽度, maxWidth)
+     */
+    @WorkerThread
+    @NonNull
+    public static QMUIPrecomputedQQFaceText create(@Nullable CharSequence text, @NonNull Params params, int limitWidth) {
+        QMUIQQFaceCompiler.ElementList elementList = QMUIQQFaceView.createElementList(
+                text, params.mCompiler, params.mOpenQQFace);
+        if (elementList == null || elementList.getElements().isEmpty()
+                || limitWidth <= params.mPaddingLeft + params.mPaddingRight) {
+            return new QMUIPrecomputedQQFaceText(text, params, elementList, limitWidth, 0, 0, 0, false);
+        }
+        QMUIQQFaceLineBreaker lineBreaker = new QMUIQQFaceLineBreaker();
+        lineBreaker.setup(params.mPaint, params.mQQFaceSize, params.mSpecialDrawablePadding,
+                params.mMaxLine, params.mEllipsize);
+        lineBreaker.breakLines(elementList.getElements(), params.mPaddingLeft, limitWidth - params.mPaddingRight);
+        return new QMUIPrecomputedQQFaceText(text, params, elementList, limitWidth, lineBreaker.getLines(),
+                lineBreaker.getLastLineWidth(), lineBreaker.getParagraphShowCount(), lineBreaker.isCanNotLayout());
+    }
+
+    private QMUIPrecomputedQQFaceText(CharSequence text, Params params,
+                                      QMUIQQFaceCompiler.ElementList elementList, int limitWidth,
+                                      int lines, int lastLineWidth, int paragraphShowCount, boolean canNotLayout) {
+        mText = text;
+        mParams = params;
+        mElementList = elementList;
+        mLimitWidth = limitWidth;
+        mLines = lines;
+        mLastLineWidth = lastLineWidth;
+        mParagraphShowCount = paragraphShowCount;
+        mCanNotLayout = canNotLayout;
+    }
+
+    @Nullable
+    public CharSequence getText() {
+        return mText;
+    }
+
+    @NonNull
+    public Params getParams() {
+        return mParams;
+    }
+
+    public int getLimitWidth() {
+        return mLimitWidth;
+    }
+
+    public int getLineCount() {
+        return mLines;
+    }
+
+    QMUIQQFaceCompiler.ElementList getElementList() {
+        return mElementList;
+    }
+
+    int getLastLineWidth() {
+        return mLastLineWidth;
+    }
+
+    int getParagraphShowCount() {
+        return mParagraphShowCount;
+    }
+
+    boolean isCanNotLayout() {
+        return mCanNotLayout;
+    }
+
+    boolean hasLayout() {
+        return mLines > 0;
+    }
+
+    /**
+     * 影响解析与断行的 View 状态快照，由 {@link QMUIQQFaceView#getPrecomputedTextParams()} 在主线程创建。
+     */
+    public static class Params {
+        private final QMUIQQFaceCompiler mCompiler;
+        private final boolean mOpenQQFace;
+        private final TextPaint mPaint;
+        private final int mQQFaceSize;
+        private final int mSpecialDrawablePadding;
+        private final int mMaxLine;
+        private final TextUtils.TruncateAt mEllipsize;
+        private final int mPaddingLeft;
+        private final int mPaddingRight;
+
+        Params(QMUIQQFaceCompiler compiler, boolean openQQFace, TextPaint paint, int qqFaceSize,
+               int specialDrawablePadding, int maxLine, TextUtils.TruncateAt ellipsize,
+               int paddingLeft, int paddingRight) {
+            mCompiler = compiler;
+            mOpenQQFace = openQQFace;
+            // 复制一份，View 修改画笔不影响子线程的计算
+            mPaint = new TextPaint(paint);
+            mQQFaceSize = qqFaceSize;
+            mSpecialDrawablePadding = specialDrawablePadding;
+            mMaxLine = maxLine;
+            mEllipsize = ellipsize;
+            mPaddingLeft = paddingLeft;
+            mPaddingRight = paddingRight;
+        }
+
+        boolean isSameAs(QMUIQQFaceCompiler compiler, boolean openQQFace, TextPaint paint, int qqFaceSize,
+                         int specialDrawablePadding, int maxLine, TextUtils.TruncateAt ellipsize,
+                         int paddingLeft, int paddingRight) {
+            return mCompiler == compiler &&
+                    mOpenQQFace == openQQFace &&
+                    isSamePaint(paint) &&
+                    mQQFaceSize == qqFaceSize &&
+                    mSpecialDrawablePadding == specialDrawablePadding &&
+                    mMaxLine == maxLine &&
+                    mEllipsize == ellipsize &&
+                    mPaddingLeft == paddingLeft &&
+                    mPaddingRight == paddingRight;
+        }
+
+        boolean isSameAs(@NonNull Params other) {
+            return other == this || isSameAs(other.mCompiler, other.mOpenQQFace, other.mPaint, other.mQQFaceSize,
+                    other.mSpecialDrawablePadding, other.mMaxLine, other.mEllipsize,
+                    other.mPaddingLeft, other.mPaddingRight);
+        }
+
+        private boolean isSamePaint(TextPaint paint) {
+            Typeface typeface = paint.getTypeface();
+            return mPaint.getTextSize() == paint.getTextSize() &&
+                    QMUILangHelper.objectEquals(mPaint.getTypeface(), typeface) &&
+                    mPaint.getLetterSpacing() == paint.getLetterSpacing() &&
+                    mPaint.getTextScaleX() == paint.getTextScaleX() &&
+                    mPaint.isFakeBoldText() == paint.isFakeBoldText();
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Tencent is pleased to support the open source community by making QMUI_Android available.
+ *
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qmuiteam.qmui.qqface;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.collection.LongSparseArray;
+import androidx.core.content.ContextCompat;
+
+/**
+ * 进程内共享的表情位图缓存。每个表情资源在每个尺寸档位只解码、绘制一次，之后 {@link QMUIQQFaceView} 直接
+ * drawBitmap，滑动时绘制表情不再获取 Drawable，也没有对象分配。
+ * <p>
+ * 按位图字节数做 LRU 淘汰，首次使用时会注册到 Application 的 ComponentCallbacks，在 onTrimMemory 时释放。
+ * <p>
+ * 表情资源在夜间模式、不同 density 下可能对应不同的图片，key 中包含 Context 的夜间模式与 densityDpi，
+ * 配置变化时只有夜间模式或 densityDpi 变化才清空缓存，旋转屏幕等变化不会影响已缓存的位图。
+ */
+public class QMUIQQFaceBitmapCache implements ComponentCallbacks2 {
+    public static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+    // 尺寸按 4px 分档，减少不同字号产生的位图数量
+    private static final int SIZE_BUCKET = 4;
+
+    private static final QMUIQQFaceBitmapCache sInstance = new QMUIQQFaceBitmapCache(DEFAULT_MAX_BYTES);
+
+    @NonNull
+    public static QMUIQQFaceBitmapCache getInstance() {
+        return sInstance;
+    }
+
+    private final LongSparseArray<Entry> mEntries = new LongSparseArray<>();
+    // 按访问顺序的双向链表，head 为最近使用
+    private Entry mHead;
+    private Entry mTail;
+    private int mMaxBytes;
+    private int mBytes = 0;
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+    private int mEvictionCount = 0;
+    private boolean mCallbacksRegistered = false;
+    // Application 上一次的配置，用于判断配置变化是否影响位图
+    private int mLastNightMode = Configuration.UI_MODE_NIGHT_UNDEFINED;
+    private int mLastDensityDpi = Configuration.DENSITY_DPI_UNDEFINED;
+
+    private QMUIQQFaceBitmapCache(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    public synchronized void setMaxBytes(int maxBytes) {
+        mMaxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    /**
+     * @return 表情在尺寸档位上的位图，绘制时需缩放到 size；资源无效时返回 null
+     */
+    @Nullable
+    public synchronized Bitmap get(@NonNull Context context, int res, int size) {
+        if (res == 0 || size <= 0) {
+            return null;
+        }
+        int bucketSize = (size + SIZE_BUCKET - 1) / SIZE_BUCKET * SIZE_BUCKET;
+        long key = makeKey(res, bucketSize, context.getResources().getConfiguration());
+        Entry entry = mEntries.get(key);
+        if (entry != null) {
+            mHitCount++;
+            moveToHead(entry);
+            return entry.bitmap;
+        }
+        mMissCount++;
+        if (!mCallbacksRegistered) {
+            mCallbacksRegistered = true;
+            Context applicationContext = context.getApplicationContext();
+            recordConfiguration(applicationContext.getResources().getConfiguration());
+            applicationContext.registerComponentCallbacks(this);
+        }
+        Bitmap bitmap = createBitmap(context, res, bucketSize);
+        if (bitmap == null) {
+            return null;
+        }
+        entry = new Entry(key, bitmap);
+        mEntries.put(key, entry);
+        mBytes += entry.bytes;
+        moveToHead(entry);
+        trimToSize(mMaxBytes);
+        return bitmap;
+    }
+
+    /**
+     * 高 32 位为资源 id，低 32 位依次为夜间模式（2 位）、densityDpi（12 位）与尺寸档位（16 位）
+     */
+    private static long makeKey(int res, int bucketSize, Configuration configuration) {
+        int nightMode = (configuration.uiMode & Configuration.UI_MODE_NIGHT_MASK) >> 4;
+        int density = configuration.densityDpi & 0xfff;
+        int config = (nightMode << 28) | (density << 16) | (bucketSize & 0xffff);
+        return ((long) res << 32) | (config & 0xffffffffL);
+    }
+
+    @Nullable
+    private static Bitmap createBitmap(Context context, int res, int size) {
+        Drawable drawable = ContextCompat.getDrawable(context, res);
+        if (drawable == null) {
+            return null;
+        }
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        drawable.setBounds(0, 0, size, size);
+        drawable.draw(canvas);
+        return bitmap;
+    }
+
+    public synchronized void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            trimToSize(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimToSize(mMaxBytes / 2);
+        }
+    }
+
+    public synchronized void evictAll() {
+        trimToSize(0);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        trimMemory(level);
+    }
+
+    @Override
+    public synchronized void onConfigurationChanged(@NonNull Configuration newConfig) {
+        int nightMode = newConfig.uiMode & Configuration.UI_MODE_NIGHT_MASK;
+        if (nightMode != mLastNightMode || newConfig.densityDpi != mLastDensityDpi) {
+            // 旧配置下的位图一般不会再用到，直接释放
+            trimToSize(0);
+        }
+        recordConfiguration(newConfig);
+    }
+
+    private void recordConfiguration(Configuration configuration) {
+        mLastNightMode = configuration.uiMode & Configuration.UI_MODE_NIGHT_MASK;
+        mLastDensityDpi = configuration.densityDpi;
+    }
+
+    @Override
+    public void onLowMemory() {
+        evictAll();
+    }
+
+    private void trimToSize(int maxBytes) {
+        while (mBytes > maxBytes && mTail != null) {
+            Entry tail = mTail;
+            mEntries.remove(tail.key);
+            mBytes -= tail.bytes;
+            mTail = tail.prev;
+            if (mTail != null) {
+                mTail.next = null;
+            } else {
+                mHead = null;
+            }
+            tail.prev = null;
+            mEvictionCount++;
+            // 正在绘制的 View 可能仍持有该位图，交给 GC 回收，不主动 recycle
+        }
+    }
+
+    private void moveToHead(Entry entry) {
+        if (mHead == entry) {
+            return;
+        }
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        if (mTail == entry) {
+            mTail = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = mHead;
+        if (mHead != null) {
+            mHead.prev = entry;
+        }
+        mHead = entry;
+        if (mTail == null) {
+            mTail = entry;
+        }
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized int getBytes() {
+        return mBytes;
+    }
+
+    public synchronized int getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    public synchronized int evictionCount() {
+        return mEvictionCount;
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return "QMUIQQFaceBitmapCache{" +
+                "count=" + mEntries.size() +
+                ", bytes=" + mBytes +
+                ", maxBytes=" + mMaxBytes +
+                ", hit=" + mHitCount +
+                ", miss=" + mMissCount +
+                ", eviction=" + mEvictionCount +
+                '}';
+    }
+
+    private static class Entry {
+        final long key;
+        final Bitmap bitmap;
+        final int bytes;
+        Entry prev;
+        Entry next;
+
+        Entry(long key, Bitmap bitmap) {
+            this.key = key;
+            this.bitmap = bitmap;
+            this.bytes = bitmap.getAllocationByteCount();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Tencent is pleased to support the open source community by making QMUI_Android available.
+ *
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qmuiteam.qmui.qqface;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * 按估算内存大小淘汰的解析结果缓存。
+ * <ul>
+ * <li>以文本内容为 key，忽略 span 对象，不同 CharSequence 实例的相同内容可以命中。</li>
+ * <li>大小按 element 数量与文本长度估算（包含宽度缓存），而不是按条数。</li>
+ * <li>可以直接通过 {@link android.content.Context#registerComponentCallbacks} 注册，在 onTrimMemory 时释放。</li>
+ * </ul>
+ */
+public class QMUIQQFaceCompileCache implements IQMUIQQFaceCompileCache, ComponentCallbacks2 {
+    public static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+
+    private static final int ELEMENT_LIST_BYTES = 64;
+    private static final int ELEMENT_BYTES = 48;
+    // char 本身、getTextWidths 缓存的 float 以及断行用的 int 前缀和
+    private static final int TEXT_CHAR_BYTES = 2 + 4 + 4;
+    // 宽度缓存对象、两个数组的对象头以及前缀和多出的一项
+    private static final int TEXT_WIDTHS_BYTES = 48;
+
+    private final LruCache<ContentKey, QMUIQQFaceCompiler.ElementList> mCache;
+
+    public QMUIQQFaceCompileCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    public QMUIQQFaceCompileCache(int maxBytes) {
+        mCache = new LruCache<ContentKey, QMUIQQFaceCompiler.ElementList>(maxBytes) {
+            @Override
+            protected int sizeOf(ContentKey key, QMUIQQFaceCompiler.ElementList value) {
+                return key.length() * 2 + estimateBytes(value);
+            }
+        };
+    }
+
+    public static int estimateBytes(@NonNull QMUIQQFaceCompiler.ElementList elementList) {
+        int bytes = ELEMENT_LIST_BYTES;
+        List<QMUIQQFaceCompiler.Element> elements = elementList.getElements();
+        for (int i = 0; i < elements.size(); i++) {
+            QMUIQQFaceCompiler.Element element = elements.get(i);
+            bytes += ELEMENT_BYTES;
+            if (element.getText() != null) {
+                bytes += element.getText().length() * TEXT_CHAR_BYTES + TEXT_WIDTHS_BYTES;
+            }
+            if (element.getChildList() != null) {
+                bytes += estimateBytes(element.getChildList());
+            }
+        }
+        return bytes;
+    }
+
+    @Nullable
+    @Override
+    public QMUIQQFaceCompiler.ElementList get(@NonNull CharSequence text) {
+        return mCache.get(new ContentKey(text));
+    }
+
+    @Override
+    public void put(@NonNull CharSequence text, @NonNull QMUIQQFaceCompiler.ElementList elementList) {
+        // 使用 String 快照作为 key，原来的 Spannable 之后被修改也不影响缓存
+        mCache.put(new ContentKey(text.toString()), elementList);
+    }
+
+    @Override
+    public void trimMemory(int level) {
+        if (level >= TRIM_MEMORY_MODERATE) {
+            mCache.evictAll();
+        } else if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW
+                || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            mCache.trimToSize(mCache.maxSize() / 2);
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        trimMemory(level);
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+
+    }
+
+    @Override
+    public void onLowMemory() {
+        mCache.evictAll();
+    }
+
+    public void evictAll() {
+        mCache.evictAll();
+    }
+
+    public int size() {
+        return mCache.size();
+    }
+
+    public int maxSize() {
+        return mCache.maxSize();
+    }
+
+    public int hitCount() {
+        return mCache.hitCount();
+    }
+
+    public int missCount() {
+        return mCache.missCount();
+    }
+
+    public int evictionCount() {
+        return mCache.evictionCount();
+    }
+
+    public int putCount() {
+        return mCache.putCount();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "QMUIQQFaceCompileCache{" +
+                "bytes=" + size() +
+                ", maxBytes=" + maxSize() +
+                ", hit=" + hitCount() +
+                ", miss=" + missCount() +
+                ", eviction=" + evictionCount() +
+                '}';
+    }
+
+    private static final class ContentKey {
+        private final CharSequence mText;
+        private final int mHash;
+
+        ContentKey(CharSequence text) {
+            mText = text;
+            // 与 String.hashCode 一致，只与内容有关
+            int hash = 0;
+            for (int i = 0; i < text.length(); i++) {
+                hash = 31 * hash + text.charAt(i);
+            }
+            mHash = hash;
+        }
+
+        int length() {
+            return mText.length();
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ContentKey)) return false;
+            ContentKey that = (ContentKey) o;
+            if (mHash != that.mHash || mText.length() != that.mText.length()) {
+                return false;
+            }
+            for (int i = 0; i < mText.length(); i++) {
+                if (mText.charAt(i) != that.mText.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
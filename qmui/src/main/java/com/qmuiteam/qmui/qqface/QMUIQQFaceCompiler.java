@@ -16,12 +16,15 @@
 
 package com.qmuiteam.qmui.qqface;
 
+import android.content.ComponentCallbacks2;
+import android.graphics.Paint;
+import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
 import android.text.Spannable;
 import android.util.LruCache;
 
-import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.qmuiteam.qmui.span.QMUITouchableSpan;
 import com.qmuiteam.qmui.util.QMUILangHelper;
@@ -43,35 +46,48 @@ import java.util.Map;
 public class QMUIQQFaceCompiler {
     private static final int SPAN_COLUMN = 2;
     private static final Map<IQMUIQQFaceManager, QMUIQQFaceCompiler> sInstanceMap = new HashMap<>(4);
-    private static IQMUIQQFaceManager sDefaultQQFaceManager = new QMUINoQQFaceManager();
+    private static volatile IQMUIQQFaceManager sDefaultQQFaceManager = new QMUINoQQFaceManager();
 
     public static void setDefaultQQFaceManager(@NonNull IQMUIQQFaceManager defaultQQFaceManager) {
         sDefaultQQFaceManager = defaultQQFaceManager;
     }
 
-    private LruCache<CharSequence, ElementList> mCache;
+    // 缓存本身是线程安全的，替换时需要对其它线程可见
+    private volatile IQMUIQQFaceCompileCache mCache;
     private IQMUIQQFaceManager mQQFaceManager;
+    // manager 导出了表情表时不为空，解析只查这张表
+    private final QMUIQQFaceMatcher mMatcher;
 
 
-    @MainThread
+    /**
+     * 可以在任意线程调用，解析结果可在子线程预先计算，见 {@link QMUIPrecomputedQQFaceText}
+     */
     public static QMUIQQFaceCompiler getDefaultInstance(){
         return getInstance(sDefaultQQFaceManager);
     }
 
-    @MainThread
     public static QMUIQQFaceCompiler getInstance(IQMUIQQFaceManager manager) {
-        QMUIQQFaceCompiler instance = sInstanceMap.get(manager);
-        if (instance != null) {
+        synchronized (sInstanceMap) {
+            QMUIQQFaceCompiler instance = sInstanceMap.get(manager);
+            if (instance != null) {
+                return instance;
+            }
+            instance = new QMUIQQFaceCompiler(manager);
+            sInstanceMap.put(manager, instance);
             return instance;
         }
-        instance = new QMUIQQFaceCompiler(manager);
-        sInstanceMap.put(manager, instance);
-        return instance;
     }
 
     private QMUIQQFaceCompiler(IQMUIQQFaceManager manager) {
-        mCache = new LruCache<>(30);
+        mCache = new QMUIQQFaceCompileCache();
         mQQFaceManager = manager;
+        if (manager instanceof IQMUIQQFaceTableProvider) {
+            QMUIQQFaceMatcher.Builder builder = new QMUIQQFaceMatcher.Builder();
+            ((IQMUIQQFaceTableProvider) manager).exportQQFaceTable(builder);
+            mMatcher = builder.build();
+        } else {
+            mMatcher = null;
+        }
     }
 
     public int getSpecialBoundsMaxHeight() {
@@ -137,21 +153,65 @@ public class QMUIQQFaceCompiler {
             }
         }
 
-        ElementList elementList = mCache.get(text);
-        if (!hasClickableSpans && elementList != null && start == elementList.getStart() && end == elementList.getEnd()) {
+        IQMUIQQFaceCompileCache cache = mCache;
+        // 含有可点击 span 的内容不缓存，不需要查询，避免影响命中率统计
+        ElementList elementList = hasClickableSpans || inSpan ? null : cache.get(text);
+        if (elementList != null && start == elementList.getStart() && end == elementList.getEnd()) {
             return elementList;
         }
         elementList = realCompile(text, start, end, spans, spanInfo);
         if(!hasClickableSpans && !inSpan){
-            mCache.put(text, elementList);
+            // ElementList 构建完成后不再修改，通过缓存的同步发布给其它线程
+            cache.put(text, elementList);
         }
         return elementList;
     }
 
-    public void setCache(LruCache<CharSequence, ElementList> cache) {
+    public void setCache(@NonNull IQMUIQQFaceCompileCache cache) {
         mCache = cache;
     }
 
+    @NonNull
+    public IQMUIQQFaceCompileCache getCache() {
+        return mCache;
+    }
+
+    /**
+     * @deprecated 按条数淘汰，且 key 依赖 CharSequence 的 equals，使用 {@link #setCache(IQMUIQQFaceCompileCache)}
+     */
+    @Deprecated
+    public void setCache(final LruCache<CharSequence, ElementList> cache) {
+        mCache = new IQMUIQQFaceCompileCache() {
+            @Override
+            public ElementList get(@NonNull CharSequence text) {
+                return cache.get(text);
+            }
+
+            @Override
+            public void put(@NonNull CharSequence text, @NonNull ElementList elementList) {
+                cache.put(text, elementList);
+            }
+
+            @Override
+            public void trimMemory(int level) {
+                if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+                    cache.evictAll();
+                }
+            }
+        };
+    }
+
+    /**
+     * 释放所有 compiler 的解析缓存，在 Application.onTrimMemory 中调用
+     */
+    public static void trimMemory(int level) {
+        synchronized (sInstanceMap) {
+            for (QMUIQQFaceCompiler compiler : sInstanceMap.values()) {
+                compiler.mCache.trimMemory(level);
+            }
+        }
+    }
+
     @SuppressWarnings("ConstantConditions")
     private ElementList realCompile(CharSequence text, int start, int end, QMUITouchableSpan[] spans, int[] spanInfo) {
         int size = text.length();
@@ -164,6 +224,9 @@ public class QMUIQQFaceCompiler {
             nearSpanEnd = spanInfo[1];
         }
 
+        QMUIQQFaceMatcher matcher = mMatcher;
+        int maxLabelLength = matcher == null ? 8 : matcher.getMaxLabelLength() - 2;
+        int[] matchedResource = matcher == null ? null : new int[1];
         ElementList elementList = new ElementList(start, end);
         if (start > 0) {
             elementList.add(Element.createTextElement(text.subSequence(0, start)));
@@ -205,7 +268,19 @@ public class QMUIQQFaceCompiler {
             } else if (c == ']' && inParentheses) {
                 inParentheses = false;
                 index++;
-                if (index - last > 0) {
+                if (matcher != null) {
+                    int labelIndex = matcher.findLabel(text, last, index);
+                    if (labelIndex >= 0) {
+                        Drawable specialDrawable = matcher.getLabelSpecialBoundsDrawable(labelIndex);
+                        if (specialDrawable != null) {
+                            elementList.add(Element.createSpeaicalBoundsDrawableElement(specialDrawable));
+                            last = index;
+                        } else if (matcher.getLabelResource(labelIndex) != 0) {
+                            elementList.add(Element.createDrawableElement(matcher.getLabelResource(labelIndex)));
+                            last = index;
+                        }
+                    }
+                } else if (index - last > 0) {
                     String label = text.subSequence(last, index).toString();
                     Drawable specialDrawable = mQQFaceManager.getSpecialBoundsDrawable(label);
                     if (specialDrawable != null) {
@@ -232,7 +307,7 @@ public class QMUIQQFaceCompiler {
                 continue;
             }
             if (inParentheses) {
-                if (index - last > 8) {
+                if (index - last > maxLabelLength) {
                     inParentheses = false;
                 } else {
                     index++;
@@ -244,11 +319,14 @@ public class QMUIQQFaceCompiler {
 
             int skip = 0;
             int icon = 0;
-            if (mQQFaceManager.maybeSoftBankEmoji(c)) {
+            if (matcher != null) {
+                skip = matcher.matchEmoji(text, index, end, matchedResource);
+                icon = skip == 0 ? 0 : matchedResource[0];
+            } else if (mQQFaceManager.maybeSoftBankEmoji(c)) {
                 icon = mQQFaceManager.getSoftbankEmojiResource(c);
                 skip = icon == 0 ? 0 : 1;
             }
-            if (icon == 0) {
+            if (icon == 0 && matcher == null) {
                 int unicode = Character.codePointAt(text, index);
                 skip = Character.charCount(unicode);
                 if (mQQFaceManager.maybeEmoji(unicode)) {
@@ -294,6 +372,8 @@ public class QMUIQQFaceCompiler {
         private Drawable mSpecialBoundsDrawable;
         private ElementList mChildList; // for span
         private QMUITouchableSpan mTouchableSpan;
+        // Element 通过解析缓存在多个 View 间共享，画笔变化时整体替换该对象，而不是修改其中的数组
+        private volatile TextWidths mTextWidths;
 
         public ElementType getType() {
             return mType;
@@ -319,6 +399,37 @@ public class QMUIQQFaceCompiler {
             return mSpecialBoundsDrawable;
         }
 
+        /**
+         * 获取文本每个字符的宽度，结果按画笔状态（字号、字体、字间距等）缓存，measure 与 draw 以及相同文本的重复绑定可以复用。
+         * 返回的数组不可修改。
+         *
+         * @return 非 TEXT 类型返回 null
+         */
+        @Nullable
+        public float[] getTextWidths(@NonNull Paint paint) {
+            TextWidths textWidths = obtainTextWidths(paint);
+            return textWidths == null ? null : textWidths.widths;
+        }
+
+        /**
+         * 断行需要的宽度、前缀和与最大宽度应从同一次结果中读取，缓存只有一份，分开获取时可能被其它线程替换
+         *
+         * @return 非 TEXT 类型返回 null
+         */
+        @Nullable
+        TextWidths obtainTextWidths(@NonNull Paint paint) {
+            if (mType != ElementType.TEXT || mText == null) {
+                return null;
+            }
+            TextWidths textWidths = mTextWidths;
+            if (textWidths != null && textWidths.isMeasuredBy(paint)) {
+                return textWidths;
+            }
+            textWidths = new TextWidths(paint, mText);
+            mTextWidths = textWidths;
+            return textWidths;
+        }
+
         public static Element createTextElement(CharSequence text) {
             Element element = new Element();
             element.mType = ElementType.TEXT;
@@ -358,6 +469,46 @@ public class QMUIQQFaceCompiler {
     }
 
 
+    /**
+     * 文本的字符宽度测量结果，记录测量时的画笔状态，画笔状态不变时才可复用
+     */
+    static class TextWidths {
+        final float textSize;
+        final Typeface typeface;
+        final float letterSpacing;
+        final float textScaleX;
+        final boolean fakeBoldText;
+        final float[] widths;
+        final int[] ceilPrefixSums;
+        final float maxWidth;
+
+        TextWidths(Paint paint, CharSequence text) {
+            textSize = paint.getTextSize();
+            typeface = paint.getTypeface();
+            letterSpacing = paint.getLetterSpacing();
+            textScaleX = paint.getTextScaleX();
+            fakeBoldText = paint.isFakeBoldText();
+            widths = new float[text.length()];
+            // 使用 CharSequence 版本，避免 text.toString()
+            paint.getTextWidths(text, 0, text.length(), widths);
+            ceilPrefixSums = new int[widths.length + 1];
+            float max = 0;
+            for (int i = 0; i < widths.length; i++) {
+                ceilPrefixSums[i + 1] = ceilPrefixSums[i] + (int) Math.ceil(widths[i]);
+                max = Math.max(max, widths[i]);
+            }
+            maxWidth = max;
+        }
+
+        boolean isMeasuredBy(Paint paint) {
+            return textSize == paint.getTextSize() &&
+                    typeface == paint.getTypeface() &&
+                    letterSpacing == paint.getLetterSpacing() &&
+                    textScaleX == paint.getTextScaleX() &&
+                    fakeBoldText == paint.isFakeBoldText();
+        }
+    }
+
     public static class ElementList {
         private int mStart;
         private int mEnd;
@@ -0,0 +1,206 @@
+/*
+ * Tencent is pleased to support the open source community by making QMUI_Android available.
+ *
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qmuiteam.qmui.qqface;
+
+import android.graphics.Paint;
+import android.graphics.drawable.Drawable;
+import android.text.TextUtils;
+
+import java.util.List;
+
+/**
+ * {@link QMUIQQFaceView} 的断行计算，不依赖 View，可以在子线程中为 {@link QMUIPrecomputedQQFaceText} 计算。
+ * 每个实例只能在一个线程中使用。
+ */
+class QMUIQQFaceLineBreaker {
+    // 输入
+    private Paint mPaint;
+    private int mQQFaceSize;
+    private int mSpecialDrawablePadding;
+    private int mMaxLine;
+    private TextUtils.TruncateAt mEllipsize;
+
+    // 输出
+    private int mLines;
+    private int mLastLineWidth;
+    private int mParagraphShowCount;
+    private boolean mCanNotLayout;
+    private int mSearchSteps;
+
+    void setup(Paint paint, int qqFaceSize, int specialDrawablePadding, int maxLine, TextUtils.TruncateAt ellipsize) {
+        mPaint = paint;
+        mQQFaceSize = qqFaceSize;
+        mSpecialDrawablePadding = specialDrawablePadding;
+        mMaxLine = maxLine;
+        mEllipsize = ellipsize;
+    }
+
+    void breakLines(List<QMUIQQFaceCompiler.Element> elements, int widthStart, int widthEnd) {
+        mLines = 1;
+        mLastLineWidth = widthStart;
+        mParagraphShowCount = 0;
+        mCanNotLayout = false;
+        mSearchSteps = 0;
+        breakLinesInner(elements, widthStart, widthEnd);
+    }
+
+    int getLines() {
+        return mLines;
+    }
+
+    /**
+     * @return 最后一行的右边界，包含 widthStart
+     */
+    int getLastLineWidth() {
+        return mLastLineWidth;
+    }
+
+    int getParagraphShowCount() {
+        return mParagraphShowCount;
+    }
+
+    /**
+     * @return 宽度连一个字符或表情都放不下，此时应跳过 measure 与 draw
+     */
+    boolean isCanNotLayout() {
+        return mCanNotLayout;
+    }
+
+    /**
+     * @return 本次断行中二分查找比较的次数，单元测试用来确认断行是线性的
+     */
+    int getSearchSteps() {
+        return mSearchSteps;
+    }
+
+    private void breakLinesInner(List<QMUIQQFaceCompiler.Element> elements, int widthStart, int widthEnd) {
+        QMUIQQFaceCompiler.Element element;
+        for (int i = 0; i < elements.size(); i++) {
+            if (mCanNotLayout) {
+                break;
+            }
+            if (mLines > mMaxLine && mEllipsize == TextUtils.TruncateAt.END) {
+                break;
+            }
+            element = elements.get(i);
+            if (element.getType() == QMUIQQFaceCompiler.ElementType.DRAWABLE) {
+                if (mLastLineWidth + mQQFaceSize > widthEnd) {
+                    gotoNextLine(widthStart, false);
+                }
+                mLastLineWidth += mQQFaceSize;
+                if (widthEnd - widthStart < mQQFaceSize) {
+                    // 一个表情的宽度都容不下
+                    mCanNotLayout = true;
+                }
+            } else if (element.getType() == QMUIQQFaceCompiler.ElementType.TEXT) {
+                measureText(element, widthStart, widthEnd);
+            } else if (element.getType() == QMUIQQFaceCompiler.ElementType.SPAN) {
+                QMUIQQFaceCompiler.ElementList spanElementList = element.getChildList();
+                if (spanElementList != null && spanElementList.getElements().size() > 0) {
+                    breakLinesInner(spanElementList.getElements(), widthStart, widthEnd);
+                }
+            } else if (element.getType() == QMUIQQFaceCompiler.ElementType.NEXTLINE) {
+                gotoNextLine(widthStart, true);
+            } else if (element.getType() == QMUIQQFaceCompiler.ElementType.SPECIAL_BOUNDS_DRAWABLE) {
+                Drawable drawable = element.getSpecialBoundsDrawable();
+                int width = drawable.getIntrinsicWidth();
+                if (i == 0 || i == elements.size() - 1) {
+                    width += mSpecialDrawablePadding;
+                } else {
+                    width += mSpecialDrawablePadding * 2;
+                }
+                if (mLastLineWidth + width > widthEnd) {
+                    gotoNextLine(widthStart, false);
+                    mLastLineWidth += width;
+                } else if (mLastLineWidth + width == widthEnd) {
+                    gotoNextLine(widthStart, false);
+                } else {
+                    mLastLineWidth += width;
+                }
+                if (widthEnd - widthStart < width) {
+                    // 一个表情的宽度都容不下
+                    mCanNotLayout = true;
+                }
+            }
+        }
+    }
+
+    private void gotoNextLine(int widthStart, boolean nextParagraph) {
+        mLines++;
+        mLastLineWidth = widthStart;
+        if (nextParagraph) {
+            if (mEllipsize == null) {
+                mParagraphShowCount++;
+            } else if (mEllipsize == TextUtils.TruncateAt.END) {
+                if (mLines <= mMaxLine) {
+                    mParagraphShowCount++;
+                }
+            }
+        }
+    }
+
+    /**
+     * 行宽按向上取整的字符宽度累加，第 i 个字符放不下的条件为 lineWidth + prefix[i] - prefix[start] + widths[i] > widthEnd，
+     * 左侧随 i 单调不减，所以每一行只需要一次二分查找，整段文字的断行是线性的。
+     */
+    private void measureText(QMUIQQFaceCompiler.Element element, int widthStart, int widthEnd) {
+        QMUIQQFaceCompiler.TextWidths textWidths = element.obtainTextWidths(mPaint);
+        if (textWidths == null || textWidths.widths.length == 0) {
+            return;
+        }
+        measureText(textWidths.widths, textWidths.ceilPrefixSums, textWidths.maxWidth, widthStart, widthEnd);
+    }
+
+    /**
+     * 不依赖 Paint 的断行，单元测试直接传入字符宽度
+     *
+     * @param prefixSums 长度为 widths.length + 1 的向上取整宽度前缀和
+     * @param maxWidth   widths 中的最大值
+     */
+    void measureText(float[] widths, int[] prefixSums, float maxWidth, int widthStart, int widthEnd) {
+        int end = widths.length;
+        if (maxWidth > widthEnd - widthStart) {
+            // mLastLineWidth 已经是最小值，但又一个字都容纳不下，只能说明 widthEnd 太小，可能还在测量中
+            mCanNotLayout = true;
+            end = 0;
+            while (widths[end] <= widthEnd - widthStart) {
+                end++;
+            }
+        }
+        int start = 0;
+        while (start < end) {
+            int base = mLastLineWidth - prefixSums[start];
+            int low = start, high = end - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                mSearchSteps++;
+                if (base + prefixSums[mid] + widths[mid] > widthEnd) {
+                    high = mid - 1;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            // low 为当前行第一个放不下的字符
+            mLastLineWidth = base + prefixSums[low];
+            if (low >= end) {
+                return;
+            }
+            gotoNextLine(widthStart, false);
+            // 新的一行至少能放下 low 这一个字符，循环一定会前进
+            start = low;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Tencent is pleased to support the open source community by making QMUI_Android available.
+ *
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qmuiteam.qmui.qqface;
+
+import java.util.List;
+
+/**
+ * {@link QMUIQQFaceView} 的逐行绘制索引：记录每一行起始处所在的元素下标、文字偏移以及该行的基线与起始 x，
+ * 使绘制可以直接从第一个可见行开始，在最后一个可见行之后结束，而不用每次都从第一个元素走一遍。
+ * <p>
+ * 索引在一次完整绘制中顺带生成，行号不连续或行数与断行结果不一致时放弃，由 View 回退到完整绘制。只在主线程使用。
+ */
+class QMUIQQFaceLineIndex {
+    static final int NO_CHILD = -1;
+
+    /**
+     * 占据若干行的内容，例如可点击的 span，行号从 1 开始
+     */
+    interface LineRange {
+        int getStartLine();
+
+        int getEndLine();
+    }
+
+    private int[] mElementIndexes = new int[0];
+    private int[] mChildIndexes = new int[0];
+    private int[] mOffsets = new int[0];
+    private int[] mBaseLines = new int[0];
+    private int[] mStartUsedWidths = new int[0];
+    private int mLineCount = 0;
+    private boolean mIsRecording = false;
+    private boolean mIsValid = false;
+
+    // 生成索引时的布局状态，任一不同则索引失效
+    private Object mElementList;
+    private int mWidth;
+    private int mNeedDrawLine;
+    private int mLastLineWidth;
+    private int mGravity;
+
+    void startRecord(Object elementList, int width, int needDrawLine, int lastLineWidth, int gravity) {
+        mElementList = elementList;
+        mWidth = width;
+        mNeedDrawLine = needDrawLine;
+        mLastLineWidth = lastLineWidth;
+        mGravity = gravity;
+        ensureCapacity(needDrawLine);
+        mLineCount = 0;
+        mIsValid = false;
+        mIsRecording = needDrawLine > 0;
+    }
+
+    boolean isRecording() {
+        return mIsRecording;
+    }
+
+    /**
+     * @param childIndex  行首在 span 内时为 span 子元素的下标，否则为 {@link #NO_CHILD}
+     * @param offset      行首为文字元素时在文字内的偏移
+     */
+    void record(int line, int elementIndex, int childIndex, int offset, int baseLine, int startUsedWidth) {
+        if (!mIsRecording || line > mNeedDrawLine) {
+            return;
+        }
+        if (line != mLineCount + 1) {
+            abort();
+            return;
+        }
+        int i = line - 1;
+        mElementIndexes[i] = elementIndex;
+        mChildIndexes[i] = childIndex;
+        mOffsets[i] = offset;
+        mBaseLines[i] = baseLine;
+        mStartUsedWidths[i] = startUsedWidth;
+        mLineCount = line;
+    }
+
+    void abort() {
+        mIsRecording = false;
+        mIsValid = false;
+    }
+
+    void finishRecord() {
+        if (mIsRecording) {
+            mIsValid = mLineCount == mNeedDrawLine;
+            mIsRecording = false;
+        }
+    }
+
+    void invalidate() {
+        mIsRecording = false;
+        mIsValid = false;
+        mElementList = null;
+    }
+
+    boolean isValid(Object elementList, int width, int needDrawLine, int lastLineWidth, int gravity) {
+        return mIsValid && mElementList == elementList && mWidth == width && mNeedDrawLine == needDrawLine
+                && mLastLineWidth == lastLineWidth && mGravity == gravity;
+    }
+
+    /**
+     * @return 顶部不低于 top 的最后一行，行号从 1 开始。行的顶部取自绘制时的基线，已计入段间距
+     */
+    int findLine(int top, int firstBaseLine) {
+        int low = 0, high = mLineCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mBaseLines[mid] - firstBaseLine <= top) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return Math.max(1, high + 1);
+    }
+
+    /**
+     * @param ranges 按起止行递增排列，例如按绘制顺序排列的 span
+     * @return 第一个结束行不早于 line 的下标，没有时为 ranges.size()
+     */
+    static int findFirstRange(List<? extends LineRange> ranges, int line) {
+        int low = 0, high = ranges.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (ranges.get(mid).getEndLine() < line) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    int getElementIndex(int line) {
+        return mElementIndexes[line - 1];
+    }
+
+    int getChildIndex(int line) {
+        return mChildIndexes[line - 1];
+    }
+
+    int getOffset(int line) {
+        return mOffsets[line - 1];
+    }
+
+    int getBaseLine(int line) {
+        return mBaseLines[line - 1];
+    }
+
+    int getStartUsedWidth(int line) {
+        return mStartUsedWidths[line - 1];
+    }
+
+    private void ensureCapacity(int lineCount) {
+        if (mElementIndexes.length >= lineCount) {
+            return;
+        }
+        mElementIndexes = new int[lineCount];
+        mChildIndexes = new int[lineCount];
+        mOffsets = new int[lineCount];
+        mBaseLines = new int[lineCount];
+        mStartUsedWidths = new int[lineCount];
+    }
+}
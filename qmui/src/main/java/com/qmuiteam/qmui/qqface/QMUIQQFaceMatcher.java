@@ -0,0 +1,263 @@
+/*
+ * Tencent is pleased to support the open source community by making QMUI_Android available.
+ *
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qmuiteam.qmui.qqface;
+
+import android.graphics.drawable.Drawable;
+import android.util.SparseIntArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 编译好的表情匹配表，构建后只读，可在多线程中使用。
+ * <ul>
+ * <li>Unicode 表情使用码点 trie，支持任意长度的码点序列（ZWJ 组合、国旗、肤色修饰、keycap 等），按最长匹配。</li>
+ * <li>[xx] 形式的表情使用开放寻址的哈希表，直接在原文本的区间上计算哈希与比较，不创建子字符串。</li>
+ * </ul>
+ *
+ * @see IQMUIQQFaceTableProvider
+ */
+public final class QMUIQQFaceMatcher {
+    private static final int NOT_FOUND = -1;
+
+    private final SparseIntArray mSoftBankEmojis;
+    private final TrieNode mEmojiRoot;
+    private final String[] mLabels;
+    private final int[] mLabelResources;
+    private final Drawable[] mLabelDrawables;
+    private final int mLabelMask;
+    private final int mMaxLabelLength;
+
+    private QMUIQQFaceMatcher(Builder builder) {
+        mSoftBankEmojis = builder.mSoftBankEmojis.clone();
+        mEmojiRoot = builder.mEmojiRoot.freeze();
+
+        int labelCount = builder.mLabelResources.size() + builder.mLabelDrawables.size();
+        int capacity = Integer.highestOneBit(Math.max(labelCount, 1) * 2 - 1) << 1;
+        mLabels = new String[capacity];
+        mLabelResources = new int[capacity];
+        mLabelDrawables = new Drawable[capacity];
+        mLabelMask = capacity - 1;
+        int maxLabelLength = 0;
+        for (Map.Entry<String, Integer> entry : builder.mLabelResources.entrySet()) {
+            int slot = findSlot(entry.getKey());
+            mLabels[slot] = entry.getKey();
+            mLabelResources[slot] = entry.getValue();
+            maxLabelLength = Math.max(maxLabelLength, entry.getKey().length());
+        }
+        for (Map.Entry<String, Drawable> entry : builder.mLabelDrawables.entrySet()) {
+            int slot = findSlot(entry.getKey());
+            mLabels[slot] = entry.getKey();
+            mLabelDrawables[slot] = entry.getValue();
+            maxLabelLength = Math.max(maxLabelLength, entry.getKey().length());
+        }
+        mMaxLabelLength = maxLabelLength;
+    }
+
+    private int findSlot(String label) {
+        int slot = label.hashCode() & mLabelMask;
+        while (mLabels[slot] != null && !mLabels[slot].equals(label)) {
+            slot = (slot + 1) & mLabelMask;
+        }
+        return slot;
+    }
+
+    /**
+     * @return 最长的 [xx] 表情文本长度（包含括号）
+     */
+    public int getMaxLabelLength() {
+        return mMaxLabelLength;
+    }
+
+    /**
+     * 查找 text 中 [start, end) 区间的 [xx] 表情
+     *
+     * @return 表情在表中的位置，没有则返回 -1，通过 {@link #getLabelResource(int)} 或
+     * {@link #getLabelSpecialBoundsDrawable(int)} 获取结果
+     */
+    public int findLabel(@NonNull CharSequence text, int start, int end) {
+        int length = end - start;
+        if (length <= 0 || length > mMaxLabelLength) {
+            return NOT_FOUND;
+        }
+        // 与 String.hashCode 一致
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        int slot = hash & mLabelMask;
+        String label;
+        while ((label = mLabels[slot]) != null) {
+            if (label.length() == length && regionEquals(label, text, start)) {
+                return slot;
+            }
+            slot = (slot + 1) & mLabelMask;
+        }
+        return NOT_FOUND;
+    }
+
+    private static boolean regionEquals(String label, CharSequence text, int start) {
+        for (int i = 0; i < label.length(); i++) {
+            if (label.charAt(i) != text.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getLabelResource(int labelIndex) {
+        return mLabelResources[labelIndex];
+    }
+
+    @Nullable
+    public Drawable getLabelSpecialBoundsDrawable(int labelIndex) {
+        return mLabelDrawables[labelIndex];
+    }
+
+    /**
+     * 从 start 开始匹配表情，SoftBank 表情优先，其次为 Unicode 表情的最长匹配
+     *
+     * @param outResource 长度至少为 1，匹配成功时 outResource[0] 为表情资源
+     * @return 匹配的 char 数，没有匹配返回 0
+     */
+    public int matchEmoji(@NonNull CharSequence text, int start, int end, @NonNull int[] outResource) {
+        char c = text.charAt(start);
+        int softBank = mSoftBankEmojis.get(c);
+        if (softBank != 0) {
+            outResource[0] = softBank;
+            return 1;
+        }
+        TrieNode node = mEmojiRoot;
+        int index = start;
+        int matchedLength = 0;
+        while (index < end) {
+            int codePoint = Character.codePointAt(text, index);
+            node = node.child(codePoint);
+            if (node == null) {
+                break;
+            }
+            index += Character.charCount(codePoint);
+            if (node.resource != 0) {
+                matchedLength = index - start;
+                outResource[0] = node.resource;
+            }
+        }
+        return matchedLength;
+    }
+
+    public static class Builder {
+        private final SparseIntArray mSoftBankEmojis = new SparseIntArray();
+        private final TrieNode mEmojiRoot = new TrieNode();
+        private final HashMap<String, Integer> mLabelResources = new HashMap<>();
+        private final HashMap<String, Drawable> mLabelDrawables = new HashMap<>();
+
+        public Builder addSoftBankEmoji(char c, int resource) {
+            mSoftBankEmojis.put(c, resource);
+            return this;
+        }
+
+        /**
+         * @param codePoints 表情的完整码点序列，例如 ZWJ 组合需包含 0x200D
+         */
+        public Builder addEmoji(int resource, @NonNull int... codePoints) {
+            if (codePoints.length == 0) {
+                throw new IllegalArgumentException("codePoints must not be empty");
+            }
+            TrieNode node = mEmojiRoot;
+            for (int codePoint : codePoints) {
+                node = node.getOrCreateChild(codePoint);
+            }
+            node.resource = resource;
+            return this;
+        }
+
+        /**
+         * @param label 以 [ 开头，以 ] 结尾，例如 [微笑]
+         */
+        public Builder addQQFace(@NonNull String label, int resource) {
+            mLabelResources.put(label, resource);
+            return this;
+        }
+
+        /**
+         * @param label 以 [ 开头，以 ] 结尾
+         */
+        public Builder addSpecialBoundsDrawable(@NonNull String label, @NonNull Drawable drawable) {
+            mLabelDrawables.put(label, drawable);
+            return this;
+        }
+
+        public QMUIQQFaceMatcher build() {
+            return new QMUIQQFaceMatcher(this);
+        }
+    }
+
+    private static final class TrieNode {
+        private static final int[] EMPTY_KEYS = new int[0];
+        private static final TrieNode[] EMPTY_CHILDREN = new TrieNode[0];
+
+        int resource;
+        // 构建时使用 HashMap，freeze 后转为有序数组，查询使用二分查找
+        private HashMap<Integer, TrieNode> mBuildingChildren;
+        private int[] mKeys = EMPTY_KEYS;
+        private TrieNode[] mChildren = EMPTY_CHILDREN;
+
+        TrieNode getOrCreateChild(int codePoint) {
+            if (mBuildingChildren == null) {
+                mBuildingChildren = new HashMap<>();
+            }
+            TrieNode child = mBuildingChildren.get(codePoint);
+            if (child == null) {
+                child = new TrieNode();
+                mBuildingChildren.put(codePoint, child);
+            }
+            return child;
+        }
+
+        /**
+         * @return 只读的副本，Builder 之后的修改不影响已构建的 matcher
+         */
+        TrieNode freeze() {
+            TrieNode frozen = new TrieNode();
+            frozen.resource = resource;
+            if (mBuildingChildren != null && !mBuildingChildren.isEmpty()) {
+                int[] keys = new int[mBuildingChildren.size()];
+                int i = 0;
+                for (Integer key : mBuildingChildren.keySet()) {
+                    keys[i++] = key;
+                }
+                Arrays.sort(keys);
+                TrieNode[] children = new TrieNode[keys.length];
+                for (i = 0; i < keys.length; i++) {
+                    children[i] = mBuildingChildren.get(keys[i]).freeze();
+                }
+                frozen.mKeys = keys;
+                frozen.mChildren = children;
+            }
+            return frozen;
+        }
+
+        @Nullable
+        TrieNode child(int codePoint) {
+            int index = Arrays.binarySearch(mKeys, codePoint);
+            return index >= 0 ? mChildren[index] : null;
+        }
+    }
+}
@@ -19,6 +19,7 @@ package com.qmuiteam.qmui.qqface;
 import android.content.Context;
 import android.content.res.ColorStateList;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -34,6 +35,8 @@ import android.view.View;
 import android.view.ViewGroup;
 
 import androidx.annotation.ColorInt;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
 
@@ -45,6 +48,7 @@ import com.qmuiteam.qmui.util.QMUIDisplayHelper;
 import com.qmuiteam.qmui.util.QMUILangHelper;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
@@ -57,6 +61,8 @@ import static android.view.View.MeasureSpec.AT_MOST;
  * <li>支持显示表情的伪 {@link android.widget.TextView}（继续自定义 {@link View}，而不是真正的 {@link android.widget.TextView})，
  * 实现了 {@link android.widget.TextView} 的 maxLine、ellipsize、textSize、textColor 等基本功能。</li>
  * <li>支持与 {@link QMUITouchableSpan} 配合使用实现内容可点击。</li>
+ * <li>长文本只绘制与画布裁剪区域相交的行。硬件加速（默认）时 View 的内容整体录制，裁剪区域就是整个 View，
+ * 因此仍然完整绘制；只有软件绘制或软件 layer（例如被父布局裁剪的长文本）时才会跳过不可见的行。</li>
  * </ul>
  *
  * @author cginechen
@@ -110,6 +116,9 @@ public class QMUIQQFaceView extends View {
     private boolean mIsNeedUnderlineForMoreText = false;
     private ColorStateList mLinkUnderLineColor;
     private int mLinkUnderLineHeight = 1;
+    private boolean mUseQQFaceBitmapCache = true;
+    private final Rect mQQFaceBitmapDstRect = new Rect();
+    private final Paint mQQFaceBitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
 
     public QMUIQQFaceView(Context context) {
         this(context, null);
@@ -170,12 +179,26 @@ public class QMUIQQFaceView extends View {
         setCompiler(QMUIQQFaceCompiler.getDefaultInstance());
     }
 
+    /**
+     * 是否使用 {@link QMUIQQFaceBitmapCache} 绘制表情，默认开启。表情资源需要随状态或 tint 变化时可以关闭。
+     */
+    public void setUseQQFaceBitmapCache(boolean useQQFaceBitmapCache) {
+        if (mUseQQFaceBitmapCache != useQQFaceBitmapCache) {
+            mUseQQFaceBitmapCache = useQQFaceBitmapCache;
+            invalidate();
+        }
+    }
+
     public void setOpenQQFace(boolean openQQFace) {
         mOpenQQFace = openQQFace;
     }
 
     public void setGravity(int gravity) {
-        mGravity = gravity;
+        if (mGravity != gravity) {
+            mGravity = gravity;
+            mDrawLineIndex.invalidate();
+            invalidate();
+        }
     }
 
     public int getGravity() {
@@ -195,6 +218,41 @@ public class QMUIQQFaceView extends View {
 
     SpanInfo mTouchSpanInfo = null;
 
+    @Nullable
+    private SpanInfo findTouchSpanInfo(int x, int y) {
+        if (!isDrawLineIndexValid()) {
+            for (SpanInfo spanInfo : mSpanInfos.values()) {
+                if (spanInfo.onTouch(x, y)) {
+                    return spanInfo;
+                }
+            }
+            return null;
+        }
+        // 通过逐行索引找到触摸的行（已计入段间距），再二分找到第一个结束行不早于该行的 span
+        int line = mDrawLineIndex.findLine(y, mFirstBaseLine);
+        for (int i = QMUIQQFaceLineIndex.findFirstRange(mSpanInfosInDrawOrder, line);
+             i < mSpanInfosInDrawOrder.size(); i++) {
+            SpanInfo spanInfo = mSpanInfosInDrawOrder.get(i);
+            if (spanInfo.getStartLine() > line) {
+                break;
+            }
+            if (spanInfo.onTouch(x, y)) {
+                return spanInfo;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 第 line 行（从 1 开始）的顶部，有逐行索引时取实际绘制的基线，已计入段间距
+     */
+    private int getLineTop(int line) {
+        if (line >= 1 && line <= mNeedDrawLine && isDrawLineIndexValid()) {
+            return mDrawLineIndex.getBaseLine(line) - mFirstBaseLine;
+        }
+        return getPaddingTop() + (line - 1) * (mFontHeight + mLineSpace);
+    }
+
     @Override
     public boolean onTouchEvent(MotionEvent event) {
         final int x = (int) event.getX();
@@ -224,13 +282,7 @@ public class QMUIQQFaceView extends View {
                     mIsTouchDownInMoreText = true;
                     invalidate(mMoreHitRect);
                 } else {
-
-                    for (SpanInfo spanInfo : mSpanInfos.values()) {
-                        if (spanInfo.onTouch(x, y)) {
-                            mTouchSpanInfo = spanInfo;
-                            break;
-                        }
-                    }
+                    mTouchSpanInfo = findTouchSpanInfo(x, y);
                 }
 
                 if (mTouchSpanInfo != null) {
@@ -300,6 +352,7 @@ public class QMUIQQFaceView extends View {
             mTypeface = typeface;
             needReCalculateFontHeight = true;
             mPaint.setTypeface(typeface);
+            mDrawLineIndex.invalidate();
             requestLayout();
             invalidate();
         }
@@ -324,6 +377,10 @@ public class QMUIQQFaceView extends View {
             mPaint.setTextSkewX(0);
             setTypeface(tf);
         }
+        // 粗体、斜体只修改画笔，typeface 不变时 setTypeface 不会重新布局
+        mDrawLineIndex.invalidate();
+        requestLayout();
+        invalidate();
     }
 
     /**
@@ -332,6 +389,7 @@ public class QMUIQQFaceView extends View {
     public void setParagraphSpace(int paragraphSpace) {
         if (mParagraphSpace != paragraphSpace) {
             mParagraphSpace = paragraphSpace;
+            mDrawLineIndex.invalidate();
             requestLayout();
             invalidate();
         }
@@ -341,6 +399,7 @@ public class QMUIQQFaceView extends View {
         if (mMoreActionText == null || !mMoreActionText.equals(moreActionText)) {
             mMoreActionText = moreActionText;
             measureMoreActionTextLength();
+            mDrawLineIndex.invalidate();
             requestLayout();
             invalidate();
         }
@@ -404,6 +463,7 @@ public class QMUIQQFaceView extends View {
     public void setSpecialDrawablePadding(int specialDrawablePadding) {
         if (mSpecialDrawablePadding != specialDrawablePadding) {
             mSpecialDrawablePadding = specialDrawablePadding;
+            mDrawLineIndex.invalidate();
             requestLayout();
             invalidate();
         }
@@ -413,6 +473,7 @@ public class QMUIQQFaceView extends View {
         if (mIncludePad != includePad) {
             needReCalculateFontHeight = true;
             mIncludePad = includePad;
+            mDrawLineIndex.invalidate();
             requestLayout();
             invalidate();
         }
@@ -422,6 +483,7 @@ public class QMUIQQFaceView extends View {
         if (mQQFaceSizeAddon != QQFaceSizeAddon) {
             mQQFaceSizeAddon = QQFaceSizeAddon;
             mNeedReCalculateLines = true;
+            mDrawLineIndex.invalidate();
             requestLayout();
             invalidate();
         }
@@ -430,6 +492,7 @@ public class QMUIQQFaceView extends View {
     public void setLineSpace(int lineSpace) {
         if (mLineSpace != lineSpace) {
             mLineSpace = lineSpace;
+            mDrawLineIndex.invalidate();
             requestLayout();
             invalidate();
         }
@@ -438,6 +501,7 @@ public class QMUIQQFaceView extends View {
     public void setEllipsize(TextUtils.TruncateAt where) {
         if (mEllipsize != where) {
             mEllipsize = where;
+            mDrawLineIndex.invalidate();
             requestLayout();
             invalidate();
         }
@@ -446,6 +510,7 @@ public class QMUIQQFaceView extends View {
     public void setMaxLine(int maxLine) {
         if (mMaxLine != maxLine) {
             mMaxLine = maxLine;
+            mDrawLineIndex.invalidate();
             requestLayout();
             invalidate();
         }
@@ -466,6 +531,7 @@ public class QMUIQQFaceView extends View {
     public void setSingleLine(boolean singleLine) {
         if (mIsSingleLine != singleLine) {
             mIsSingleLine = singleLine;
+            mDrawLineIndex.invalidate();
             requestLayout();
             invalidate();
         }
@@ -494,6 +560,7 @@ public class QMUIQQFaceView extends View {
             mNeedReCalculateLines = true;
             mEllipsizeTextLength = (int) Math.ceil(mPaint.measureText(mEllipsizeText));
             measureMoreActionTextLength();
+            mDrawLineIndex.invalidate();
             requestLayout();
             invalidate();
         }
@@ -520,7 +587,41 @@ public class QMUIQQFaceView extends View {
         setText(charSequence, true);
     }
 
+    /**
+     * 使用在子线程中预先计算好的内容，如果计算时的参数与当前 View 的状态不一致，则退化为 {@link #setText(CharSequence)}
+     *
+     * @see QMUIPrecomputedQQFaceText
+     */
+    public void setPrecomputedText(@Nullable QMUIPrecomputedQQFaceText precomputedText) {
+        if (precomputedText == null) {
+            setText(null);
+            return;
+        }
+        if (!precomputedText.getParams().isSameAs(mCompiler, mOpenQQFace, mPaint, mQQFaceSize,
+                mSpecialDrawablePadding, mMaxLine, mEllipsize, getPaddingLeft(), getPaddingRight())) {
+            setText(precomputedText.getText());
+            return;
+        }
+        setText(precomputedText.getText(), true, precomputedText);
+    }
+
+    /**
+     * 在主线程获取当前影响解析与断行的参数，用于 {@link QMUIPrecomputedQQFaceText#create}
+     */
+    @MainThread
+    @NonNull
+    public QMUIPrecomputedQQFaceText.Params getPrecomputedTextParams() {
+        calculateFontHeight();
+        return new QMUIPrecomputedQQFaceText.Params(mCompiler, mOpenQQFace, mPaint, mQQFaceSize,
+                mSpecialDrawablePadding, mMaxLine, mEllipsize, getPaddingLeft(), getPaddingRight());
+    }
+
     private void setText(CharSequence charSequence, boolean compareOldText) {
+        setText(charSequence, compareOldText, null);
+    }
+
+    private void setText(CharSequence charSequence, boolean compareOldText,
+                         @Nullable QMUIPrecomputedQQFaceText precomputedText) {
         if (compareOldText && QMUILangHelper.objectEquals(charSequence, mOriginText)) {
             return;
         }
@@ -532,6 +633,8 @@ public class QMUIQQFaceView extends View {
         }
 
         mSpanInfos.clear();
+        mSpanInfosInDrawOrder.clear();
+        mDrawLineIndex.invalidate();
         if (QMUILangHelper.isNullOrEmpty(mOriginText)) {
             mElementList = null;
             requestLayout();
@@ -539,8 +642,9 @@ public class QMUIQQFaceView extends View {
             return;
         }
 
-        if (mOpenQQFace && mCompiler != null) {
-            mElementList = mCompiler.compile(mOriginText);
+        mElementList = precomputedText != null ? precomputedText.getElementList() :
+                createElementList(mOriginText, mCompiler, mOpenQQFace);
+        if (mOpenQQFace) {
             List<QMUIQQFaceCompiler.Element> elements = mElementList.getElements();
             if (elements != null) {
                 for (int i = 0; i < elements.size(); i++) {
@@ -550,17 +654,15 @@ public class QMUIQQFaceView extends View {
                     }
                 }
             }
-        } else {
-            mElementList = new QMUIQQFaceCompiler.ElementList(0, mOriginText.length());
-            String[] strings = mOriginText.toString().split("\\n");
-            for (int i = 0; i < strings.length; i++) {
-                mElementList.add(QMUIQQFaceCompiler.Element.createTextElement(strings[i]));
-                if (i != strings.length - 1) {
-                    mElementList.add(QMUIQQFaceCompiler.Element.createNextLineElement());
-                }
-            }
         }
         mNeedReCalculateLines = true;
+        if (precomputedText != null && precomputedText.hasLayout()) {
+            // 直接使用子线程的断行结果作为缓存，计算时的参数已在 setPrecomputedText 中确认与当前一致
+            recordLastCalParams();
+            applyLineBreakResult(precomputedText.getLimitWidth(), precomputedText.getLineCount(),
+                    precomputedText.getLastLineWidth(), precomputedText.getParagraphShowCount(),
+                    precomputedText.isCanNotLayout());
+        }
         if (getLayoutParams() == null) {
             return;
         }
@@ -588,6 +690,26 @@ public class QMUIQQFaceView extends View {
         }
     }
 
+    static QMUIQQFaceCompiler.ElementList createElementList(CharSequence text,
+                                                           QMUIQQFaceCompiler compiler,
+                                                           boolean openQQFace) {
+        if (QMUILangHelper.isNullOrEmpty(text)) {
+            return null;
+        }
+        if (openQQFace && compiler != null) {
+            return compiler.compile(text);
+        }
+        QMUIQQFaceCompiler.ElementList elementList = new QMUIQQFaceCompiler.ElementList(0, text.length());
+        String[] strings = text.toString().split("\\n");
+        for (int i = 0; i < strings.length; i++) {
+            elementList.add(QMUIQQFaceCompiler.Element.createTextElement(strings[i]));
+            if (i != strings.length - 1) {
+                elementList.add(QMUIQQFaceCompiler.Element.createNextLineElement());
+            }
+        }
+        return elementList;
+    }
+
     private boolean needReCalculateFontHeight = true;
 
     protected int calculateFontHeight() {
@@ -636,16 +758,36 @@ public class QMUIQQFaceView extends View {
         if (getPaddingLeft() != left || getPaddingRight() != right) {
             mNeedReCalculateLines = true;
         }
+        if (getPaddingLeft() != left || getPaddingTop() != top) {
+            mDrawLineIndex.invalidate();
+        }
         super.setPadding(left, top, right, bottom);
     }
 
     private int mCurrentCalWidth = 0;
-    private int mCurrentCalLine = 0;
-    private int mContentCalMaxWidth = 0;
     private boolean mNeedReCalculateLines = false; // 缓存，避免onMeasure重复计算
+    private final QMUIQQFaceLineBreaker mLineBreaker = new QMUIQQFaceLineBreaker();
+    // 上次断行时的参数，直接记录需要比较的字段，避免每次断行都创建 Params 并复制画笔
+    private boolean mHasLastCalParams = false;
+    private QMUIQQFaceCompiler mLastCalCompiler;
+    private boolean mLastCalOpenQQFace;
+    private float mLastCalTextSize;
+    private Typeface mLastCalTypeface;
+    private float mLastCalLetterSpacing;
+    private float mLastCalTextScaleX;
+    private boolean mLastCalFakeBoldText;
+    private int mLastCalQQFaceSize;
+    private int mLastCalSpecialDrawablePadding;
+    private int mLastCalMaxLine;
+    private TextUtils.TruncateAt mLastCalEllipsize;
+    private int mLastCalPaddingLeft;
+    private int mLastCalPaddingRight;
     private int mLastCalLimitWidth = 0;
     private int mLastCalContentWidth = 0;
     private int mLastCalLines = 0;
+    private int mLastCalLastLineWidth = 0;
+    private int mLastCalParagraphShowCount = 0;
+    private boolean mLastCalCanNotLayout = false;
 
     protected int calculateLinesAndContentWidth(int limitWidth) {
         if (limitWidth <= (getPaddingRight() + getPaddingLeft()) || isElementEmpty()) {
@@ -653,23 +795,72 @@ public class QMUIQQFaceView extends View {
             mParagraphShowCount = 0;
             mLastCalLines = 0;
             mLastCalContentWidth = 0;
+            mNeedReCalculateLines = true;
             return mLastCalContentWidth;
         }
 
-        if (!mNeedReCalculateLines && mLastCalLimitWidth == limitWidth) {
+        if (!mNeedReCalculateLines && mLastCalLimitWidth == limitWidth && isSameAsLastCalParams()) {
             mLines = mLastCalLines;
+            mCurrentCalWidth = mLastCalLastLineWidth;
+            mParagraphShowCount = mLastCalParagraphShowCount;
+            mJumpHandleMeasureAndDraw = mLastCalCanNotLayout;
             return mLastCalContentWidth;
         }
+        mLineBreaker.setup(mPaint, mQQFaceSize, mSpecialDrawablePadding, mMaxLine, mEllipsize);
+        mLineBreaker.breakLines(mElementList.getElements(), getPaddingLeft(), limitWidth - getPaddingRight());
+        recordLastCalParams();
+        return applyLineBreakResult(limitWidth, mLineBreaker.getLines(), mLineBreaker.getLastLineWidth(),
+                mLineBreaker.getParagraphShowCount(), mLineBreaker.isCanNotLayout());
+    }
+
+    private void recordLastCalParams() {
+        mHasLastCalParams = true;
+        mLastCalCompiler = mCompiler;
+        mLastCalOpenQQFace = mOpenQQFace;
+        mLastCalTextSize = mPaint.getTextSize();
+        mLastCalTypeface = mPaint.getTypeface();
+        mLastCalLetterSpacing = mPaint.getLetterSpacing();
+        mLastCalTextScaleX = mPaint.getTextScaleX();
+        mLastCalFakeBoldText = mPaint.isFakeBoldText();
+        mLastCalQQFaceSize = mQQFaceSize;
+        mLastCalSpecialDrawablePadding = mSpecialDrawablePadding;
+        mLastCalMaxLine = mMaxLine;
+        mLastCalEllipsize = mEllipsize;
+        mLastCalPaddingLeft = getPaddingLeft();
+        mLastCalPaddingRight = getPaddingRight();
+    }
+
+    /**
+     * 与 {@link QMUIPrecomputedQQFaceText.Params} 比较的内容一致
+     */
+    private boolean isSameAsLastCalParams() {
+        return mHasLastCalParams &&
+                mLastCalCompiler == mCompiler &&
+                mLastCalOpenQQFace == mOpenQQFace &&
+                mLastCalTextSize == mPaint.getTextSize() &&
+                QMUILangHelper.objectEquals(mLastCalTypeface, mPaint.getTypeface()) &&
+                mLastCalLetterSpacing == mPaint.getLetterSpacing() &&
+                mLastCalTextScaleX == mPaint.getTextScaleX() &&
+                mLastCalFakeBoldText == mPaint.isFakeBoldText() &&
+                mLastCalQQFaceSize == mQQFaceSize &&
+                mLastCalSpecialDrawablePadding == mSpecialDrawablePadding &&
+                mLastCalMaxLine == mMaxLine &&
+                mLastCalEllipsize == mEllipsize &&
+                mLastCalPaddingLeft == getPaddingLeft() &&
+                mLastCalPaddingRight == getPaddingRight();
+    }
+
+    private int applyLineBreakResult(int limitWidth, int lines, int lastLineWidth,
+                                     int paragraphShowCount, boolean canNotLayout) {
         mLastCalLimitWidth = limitWidth;
-        List<QMUIQQFaceCompiler.Element> elements = mElementList.getElements();
-        mCurrentCalLine = 1;
-        mCurrentCalWidth = getPaddingLeft();
-        calculateLinesInner(elements, limitWidth);
-        if (mCurrentCalLine != mLines) {
+        mCurrentCalWidth = lastLineWidth;
+        mParagraphShowCount = paragraphShowCount;
+        mJumpHandleMeasureAndDraw = canNotLayout;
+        if (lines != mLines) {
             if (mListener != null) {
-                mListener.onCalculateLinesChange(mCurrentCalLine);
+                mListener.onCalculateLinesChange(lines);
             }
-            mLines = mCurrentCalLine;
+            mLines = lines;
         }
 
         if (mLines == 1) {
@@ -678,6 +869,10 @@ public class QMUIQQFaceView extends View {
             mLastCalContentWidth = limitWidth;
         }
         mLastCalLines = mLines;
+        mLastCalLastLineWidth = mCurrentCalWidth;
+        mLastCalParagraphShowCount = mParagraphShowCount;
+        mLastCalCanNotLayout = mJumpHandleMeasureAndDraw;
+        mNeedReCalculateLines = false;
 
         return mLastCalContentWidth;
     }
@@ -693,121 +888,12 @@ public class QMUIQQFaceView extends View {
         mIsNeedEllipsize = mLines > mNeedDrawLine;
     }
 
-    private void calculateLinesInner(List<QMUIQQFaceCompiler.Element> elements, int limitWidth) {
-        QMUIQQFaceCompiler.Element element;
-        int widthStart = getPaddingLeft(), widthEnd = limitWidth - getPaddingRight();
-        for (int i = 0; i < elements.size(); i++) {
-            if (mJumpHandleMeasureAndDraw) {
-                break;
-            }
-            if (mCurrentCalLine > mMaxLine && mEllipsize == TextUtils.TruncateAt.END) {
-                break;
-            }
-            element = elements.get(i);
-            if (element.getType() == QMUIQQFaceCompiler.ElementType.DRAWABLE) {
-                if (mCurrentCalWidth + mQQFaceSize > widthEnd) {
-                    gotoCalNextLine(widthStart);
-                }
-                mCurrentCalWidth += mQQFaceSize;
-                if (widthEnd - widthStart < mQQFaceSize) {
-                    // 一个表情的宽度都容不下
-                    mJumpHandleMeasureAndDraw = true;
-                }
-            } else if (element.getType() == QMUIQQFaceCompiler.ElementType.TEXT) {
-                CharSequence text = element.getText();
-                measureText(text, widthStart, widthEnd);
-            } else if (element.getType() == QMUIQQFaceCompiler.ElementType.SPAN) {
-                QMUIQQFaceCompiler.ElementList spanElementList = element.getChildList();
-                ITouchableSpan span = element.getTouchableSpan();
-                if (spanElementList != null && spanElementList.getElements().size() > 0) {
-                    if (span == null) {
-                        calculateLinesInner(spanElementList.getElements(), limitWidth);
-                        continue;
-                    }
-                    calculateLinesInner(spanElementList.getElements(), limitWidth);
-                }
-            } else if (element.getType() == QMUIQQFaceCompiler.ElementType.NEXTLINE) {
-                gotoCalNextLine(widthStart, true);
-            } else if (element.getType() == QMUIQQFaceCompiler.ElementType.SPECIAL_BOUNDS_DRAWABLE) {
-                Drawable drawable = element.getSpecialBoundsDrawable();
-                int width = drawable.getIntrinsicWidth();
-                if (i == 0 || i == elements.size() - 1) {
-                    width += mSpecialDrawablePadding;
-                } else {
-                    width += mSpecialDrawablePadding * 2;
-                }
-                if (mCurrentCalWidth + width > widthEnd) {
-                    gotoCalNextLine(widthStart);
-                    mCurrentCalWidth += width;
-                } else if (mCurrentCalWidth + width == widthEnd) {
-                    gotoCalNextLine(widthStart);
-                } else {
-                    mCurrentCalWidth += width;
-                }
-                if (widthEnd - widthStart < width) {
-                    // 一个表情的宽度都容不下
-                    mJumpHandleMeasureAndDraw = true;
-                }
-            }
-        }
-    }
-
     private boolean isElementEmpty() {
         return mElementList == null ||
                 mElementList.getElements() == null ||
                 mElementList.getElements().isEmpty();
     }
 
-    private void setContentCalMaxWidth(int width) {
-        mContentCalMaxWidth = Math.max(width, mContentCalMaxWidth);
-    }
-
-    private void gotoCalNextLine(int widthStart) {
-        gotoCalNextLine(widthStart, false);
-    }
-
-    private void gotoCalNextLine(int widthStart, boolean nextParagraph) {
-        mCurrentCalLine++;
-        setContentCalMaxWidth(mCurrentCalWidth);
-        mCurrentCalWidth = widthStart;
-        if (nextParagraph) {
-            if (mEllipsize == null) {
-                mParagraphShowCount++;
-            } else if (mEllipsize == TextUtils.TruncateAt.END) {
-                if (mCurrentCalLine <= mMaxLine) {
-                    mParagraphShowCount++;
-                }
-            }
-        }
-    }
-
-    private void measureText(CharSequence text, int widthStart, int widthEnd) {
-
-        float[] widths = new float[text.length()];
-        mPaint.getTextWidths(text.toString(), widths);
-        int contentWidth = widthEnd - widthStart;
-        long loop_start = System.currentTimeMillis();
-        for (int i = 0; i < widths.length; i++) {
-            if (contentWidth < widths[i]) {
-                // mCurrentCalWidth已经是最小值，但又一个字都容纳不下，只能说明widthEnd太小，可能还在测量中
-                mJumpHandleMeasureAndDraw = true;
-                return;
-            }
-            if (System.currentTimeMillis() - loop_start > 2000) {
-                // 3s还没有measure完，那就忽略本次measure以及draw
-                QMUILog.d(TAG, "measureText: text = %s, mCurrentCalWidth = %d, " +
-                                "widthStart = %d, widthEnd = %d",
-                        text, mCurrentCalWidth, widthStart, widthEnd);
-                mJumpHandleMeasureAndDraw = true;
-                break;
-            }
-            if (mCurrentCalWidth + widths[i] > widthEnd) {
-                gotoCalNextLine(widthStart);
-            }
-            mCurrentCalWidth += Math.ceil(widths[i]);
-        }
-    }
-
     public void setListener(QQFaceViewListener listener) {
         mListener = listener;
     }
@@ -816,6 +902,7 @@ public class QMUIQQFaceView extends View {
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         long start = System.currentTimeMillis();
         mJumpHandleMeasureAndDraw = false;
+        mDrawLineIndex.invalidate();
         calculateFontHeight();
         int widthMode = MeasureSpec.getMode(widthMeasureSpec);
         int heightMode = MeasureSpec.getMode(heightMeasureSpec);
@@ -888,11 +975,93 @@ public class QMUIQQFaceView extends View {
         }
         pickTextPaintColor();
         List<QMUIQQFaceCompiler.Element> elements = mElementList.getElements();
+        int usefulWidth = getWidth() - getPaddingLeft() - getPaddingRight();
+        mIsExecutedMiddleEllipsize = false;
+        mIsInDrawSpan = false;
+        mIsDrawStopped = false;
+        mDrawSpanDepth = 0;
+        mDrawTextOffset = 0;
+        // 硬件加速时 View 的内容整体录制到 RenderNode，getClipBounds 返回的是整个 View 的范围，总是完整绘制；
+        // 按可见行绘制只在软件绘制或软件 layer（例如被父布局裁剪的长文本）时生效
+        mIsClipDrawEnabled = isDrawVirtualizable(usefulWidth) && canvas.getClipBounds(mDrawClipRect);
+        if (mIsClipDrawEnabled && isDrawLineIndexValid()) {
+            // 从第一个可见行开始绘制，越过最后一个可见行后结束
+            int line = mDrawLineIndex.findLine(mDrawClipRect.top, mFirstBaseLine);
+            mCurrentDrawLine = line;
+            mCurrentDrawBaseLine = mDrawLineIndex.getBaseLine(line);
+            mCurrentDrawUsedWidth = mDrawLineIndex.getStartUsedWidth(line);
+            mIsStopDrawOutOfClip = true;
+            drawElements(canvas, elements, usefulWidth, mDrawLineIndex.getElementIndex(line),
+                    mDrawLineIndex.getChildIndex(line), mDrawLineIndex.getOffset(line));
+            mIsStopDrawOutOfClip = false;
+            return;
+        }
         mCurrentDrawBaseLine = getPaddingTop() + mFirstBaseLine;
         mCurrentDrawLine = 1;
-        setStartDrawUsedWidth(getPaddingLeft(), getWidth() - getPaddingLeft() - getPaddingRight());
-        mIsExecutedMiddleEllipsize = false;
-        drawElements(canvas, elements, getWidth() - getPaddingLeft() - getPaddingRight());
+        setStartDrawUsedWidth(getPaddingLeft(), usefulWidth);
+        if (mIsClipDrawEnabled) {
+            // 完整绘制一次，同时生成逐行索引
+            mDrawLineIndex.startRecord(mElementList, getWidth(), mNeedDrawLine, mCurrentCalWidth, mGravity);
+            mSpanInfosInDrawOrder.clear();
+            mDrawLineIndex.record(1, 0, QMUIQQFaceLineIndex.NO_CHILD, 0,
+                    mCurrentDrawBaseLine, mCurrentDrawUsedWidth);
+        } else {
+            mDrawLineIndex.invalidate();
+        }
+        drawElements(canvas, elements, usefulWidth);
+        mDrawLineIndex.finishRecord();
+    }
+
+    /**
+     * START 与 MIDDLE 省略时绘制的行与断行结果不是一一对应的，只能完整绘制
+     */
+    private boolean isDrawVirtualizable(int usefulWidth) {
+        return (!mIsNeedEllipsize || mEllipsize == null || mEllipsize == TextUtils.TruncateAt.END)
+                && usefulWidth >= mQQFaceSize;
+    }
+
+    private boolean isDrawLineIndexValid() {
+        return mDrawLineIndex.isValid(mElementList, getWidth(), mNeedDrawLine, mCurrentCalWidth, mGravity);
+    }
+
+    private boolean isCurrentDrawLineInClip() {
+        if (!mIsClipDrawEnabled) {
+            return true;
+        }
+        int top = mCurrentDrawBaseLine - mFirstBaseLine;
+        return top < mDrawClipRect.bottom && top + mFontHeight + mLineSpace >= mDrawClipRect.top;
+    }
+
+    private boolean shouldStopDraw() {
+        if (mIsStopDrawOutOfClip && !mIsDrawStopped &&
+                mCurrentDrawBaseLine - mFirstBaseLine >= mDrawClipRect.bottom) {
+            mIsDrawStopped = true;
+        }
+        return mIsDrawStopped;
+    }
+
+    private void recordDrawLineStart() {
+        if (!mDrawLineIndex.isRecording()) {
+            return;
+        }
+        if (mDrawSpanDepth > 1) {
+            // 嵌套的 span 不做索引
+            mDrawLineIndex.abort();
+            return;
+        }
+        int elementIndex = mDrawElementIndex;
+        int childIndex = mDrawSpanDepth > 0 ? mDrawChildIndex : QMUIQQFaceLineIndex.NO_CHILD;
+        int offset = mDrawTextOffset;
+        if (mIsNewDrawLineAfterElement) {
+            offset = 0;
+            if (childIndex == QMUIQQFaceLineIndex.NO_CHILD) {
+                elementIndex++;
+            } else {
+                childIndex++;
+            }
+        }
+        mDrawLineIndex.record(mCurrentDrawLine, elementIndex, childIndex, offset,
+                mCurrentDrawBaseLine, mCurrentDrawUsedWidth);
     }
 
     private void pickTextPaintColor() {
@@ -912,15 +1081,47 @@ public class QMUIQQFaceView extends View {
     private int mCurrentDrawUsedWidth;
     private boolean mIsInDrawSpan = false;
     private QMUITouchableSpan mCurrentDrawSpan;
+    // 逐行索引与按可见区域绘制
+    private final QMUIQQFaceLineIndex mDrawLineIndex = new QMUIQQFaceLineIndex();
+    private final ArrayList<SpanInfo> mSpanInfosInDrawOrder = new ArrayList<>();
+    private final Rect mDrawClipRect = new Rect();
+    private boolean mIsClipDrawEnabled = false;
+    private boolean mIsStopDrawOutOfClip = false;
+    private boolean mIsDrawStopped = false;
+    private int mDrawSpanDepth = 0;
+    private int mDrawElementIndex = 0;
+    private int mDrawChildIndex = 0;
+    private int mDrawTextOffset = 0;
+    private boolean mIsNewDrawLineAfterElement = false;
 
     private void drawElements(Canvas canvas, List<QMUIQQFaceCompiler.Element> elements, int usefulWidth) {
+        drawElements(canvas, elements, usefulWidth, 0, QMUIQQFaceLineIndex.NO_CHILD, 0);
+    }
+
+    /**
+     * @param fromIndex  从第几个元素开始绘制
+     * @param fromChild  fromIndex 为 span 时，从 span 的第几个子元素开始绘制
+     * @param fromOffset 起始的文字元素从第几个字符开始绘制
+     */
+    private void drawElements(Canvas canvas, List<QMUIQQFaceCompiler.Element> elements, int usefulWidth,
+                              int fromIndex, int fromChild, int fromOffset) {
         int startLeft = getPaddingLeft(), endWidth = usefulWidth + startLeft;
         if (mIsNeedEllipsize && mEllipsize == TextUtils.TruncateAt.START) {
             canvas.drawText(mEllipsizeText, 0, mEllipsizeText.length(), startLeft, mFirstBaseLine, mPaint);
         }
 
         QMUIQQFaceCompiler.Element element;
-        for (int i = 0; i < elements.size(); i++) {
+        for (int i = fromIndex; i < elements.size(); i++) {
+            if (shouldStopDraw()) {
+                return;
+            }
+            if (mDrawSpanDepth == 0) {
+                mDrawElementIndex = i;
+            } else {
+                mDrawChildIndex = i;
+            }
+            mDrawTextOffset = 0;
+            boolean isFrom = i == fromIndex;
             element = elements.get(i);
             QMUIQQFaceCompiler.ElementType type = element.getType();
             if (type == QMUIQQFaceCompiler.ElementType.DRAWABLE) {
@@ -928,37 +1129,13 @@ public class QMUIQQFaceView extends View {
             } else if (type == QMUIQQFaceCompiler.ElementType.SPECIAL_BOUNDS_DRAWABLE) {
                 onDrawQQFace(canvas, 0, element.getSpecialBoundsDrawable(), startLeft, endWidth, i == 0, i == elements.size() - 1);
             } else if (type == QMUIQQFaceCompiler.ElementType.TEXT) {
-                CharSequence text = element.getText();
-                float[] fontWidths = new float[text.length()];
-                mPaint.getTextWidths(text.toString(), fontWidths);
-                onDrawText(canvas, text, fontWidths, 0, startLeft, endWidth);
+                onDrawText(canvas, element.getText(), element.getTextWidths(mPaint),
+                        isFrom && fromChild == QMUIQQFaceLineIndex.NO_CHILD ? fromOffset : 0, startLeft, endWidth);
             } else if (type == QMUIQQFaceCompiler.ElementType.SPAN) {
-                QMUIQQFaceCompiler.ElementList spanElementList = element.getChildList();
-                mCurrentDrawSpan = element.getTouchableSpan();
-                SpanInfo spanInfo = mSpanInfos.get(element);
-                if (spanElementList != null && !spanElementList.getElements().isEmpty()) {
-                    if (mCurrentDrawSpan == null) {
-                        drawElements(canvas, spanElementList.getElements(), usefulWidth);
-                        continue;
-                    }
-                    mIsInDrawSpan = true;
-                    if (spanInfo != null) {
-                        spanInfo.setStart(mCurrentDrawLine, mCurrentDrawUsedWidth);
-                    }
-                    @ColorInt int spanColor = mCurrentDrawSpan.isPressed() ?
-                            mCurrentDrawSpan.getPressedTextColor() :
-                            mCurrentDrawSpan.getNormalTextColor();
-                    if (spanColor == 0) {
-                        pickTextPaintColor();
-                    } else {
-                        mPaint.setColor(spanColor);
-                    }
-                    drawElements(canvas, spanElementList.getElements(), usefulWidth);
-                    pickTextPaintColor();
-                    if (spanInfo != null) {
-                        spanInfo.setEnd(mCurrentDrawLine, mCurrentDrawUsedWidth);
-                    }
-                    mIsInDrawSpan = false;
+                if (isFrom && fromChild != QMUIQQFaceLineIndex.NO_CHILD) {
+                    drawSpanElement(canvas, element, usefulWidth, fromChild, fromOffset);
+                } else {
+                    drawSpanElement(canvas, element, usefulWidth, QMUIQQFaceLineIndex.NO_CHILD, 0);
                 }
             } else if (type == QMUIQQFaceCompiler.ElementType.NEXTLINE) {
                 int ellipsizeLength = mEllipsizeTextLength + mMoreActionTextLength;
@@ -969,9 +1146,59 @@ public class QMUIQQFaceView extends View {
                     drawMoreActionText(canvas, endWidth);
                     return;
                 }
+                mIsNewDrawLineAfterElement = true;
                 toNewDrawLine(startLeft, true, usefulWidth);
+                mIsNewDrawLineAfterElement = false;
+            }
+        }
+    }
+
+    /**
+     * @param fromChild 不为 {@link QMUIQQFaceLineIndex#NO_CHILD} 时表示从 span 中间开始绘制，
+     *                  此时 span 的起点在之前的完整绘制中已经记录过了
+     */
+    private void drawSpanElement(Canvas canvas, QMUIQQFaceCompiler.Element element, int usefulWidth,
+                                 int fromChild, int fromOffset) {
+        QMUIQQFaceCompiler.ElementList spanElementList = element.getChildList();
+        mCurrentDrawSpan = element.getTouchableSpan();
+        SpanInfo spanInfo = mSpanInfos.get(element);
+        if (spanElementList == null || spanElementList.getElements().isEmpty()) {
+            return;
+        }
+        boolean isResume = fromChild != QMUIQQFaceLineIndex.NO_CHILD;
+        int fromIndex = isResume ? fromChild : 0;
+        if (mCurrentDrawSpan == null) {
+            drawSpanChildren(canvas, spanElementList.getElements(), usefulWidth, fromIndex, fromOffset);
+            return;
+        }
+        mIsInDrawSpan = true;
+        if (spanInfo != null && !isResume) {
+            spanInfo.setStart(mCurrentDrawLine, mCurrentDrawUsedWidth);
+            if (mDrawLineIndex.isRecording()) {
+                mSpanInfosInDrawOrder.add(spanInfo);
             }
         }
+        @ColorInt int spanColor = mCurrentDrawSpan.isPressed() ?
+                mCurrentDrawSpan.getPressedTextColor() :
+                mCurrentDrawSpan.getNormalTextColor();
+        if (spanColor == 0) {
+            pickTextPaintColor();
+        } else {
+            mPaint.setColor(spanColor);
+        }
+        drawSpanChildren(canvas, spanElementList.getElements(), usefulWidth, fromIndex, fromOffset);
+        pickTextPaintColor();
+        if (spanInfo != null && !mIsDrawStopped) {
+            spanInfo.setEnd(mCurrentDrawLine, mCurrentDrawUsedWidth);
+        }
+        mIsInDrawSpan = false;
+    }
+
+    private void drawSpanChildren(Canvas canvas, List<QMUIQQFaceCompiler.Element> elements, int usefulWidth,
+                                  int fromIndex, int fromOffset) {
+        mDrawSpanDepth++;
+        drawElements(canvas, elements, usefulWidth, fromIndex, QMUIQQFaceLineIndex.NO_CHILD, fromOffset);
+        mDrawSpanDepth--;
     }
 
     private void drawMoreActionText(Canvas canvas, int widthEnd) {
@@ -1060,6 +1287,7 @@ public class QMUIQQFaceView extends View {
             mCurrentDrawBaseLine += mFontHeight + addOn;
         }
         setStartDrawUsedWidth(startLeft, usefulWidth);
+        recordDrawLineStart();
     }
 
     private void setStartDrawUsedWidth(int startLeft, int usefulWidth) {
@@ -1086,7 +1314,11 @@ public class QMUIQQFaceView extends View {
         for (int i = offset; i < fontWidths.length; i++) {
             if (targetUsedWidth + fontWidths[i] > widthEnd) {
                 drawText(canvas, text, startPos, i, widthEnd - mCurrentDrawUsedWidth);
+                mDrawTextOffset = i;
                 toNewDrawLine(widthStart, widthEnd - widthStart);
+                if (shouldStopDraw()) {
+                    return;
+                }
                 targetUsedWidth = mCurrentDrawUsedWidth;
                 startPos = i;
             }
@@ -1113,7 +1345,7 @@ public class QMUIQQFaceView extends View {
     private boolean mIsExecutedMiddleEllipsize = false;
 
     private void onDrawText(Canvas canvas, CharSequence text, float[] fontWidths, int offset, int widthStart, int widthEnd) {
-        if (offset >= text.length()) {
+        if (offset >= text.length() || shouldStopDraw()) {
             return;
         }
         if (mIsNeedEllipsize) {
@@ -1198,6 +1430,7 @@ public class QMUIQQFaceView extends View {
                             targetUsedWidth += fontWidths[i];
                         } else {
                             drawText(canvas, text, offset, i, widthEnd - mCurrentDrawUsedWidth);
+                            mDrawTextOffset = i;
                             toNewDrawLine(widthStart, widthEnd - widthStart);
                             onDrawText(canvas, text, fontWidths, i, widthStart, widthEnd);
                             return;
@@ -1234,7 +1467,7 @@ public class QMUIQQFaceView extends View {
             }
 
         } else {
-            onRealDrawText(canvas, text, fontWidths, 0, widthStart, widthEnd);
+            onRealDrawText(canvas, text, fontWidths, offset, widthStart, widthEnd);
         }
     }
 
@@ -1286,7 +1519,7 @@ public class QMUIQQFaceView extends View {
     }
 
     private void drawText(Canvas canvas, CharSequence text, int start, int end, int textWidth) {
-        if (end <= start || end > text.length() || start >= text.length()) {
+        if (end <= start || end > text.length() || start >= text.length() || !isCurrentDrawLineInClip()) {
             return;
         }
         if (mIsInDrawSpan && mCurrentDrawSpan != null) {
@@ -1457,15 +1690,29 @@ public class QMUIQQFaceView extends View {
     }
 
     private void drawQQFace(Canvas canvas, int res, @Nullable Drawable specialDrawable, int line, boolean isFirst, boolean isLast) {
-        Drawable drawable = res != 0 ? ContextCompat.getDrawable(getContext(), res) : specialDrawable;
+        if (!isCurrentDrawLineInClip()) {
+            return;
+        }
+        Bitmap faceBitmap = null;
+        Drawable drawable = specialDrawable;
+        if (res != 0) {
+            // 优先使用共享的位图，绘制时不再获取 Drawable
+            faceBitmap = mUseQQFaceBitmapCache ?
+                    QMUIQQFaceBitmapCache.getInstance().get(getContext(), res, mQQFaceSize) : null;
+            drawable = faceBitmap != null ? null : ContextCompat.getDrawable(getContext(), res);
+        }
         int size = res != 0 || specialDrawable == null ? mQQFaceSize : specialDrawable.getIntrinsicWidth() + (isFirst || isLast ? mSpecialDrawablePadding : mSpecialDrawablePadding * 2);
-        if (drawable == null) {
+        if (drawable == null && faceBitmap == null) {
             return;
         }
         int drawableTop;
         if (res != 0) {
             drawableTop = (mFontHeight - mQQFaceSize) / 2;
-            drawable.setBounds(0, drawableTop, mQQFaceSize, drawableTop + mQQFaceSize);
+            if (faceBitmap != null) {
+                mQQFaceBitmapDstRect.set(0, drawableTop, mQQFaceSize, drawableTop + mQQFaceSize);
+            } else {
+                drawable.setBounds(0, drawableTop, mQQFaceSize, drawableTop + mQQFaceSize);
+            }
         } else {
             int left = isLast ? mSpecialDrawablePadding : 0;
             int drawableWidth = drawable.getIntrinsicWidth();
@@ -1493,7 +1740,11 @@ public class QMUIQQFaceView extends View {
                 canvas.drawRect(0, 0, size, mFontHeight, mDecorationPaint);
             }
         }
-        drawable.draw(canvas);
+        if (faceBitmap != null) {
+            canvas.drawBitmap(faceBitmap, null, mQQFaceBitmapDstRect, mQQFaceBitmapPaint);
+        } else {
+            drawable.draw(canvas);
+        }
         if (mIsInDrawSpan && mCurrentDrawSpan != null &&
                 mCurrentDrawSpan.isNeedUnderline() && mLinkUnderLineHeight > 0) {
             ColorStateList underLineColors = mLinkUnderLineColor == null ? mTextColor : mLinkUnderLineColor;
@@ -1511,7 +1762,7 @@ public class QMUIQQFaceView extends View {
         canvas.restore();
     }
 
-    private class SpanInfo {
+    private class SpanInfo implements QMUIQQFaceLineIndex.LineRange {
         public static final int NOT_SET = -1;
         private ITouchableSpan mTouchableSpan;
         private int mStartPoint = NOT_SET;
@@ -1537,17 +1788,23 @@ public class QMUIQQFaceView extends View {
             mEndPoint = endPoint;
         }
 
+        @Override
+        public int getStartLine() {
+            return mStartLine;
+        }
+
+        @Override
+        public int getEndLine() {
+            return mEndLine;
+        }
+
         public void onClick() {
             mTouchableSpan.onClick(QMUIQQFaceView.this);
         }
 
         public void invalidateSpan() {
-            int top = getPaddingTop();
-            if (mStartLine > 1) {
-                top = (mStartLine - 1) * (mFontHeight + mLineSpace) + top;
-            }
-
-            int bottom = (mEndLine - 1) * (mFontHeight + mLineSpace) + top + mFontHeight;
+            int top = getLineTop(mStartLine);
+            int bottom = getLineTop(mEndLine) + mFontHeight;
             Rect bounds = new Rect();
             bounds.top = top;
             bounds.bottom = bottom;
@@ -1562,12 +1819,8 @@ public class QMUIQQFaceView extends View {
 
         @SuppressWarnings("SimplifiableIfStatement")
         public boolean onTouch(int x, int y) {
-            int top = getPaddingTop();
-            if (mStartLine > 1) {
-                top = (mStartLine - 1) * (mFontHeight + mLineSpace) + top;
-            }
-
-            int bottom = (mEndLine - 1) * (mFontHeight + mLineSpace) + getPaddingTop() + mFontHeight;
+            int top = getLineTop(mStartLine);
+            int bottom = getLineTop(mEndLine) + mFontHeight;
 
             if (y < top || y > bottom) {
                 return false;
@@ -0,0 +1,33 @@
+/*
+ * Tencent is pleased to support the open source community by making QMUI_Android available.
+ *
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qmuiteam.qmui.skin;
+
+import android.content.res.Resources;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Generated by arch-compiler for views with {@link com.qmuiteam.qmui.skin.annotation.QMUISkinSetter}.
+ */
+public interface IQMUISkinApplier {
+    /**
+     * @param ruleId the id of the rule name, see {@link QMUISkinManager#getRuleId(String)}
+     * @return false if the rule is not handled, then the rule handler registered for the name is used.
+     */
+    boolean apply(@NonNull QMUISkinManager manager, @NonNull View view,
+                  @NonNull Resources.Theme theme, int ruleId, int attr);
+}
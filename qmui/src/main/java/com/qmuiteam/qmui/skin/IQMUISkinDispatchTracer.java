@@ -0,0 +1,48 @@
+/*
+ * Tencent is pleased to support the open source community by making QMUI_Android available.
+ *
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qmuiteam.qmui.skin;
+
+import android.view.View;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Receive the cost of skin dispatch, set by {@link QMUISkinManager#setDispatchTracer(IQMUISkinDispatchTracer)}.
+ * All methods are called on the main thread, and times are measured by {@link System#nanoTime()}.
+ * {@link QMUISkinDispatchStats} is a ready-to-use implementation.
+ */
+public interface IQMUISkinDispatchTracer {
+
+    void onDispatchStart(@NonNull QMUISkinManager manager, @NonNull View root, int skinIndex);
+
+    /**
+     * @param costNanos time used to apply the view's own skin, including its rules, excluding its children
+     */
+    void onViewApplied(@NonNull View view, long costNanos);
+
+    /**
+     * called for each rule handled by a generated applier or an {@link IQMUISkinRuleHandler}
+     */
+    void onRuleHandled(@NonNull View view, @NonNull String name, long costNanos);
+
+    void onSpanHandled(@NonNull View view, @NonNull IQMUISkinHandlerSpan span, long costNanos);
+
+    /**
+     * called after each outermost dispatch
+     */
+    void onDispatchEnd(@NonNull QMUISkinManager manager, @NonNull View root, int skinIndex, long wallTimeNanos,
+                       int visitedCount, int appliedCount, int skippedCount);
+}
@@ -0,0 +1,317 @@
+/*
+ * Tencent is pleased to support the open source community by making QMUI_Android available.
+ *
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qmuiteam.qmui.skin;
+
+import android.view.View;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * An {@link IQMUISkinDispatchTracer} that aggregates the cost of skin dispatch.
+ * The record methods only use plain java types, so budgets can be asserted in JVM unit tests:
+ * <pre>
+ * QMUISkinDispatchStats stats = new QMUISkinDispatchStats();
+ * stats.recordDispatch(4_000_000, 120, 100, 20);
+ * assertTrue(stats.getMaxDispatchNanos() &lt;= 8_000_000);
+ * </pre>
+ */
+public class QMUISkinDispatchStats implements IQMUISkinDispatchTracer {
+    public static final int DEFAULT_SLOWEST_COUNT = 10;
+
+    private static final Comparator<Record> sCostComparator = new Comparator<Record>() {
+        @Override
+        public int compare(Record o1, Record o2) {
+            return Long.compare(o1.costNanos, o2.costNanos);
+        }
+    };
+
+    private final int mSlowestCount;
+    private int mDispatchCount = 0;
+    private long mTotalDispatchNanos = 0;
+    private long mMaxDispatchNanos = 0;
+    private long mLastDispatchNanos = 0;
+    private long mVisitedCount = 0;
+    private long mAppliedCount = 0;
+    private long mSkippedCount = 0;
+    private long mViewCount = 0;
+    private long mSpanCount = 0;
+    private long mSpanNanos = 0;
+    private final HashMap<String, RuleStats> mRuleStats = new HashMap<>();
+    // min heaps, the head is the fastest one of the slowest records
+    private final PriorityQueue<Record> mSlowestViews;
+    private final PriorityQueue<Record> mSlowestRules;
+
+    public QMUISkinDispatchStats() {
+        this(DEFAULT_SLOWEST_COUNT);
+    }
+
+    /**
+     * @param slowestCount how many slowest views and rules are kept
+     */
+    public QMUISkinDispatchStats(int slowestCount) {
+        if (slowestCount < 0) {
+            throw new IllegalArgumentException("slowestCount must not be negative");
+        }
+        mSlowestCount = slowestCount;
+        mSlowestViews = new PriorityQueue<>(Math.max(1, slowestCount), sCostComparator);
+        mSlowestRules = new PriorityQueue<>(Math.max(1, slowestCount), sCostComparator);
+    }
+
+    @Override
+    public void onDispatchStart(@NonNull QMUISkinManager manager, @NonNull View root, int skinIndex) {
+
+    }
+
+    @Override
+    public void onViewApplied(@NonNull View view, long costNanos) {
+        synchronized (this) {
+            mViewCount++;
+            // only build the name if it is one of the slowest
+            if (isSlowEnough(mSlowestViews, costNanos)) {
+                addSlowest(mSlowestViews, view.getClass().getName(), costNanos);
+            }
+        }
+    }
+
+    @Override
+    public void onRuleHandled(@NonNull View view, @NonNull String name, long costNanos) {
+        synchronized (this) {
+            addRule(name, costNanos);
+            if (isSlowEnough(mSlowestRules, costNanos)) {
+                addSlowest(mSlowestRules, name + "@" + view.getClass().getName(), costNanos);
+            }
+        }
+    }
+
+    @Override
+    public void onSpanHandled(@NonNull View view, @NonNull IQMUISkinHandlerSpan span, long costNanos) {
+        recordSpan(costNanos);
+    }
+
+    @Override
+    public void onDispatchEnd(@NonNull QMUISkinManager manager, @NonNull View root, int skinIndex,
+                              long wallTimeNanos, int visitedCount, int appliedCount, int skippedCount) {
+        recordDispatch(wallTimeNanos, visitedCount, appliedCount, skippedCount);
+    }
+
+    public synchronized void recordDispatch(long wallTimeNanos, int visitedCount, int appliedCount, int skippedCount) {
+        mDispatchCount++;
+        mTotalDispatchNanos += wallTimeNanos;
+        mMaxDispatchNanos = Math.max(mMaxDispatchNanos, wallTimeNanos);
+        mLastDispatchNanos = wallTimeNanos;
+        mVisitedCount += visitedCount;
+        mAppliedCount += appliedCount;
+        mSkippedCount += skippedCount;
+    }
+
+    public synchronized void recordView(@NonNull String viewName, long costNanos) {
+        mViewCount++;
+        if (isSlowEnough(mSlowestViews, costNanos)) {
+            addSlowest(mSlowestViews, viewName, costNanos);
+        }
+    }
+
+    public synchronized void recordRule(@NonNull String ruleName, long costNanos) {
+        addRule(ruleName, costNanos);
+        if (isSlowEnough(mSlowestRules, costNanos)) {
+            addSlowest(mSlowestRules, ruleName, costNanos);
+        }
+    }
+
+    public synchronized void recordSpan(long costNanos) {
+        mSpanCount++;
+        mSpanNanos += costNanos;
+    }
+
+    private void addRule(String name, long costNanos) {
+        RuleStats stats = mRuleStats.get(name);
+        if (stats == null) {
+            stats = new RuleStats();
+            mRuleStats.put(name, stats);
+        }
+        stats.count++;
+        stats.totalNanos += costNanos;
+        stats.maxNanos = Math.max(stats.maxNanos, costNanos);
+    }
+
+    private boolean isSlowEnough(PriorityQueue<Record> queue, long costNanos) {
+        if (mSlowestCount == 0) {
+            return false;
+        }
+        return queue.size() < mSlowestCount || queue.peek().costNanos < costNanos;
+    }
+
+    private void addSlowest(PriorityQueue<Record> queue, String name, long costNanos) {
+        if (queue.size() >= mSlowestCount) {
+            queue.poll();
+        }
+        queue.offer(new Record(name, costNanos));
+    }
+
+    public synchronized int getDispatchCount() {
+        return mDispatchCount;
+    }
+
+    public synchronized long getTotalDispatchNanos() {
+        return mTotalDispatchNanos;
+    }
+
+    public synchronized long getMaxDispatchNanos() {
+        return mMaxDispatchNanos;
+    }
+
+    public synchronized long getLastDispatchNanos() {
+        return mLastDispatchNanos;
+    }
+
+    public synchronized long getAverageDispatchNanos() {
+        return mDispatchCount == 0 ? 0 : mTotalDispatchNanos / mDispatchCount;
+    }
+
+    public synchronized long getVisitedCount() {
+        return mVisitedCount;
+    }
+
+    public synchronized long getAppliedCount() {
+        return mAppliedCount;
+    }
+
+    public synchronized long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /**
+     * @return views applied with the tracer installed, it may differ from {@link #getAppliedCount()}
+     * as views refreshed out of dispatch are also counted.
+     */
+    public synchronized long getViewCount() {
+        return mViewCount;
+    }
+
+    public synchronized long getSpanCount() {
+        return mSpanCount;
+    }
+
+    public synchronized long getSpanNanos() {
+        return mSpanNanos;
+    }
+
+    @NonNull
+    public synchronized Set<String> getRuleNames() {
+        return Collections.unmodifiableSet(new HashSet<>(mRuleStats.keySet()));
+    }
+
+    public synchronized int getRuleCount(@NonNull String ruleName) {
+        RuleStats stats = mRuleStats.get(ruleName);
+        return stats == null ? 0 : stats.count;
+    }
+
+    public synchronized long getRuleNanos(@NonNull String ruleName) {
+        RuleStats stats = mRuleStats.get(ruleName);
+        return stats == null ? 0 : stats.totalNanos;
+    }
+
+    public synchronized long getRuleMaxNanos(@NonNull String ruleName) {
+        RuleStats stats = mRuleStats.get(ruleName);
+        return stats == null ? 0 : stats.maxNanos;
+    }
+
+    /**
+     * @return the slowest views, from the slowest one
+     */
+    @NonNull
+    public synchronized List<Record> getSlowestViews() {
+        return sortDescending(mSlowestViews);
+    }
+
+    /**
+     * @return the slowest rule invocations named like "textColor@android.widget.TextView", from the slowest one
+     */
+    @NonNull
+    public synchronized List<Record> getSlowestRules() {
+        return sortDescending(mSlowestRules);
+    }
+
+    private static List<Record> sortDescending(PriorityQueue<Record> queue) {
+        List<Record> list = new ArrayList<>(queue);
+        Collections.sort(list, Collections.reverseOrder(sCostComparator));
+        return list;
+    }
+
+    public synchronized void reset() {
+        mDispatchCount = 0;
+        mTotalDispatchNanos = 0;
+        mMaxDispatchNanos = 0;
+        mLastDispatchNanos = 0;
+        mVisitedCount = 0;
+        mAppliedCount = 0;
+        mSkippedCount = 0;
+        mViewCount = 0;
+        mSpanCount = 0;
+        mSpanNanos = 0;
+        mRuleStats.clear();
+        mSlowestViews.clear();
+        mSlowestRules.clear();
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return "QMUISkinDispatchStats{" +
+                "dispatchCount=" + mDispatchCount +
+                ", totalDispatchNanos=" + mTotalDispatchNanos +
+                ", maxDispatchNanos=" + mMaxDispatchNanos +
+                ", visitedCount=" + mVisitedCount +
+                ", appliedCount=" + mAppliedCount +
+                ", skippedCount=" + mSkippedCount +
+                ", spanCount=" + mSpanCount +
+                ", slowestViews=" + sortDescending(mSlowestViews) +
+                ", slowestRules=" + sortDescending(mSlowestRules) +
+                '}';
+    }
+
+    private static class RuleStats {
+        int count;
+        long totalNanos;
+        long maxNanos;
+    }
+
+    public static class Record {
+        @NonNull
+        public final String name;
+        public final long costNanos;
+
+        Record(@NonNull String name, long costNanos) {
+            this.name = name;
+            this.costNanos = costNanos;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return name + "=" + costNanos + "ns";
+        }
+    }
+}
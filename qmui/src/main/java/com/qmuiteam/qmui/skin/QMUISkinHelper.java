@@ -46,17 +46,38 @@ public class QMUISkinHelper {
         return theme;
     }
 
+    @Nullable
+    private static QMUISkinManager getSkinManager(@NonNull View view) {
+        QMUISkinManager.ViewSkinCurrent current = QMUISkinManager.getViewSkinCurrent(view);
+        if (current == null || current.index < 0) {
+            return null;
+        }
+        return QMUISkinManager.of(current.managerName, view.getContext());
+    }
+
     public static int getSkinColor(@NonNull View view, int colorAttr) {
-        return QMUIResHelper.getAttrColor(getSkinTheme(view), colorAttr);
+        QMUISkinManager manager = getSkinManager(view);
+        if (manager == null) {
+            return QMUIResHelper.getAttrColor(view.getContext().getTheme(), colorAttr);
+        }
+        return manager.getSkinColor(getSkinTheme(view), colorAttr);
     }
 
     public static ColorStateList getSkinColorStateList(@NonNull View view, int colorAttr) {
-        return QMUIResHelper.getAttrColorStateList(view.getContext(), getSkinTheme(view), colorAttr);
+        QMUISkinManager manager = getSkinManager(view);
+        if (manager == null) {
+            return QMUIResHelper.getAttrColorStateList(view.getContext(), view.getContext().getTheme(), colorAttr);
+        }
+        return manager.getSkinColorStateList(view.getContext(), getSkinTheme(view), colorAttr);
     }
 
     @Nullable
     public static Drawable getSkinDrawable(@NonNull View view, int drawableAttr) {
-        return QMUIResHelper.getAttrDrawable(view.getContext(), getSkinTheme(view), drawableAttr);
+        QMUISkinManager manager = getSkinManager(view);
+        if (manager == null) {
+            return QMUIResHelper.getAttrDrawable(view.getContext(), view.getContext().getTheme(), drawableAttr);
+        }
+        return manager.getSkinDrawable(view.getContext(), getSkinTheme(view), drawableAttr);
     }
 
 
@@ -66,8 +87,12 @@ public class QMUISkinHelper {
 
     public static void setSkinValue(@NonNull View view, String value) {
         view.setTag(R.id.qmui_skin_value, value);
-        refreshViewSkin(view);
-
+        if (QMUISkinManager.getViewSkinCurrent(view) != null) {
+            // compile the rule table now and apply it, dispatch will reuse it later.
+            refreshViewSkin(view);
+        } else {
+            view.setTag(R.id.qmui_skin_rule_table, null);
+        }
     }
 
     @MainThread
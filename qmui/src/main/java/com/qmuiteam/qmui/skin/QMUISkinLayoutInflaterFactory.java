@@ -19,12 +19,21 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
+import android.content.res.XmlResourceParser;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.AttributeSet;
+import android.util.SparseArray;
 import android.view.InflateException;
 import android.view.LayoutInflater;
 import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewStub;
 
+import androidx.annotation.LayoutRes;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 
@@ -32,9 +41,15 @@ import com.qmuiteam.qmui.QMUILog;
 import com.qmuiteam.qmui.R;
 import com.qmuiteam.qmui.util.QMUILangHelper;
 
+import org.xmlpull.v1.XmlPullParser;
+
 import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class QMUISkinLayoutInflaterFactory implements LayoutInflater.Factory2 {
     private static final String TAG = "QMUISkin";
@@ -44,13 +59,29 @@ public class QMUISkinLayoutInflaterFactory implements LayoutInflater.Factory2 {
             "android.app.",
             "android.view."
     };
+    private static final Class<?>[] sConstructorSignature = new Class[]{Context.class, AttributeSet.class};
     private static final HashMap<String, String> sSuccessClassNamePrefixMap = new HashMap<>();
 
+    /**
+     * view constructors keyed by context class and then tag name,
+     * a null value means the class can not be created by constructor and the LayoutInflater should do it.
+     */
+    private static final HashMap<Class<?>, HashMap<String, Constructor<? extends View>>> sConstructorMap = new HashMap<>();
+
+    /**
+     * skin values parsed from layout resources, keyed by layout id and then the index of the view in the layout.
+     */
+    private static final SparseArray<SparseArray<ParsedSkinValue>> sLayoutSkinValueCache = new SparseArray<>();
+    private static final HashMap<String, Integer> sSkinAttrIdCache = new HashMap<>();
+    private static final ThreadLocal<InflatingLayout> sInflatingLayout = new ThreadLocal<>();
+    private static ExecutorService sInflateExecutor;
+
     /**
      * LayoutInflater.createView(four args) is provided in Android P, but some ROM did't follow the official.
      */
     private static boolean sCanUseCreateViewFourArguments = true;
     private static boolean sDidCheckLayoutInflaterCreateViewExitFourArgMethod = false;
+    private static Field sConstructorArgsField;
 
     private Resources.Theme mEmptyTheme;
     private WeakReference<Activity> mActivityWeakReference;
@@ -68,6 +99,79 @@ public class QMUISkinLayoutInflaterFactory implements LayoutInflater.Factory2 {
         return new QMUISkinLayoutInflaterFactory(mActivityWeakReference.get(), layoutInflater);
     }
 
+    /**
+     * Inflate a layout with the LayoutInflater this factory is installed on.
+     * Skin values of the views in the layout are parsed once and reused for later inflation of the same layout.
+     */
+    public View inflate(@LayoutRes int layoutId, @Nullable ViewGroup root, boolean attachToRoot) {
+        return inflate(mOriginLayoutInflater, layoutId, root, attachToRoot);
+    }
+
+    private View inflate(LayoutInflater inflater, @LayoutRes int layoutId,
+                         @Nullable ViewGroup root, boolean attachToRoot) {
+        XmlResourceParser parser = inflater.getContext().getResources().getLayout(layoutId);
+        InflatingLayout lastLayout = sInflatingLayout.get();
+        sInflatingLayout.set(new InflatingLayout(layoutId, parser));
+        try {
+            return inflater.inflate(parser, root, attachToRoot);
+        } finally {
+            sInflatingLayout.set(lastLayout);
+            parser.close();
+        }
+    }
+
+    /**
+     * Inflate a layout on a background thread and deliver the view on the main thread.
+     * Like AsyncLayoutInflater, the layout is inflated again on the main thread if it fails in background,
+     * e.g. some view creates a Handler in its constructor.
+     * The view is not attached to parent, parent is only used to generate layout params.
+     * <p>
+     * The background inflater does not go through the factories of the activity (e.g. AppCompat),
+     * which are not thread safe, so views are created by their own constructors as AsyncLayoutInflater does,
+     * and only skin values are collected for them.
+     */
+    @MainThread
+    public void inflateAsync(@LayoutRes int layoutId, @Nullable ViewGroup parent,
+                             @NonNull OnInflateFinishedListener listener) {
+        inflateAsync(layoutId, parent, getInflateExecutor(), listener);
+    }
+
+    @MainThread
+    public void inflateAsync(@LayoutRes final int layoutId, @Nullable final ViewGroup parent,
+                             @NonNull Executor executor, @NonNull final OnInflateFinishedListener listener) {
+        final LayoutInflater inflater = new BackgroundLayoutInflater(mOriginLayoutInflater.getContext());
+        final Handler handler = new Handler(Looper.getMainLooper());
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                View view = null;
+                try {
+                    view = inflate(inflater, layoutId, parent, false);
+                } catch (RuntimeException e) {
+                    QMUILog.d(TAG, "Failed to inflate layout in background, retry on main thread; error: " + e.getMessage());
+                }
+                final View result = view;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        View view = result;
+                        if (view == null) {
+                            view = inflate(mOriginLayoutInflater, layoutId, parent, false);
+                        }
+                        listener.onInflateFinished(view, layoutId, parent);
+                    }
+                });
+            }
+        });
+    }
+
+    private static synchronized Executor getInflateExecutor() {
+        if (sInflateExecutor == null) {
+            sInflateExecutor = Executors.newSingleThreadExecutor();
+        }
+        return sInflateExecutor;
+    }
+
     @Override
     public View onCreateView(View parent, String name, Context context, AttributeSet attrs) {
         Activity activity = mActivityWeakReference.get();
@@ -78,41 +182,18 @@ public class QMUISkinLayoutInflaterFactory implements LayoutInflater.Factory2 {
 
         if(view == null){
             try{
-                if (!name.contains(".")) {
-                    if(sSuccessClassNamePrefixMap.containsKey(name)){
-                        view = mOriginLayoutInflater
-                                .createView(name, sSuccessClassNamePrefixMap.get(name), attrs);
-                    }else{
-                        for (String prefix : sClassPrefixList) {
-                            try {
-                                view = mOriginLayoutInflater.createView(name, prefix, attrs);
-                                if (view != null) {
-                                    sSuccessClassNamePrefixMap.put(name, prefix);
-                                    break;
-                                }
-                            } catch (Exception ignored) {
-                            }
-                        }
-                    }
-                }else{
-                    if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.P){
-                        if(!sDidCheckLayoutInflaterCreateViewExitFourArgMethod){
-                            try{
-                                LayoutInflater.class.getDeclaredMethod(
-                                        "createView", Context.class, String.class, String.class, AttributeSet.class);
-                            }catch (Exception e){
-                                sCanUseCreateViewFourArguments = false;
-                            }
-                            sDidCheckLayoutInflaterCreateViewExitFourArgMethod = true;
+                // LayoutInflater.Filter is checked inside LayoutInflater.createView only
+                if (mOriginLayoutInflater.getFilter() == null) {
+                    // if no constructor is found, return null and let LayoutInflater report the error
+                    Constructor<? extends View> constructor = getConstructor(name, context);
+                    if (constructor != null) {
+                        view = constructor.newInstance(context, attrs);
+                        if (view instanceof ViewStub) {
+                            ((ViewStub) view).setLayoutInflater(mOriginLayoutInflater.cloneInContext(context));
                         }
-                        if(sCanUseCreateViewFourArguments){
-                            view = mOriginLayoutInflater.createView(context, name, null, attrs);
-                        }else{
-                            view = originCreateViewForLowSDK(name, context, attrs);
-                        }
-                    }else{
-                       view = originCreateViewForLowSDK(name, context, attrs);
                     }
+                } else {
+                    view = createViewByLayoutInflater(name, context, attrs);
                 }
             }catch (ClassNotFoundException ignore){
 
@@ -122,23 +203,123 @@ public class QMUISkinLayoutInflaterFactory implements LayoutInflater.Factory2 {
         }
 
         if (view != null) {
-            QMUISkinValueBuilder builder = QMUISkinValueBuilder.acquire();
-            getSkinValueFromAttributeSet(view.getContext(), attrs, builder);
-            if (!builder.isEmpty()) {
-                QMUISkinHelper.setSkinValue(view, builder);
+            String skinValue = getSkinValue(view.getContext(), name, attrs);
+            if (!skinValue.isEmpty()) {
+                QMUISkinHelper.setSkinValue(view, skinValue);
+            }
+        }
+
+        return view;
+    }
+
+    @Nullable
+    private static Constructor<? extends View> getConstructor(String name, Context context) {
+        Class<?> contextClass = context.getClass();
+        HashMap<String, Constructor<? extends View>> constructors;
+        synchronized (sConstructorMap) {
+            constructors = sConstructorMap.get(contextClass);
+            if (constructors == null) {
+                constructors = new HashMap<>();
+                sConstructorMap.put(contextClass, constructors);
+            } else if (constructors.containsKey(name)) {
+                return constructors.get(name);
+            }
+        }
+        Constructor<? extends View> constructor = null;
+        Class<? extends View> clazz = loadViewClass(name, context.getClassLoader());
+        if (clazz != null) {
+            try {
+                constructor = clazz.getConstructor(sConstructorSignature);
+                constructor.setAccessible(true);
+            } catch (Exception ignored) {
+            }
+        }
+        synchronized (sConstructorMap) {
+            constructors.put(name, constructor);
+        }
+        return constructor;
+    }
+
+    @Nullable
+    private static Class<? extends View> loadViewClass(String name, ClassLoader classLoader) {
+        if (name.contains(".")) {
+            return loadViewClass(name, null, classLoader);
+        }
+        for (String prefix : sClassPrefixList) {
+            Class<? extends View> clazz = loadViewClass(name, prefix, classLoader);
+            if (clazz != null) {
+                return clazz;
             }
-            QMUISkinValueBuilder.release(builder);
         }
+        return null;
+    }
+
+    @Nullable
+    private static Class<? extends View> loadViewClass(String name, @Nullable String prefix, ClassLoader classLoader) {
+        try {
+            String className = prefix == null ? name : prefix + name;
+            return Class.forName(className, false, classLoader).asSubclass(View.class);
+        } catch (ClassNotFoundException | ClassCastException ignored) {
+            return null;
+        }
+    }
 
+    private View createViewByLayoutInflater(String name, Context context, AttributeSet attrs)
+            throws NoSuchFieldException, IllegalAccessException, InflateException, ClassNotFoundException {
+        View view = null;
+        if (!name.contains(".")) {
+            String successPrefix;
+            synchronized (sSuccessClassNamePrefixMap) {
+                successPrefix = sSuccessClassNamePrefixMap.get(name);
+            }
+            if(successPrefix != null){
+                view = mOriginLayoutInflater.createView(name, successPrefix, attrs);
+            }else{
+                for (String prefix : sClassPrefixList) {
+                    try {
+                        view = mOriginLayoutInflater.createView(name, prefix, attrs);
+                        if (view != null) {
+                            synchronized (sSuccessClassNamePrefixMap) {
+                                sSuccessClassNamePrefixMap.put(name, prefix);
+                            }
+                            break;
+                        }
+                    } catch (Exception ignored) {
+                    }
+                }
+            }
+        }else{
+            if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.P){
+                if(!sDidCheckLayoutInflaterCreateViewExitFourArgMethod){
+                    try{
+                        LayoutInflater.class.getDeclaredMethod(
+                                "createView", Context.class, String.class, String.class, AttributeSet.class);
+                    }catch (Exception e){
+                        sCanUseCreateViewFourArguments = false;
+                    }
+                    sDidCheckLayoutInflaterCreateViewExitFourArgMethod = true;
+                }
+                if(sCanUseCreateViewFourArguments){
+                    view = mOriginLayoutInflater.createView(context, name, null, attrs);
+                }else{
+                    view = originCreateViewForLowSDK(name, context, attrs);
+                }
+            }else{
+               view = originCreateViewForLowSDK(name, context, attrs);
+            }
+        }
         return view;
     }
 
     private View originCreateViewForLowSDK(String name, Context context, AttributeSet attrs)
             throws NoSuchFieldException, IllegalArgumentException,
             IllegalAccessException, InflateException, ClassNotFoundException {
-        Field field = LayoutInflater.class.getDeclaredField("mConstructorArgs");
-        field.setAccessible(true);
-        Object[] mConstructorArgs = (Object[]) field.get(mOriginLayoutInflater);
+        if (sConstructorArgsField == null) {
+            Field field = LayoutInflater.class.getDeclaredField("mConstructorArgs");
+            field.setAccessible(true);
+            sConstructorArgsField = field;
+        }
+        Object[] mConstructorArgs = (Object[]) sConstructorArgsField.get(mOriginLayoutInflater);
         Object lastContext = mConstructorArgs[0];
         mConstructorArgs[0] = context;
         View view = mOriginLayoutInflater.createView(name, null, attrs);
@@ -151,12 +332,73 @@ public class QMUISkinLayoutInflaterFactory implements LayoutInflater.Factory2 {
         return onCreateView(null, name, context, attrs);
     }
 
-    public void getSkinValueFromAttributeSet(Context context, @Nullable AttributeSet attrs, QMUISkinValueBuilder builder) {
-        // use a empty theme, so we can get the attr's own value, not it's ref value
-        if(mEmptyTheme == null){
+    /**
+     * @return the skin value of the view, reuse the value parsed before
+     * if the view is inflated by {@link #inflate(int, ViewGroup, boolean)} or {@link #inflateAsync}.
+     */
+    @NonNull
+    private String getSkinValue(Context context, String name, @Nullable AttributeSet attrs) {
+        InflatingLayout layout = sInflatingLayout.get();
+        // views in <include> layouts are created from other parsers and are not cached
+        if (layout == null || attrs == null || layout.parser != attrs) {
+            return parseSkinValue(context, attrs);
+        }
+        int position = layout.nextPosition++;
+        int lineNumber = layout.parser.getLineNumber();
+        SparseArray<ParsedSkinValue> layoutCache;
+        synchronized (sLayoutSkinValueCache) {
+            layoutCache = sLayoutSkinValueCache.get(layout.layoutId);
+            if (layoutCache == null) {
+                layoutCache = new SparseArray<>();
+                sLayoutSkinValueCache.put(layout.layoutId, layoutCache);
+            }
+            ParsedSkinValue parsed = layoutCache.get(position);
+            // the same layout id may point to another file in another configuration
+            if (parsed != null && parsed.lineNumber == lineNumber && parsed.name.equals(name)) {
+                return parsed.value;
+            }
+        }
+        String value = parseSkinValue(context, attrs);
+        synchronized (sLayoutSkinValueCache) {
+            layoutCache.put(position, new ParsedSkinValue(name, lineNumber, value));
+        }
+        return value;
+    }
+
+    @NonNull
+    private String parseSkinValue(Context context, @Nullable AttributeSet attrs) {
+        QMUISkinValueBuilder builder = QMUISkinValueBuilder.acquire();
+        getSkinValueFromAttributeSet(context, attrs, builder);
+        // interned, so views share the same rule table in QMUISkinManager
+        String value = builder.isEmpty() ? "" : builder.build().intern();
+        QMUISkinValueBuilder.release(builder);
+        return value;
+    }
+
+    private synchronized Resources.Theme getEmptyTheme(Context context) {
+        if (mEmptyTheme == null) {
             mEmptyTheme = context.getApplicationContext().getResources().newTheme();
         }
-        TypedArray a = mEmptyTheme.obtainStyledAttributes(attrs, R.styleable.QMUISkinDef, 0, 0);
+        return mEmptyTheme;
+    }
+
+    private static int getSkinAttrId(Context context, String name) {
+        synchronized (sSkinAttrIdCache) {
+            Integer id = sSkinAttrIdCache.get(name);
+            if (id != null) {
+                return id;
+            }
+        }
+        int id = context.getResources().getIdentifier(name, "attr", context.getPackageName());
+        synchronized (sSkinAttrIdCache) {
+            sSkinAttrIdCache.put(name, id);
+        }
+        return id;
+    }
+
+    public void getSkinValueFromAttributeSet(Context context, @Nullable AttributeSet attrs, QMUISkinValueBuilder builder) {
+        // use a empty theme, so we can get the attr's own value, not it's ref value
+        TypedArray a = getEmptyTheme(context).obtainStyledAttributes(attrs, R.styleable.QMUISkinDef, 0, 0);
         int count = a.getIndexCount();
         for (int i = 0; i < count; i++) {
             int attr = a.getIndex(i);
@@ -167,8 +409,7 @@ public class QMUISkinLayoutInflaterFactory implements LayoutInflater.Factory2 {
             if (name.startsWith("?")) {
                 name = name.substring(1);
             }
-            int id = context.getResources().getIdentifier(
-                    name, "attr", context.getPackageName());
+            int id = getSkinAttrId(context, name);
             if (id == 0) {
                 continue;
             }
@@ -220,4 +461,93 @@ public class QMUISkinLayoutInflaterFactory implements LayoutInflater.Factory2 {
         }
         a.recycle();
     }
+
+    private class BackgroundLayoutInflater extends LayoutInflater {
+
+        BackgroundLayoutInflater(Context context) {
+            super(context);
+            setFactory2(new BackgroundFactory());
+        }
+
+        @Override
+        public LayoutInflater cloneInContext(Context newContext) {
+            return new BackgroundLayoutInflater(newContext);
+        }
+
+        @Override
+        protected View onCreateView(String name, AttributeSet attrs) throws ClassNotFoundException {
+            for (String prefix : sClassPrefixList) {
+                try {
+                    View view = createView(name, prefix, attrs);
+                    if (view != null) {
+                        return view;
+                    }
+                } catch (ClassNotFoundException ignored) {
+                }
+            }
+            return super.onCreateView(name, attrs);
+        }
+    }
+
+    /**
+     * Factory of {@link BackgroundLayoutInflater}, it only touches the thread safe caches of this class.
+     */
+    private class BackgroundFactory implements LayoutInflater.Factory2 {
+
+        @Override
+        public View onCreateView(View parent, String name, Context context, AttributeSet attrs) {
+            Constructor<? extends View> constructor = getConstructor(name, context);
+            if (constructor == null) {
+                return null;
+            }
+            View view;
+            try {
+                view = constructor.newInstance(context, attrs);
+            } catch (Exception e) {
+                // fail the whole layout, so it is inflated again on the main thread
+                throw new InflateException("Failed to create view " + name + " in background", e);
+            }
+            if (view instanceof ViewStub) {
+                // ViewStub is inflated on the main thread later
+                ((ViewStub) view).setLayoutInflater(mOriginLayoutInflater.cloneInContext(context));
+            }
+            String skinValue = getSkinValue(view.getContext(), name, attrs);
+            if (!skinValue.isEmpty()) {
+                QMUISkinHelper.setSkinValue(view, skinValue);
+            }
+            return view;
+        }
+
+        @Override
+        public View onCreateView(String name, Context context, AttributeSet attrs) {
+            return onCreateView(null, name, context, attrs);
+        }
+    }
+
+    public interface OnInflateFinishedListener {
+        void onInflateFinished(@NonNull View view, @LayoutRes int layoutId, @Nullable ViewGroup parent);
+    }
+
+    private static class InflatingLayout {
+        final int layoutId;
+        final XmlPullParser parser;
+        int nextPosition = 0;
+
+        InflatingLayout(int layoutId, XmlPullParser parser) {
+            this.layoutId = layoutId;
+            this.parser = parser;
+        }
+    }
+
+    private static class ParsedSkinValue {
+        final String name;
+        final int lineNumber;
+        final String value;
+
+        ParsedSkinValue(String name, int lineNumber, String value) {
+            this.name = name;
+            this.lineNumber = lineNumber;
+            this.value = value;
+        }
+    }
 }
@@ -18,11 +18,18 @@ package com.qmuiteam.qmui.skin;
 import android.app.Activity;
 import android.app.Dialog;
 import android.content.Context;
+import android.content.res.ColorStateList;
 import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.os.Trace;
 import android.text.Spanned;
 import android.util.ArrayMap;
+import android.util.LruCache;
 import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.Window;
@@ -68,11 +75,15 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 public final class QMUISkinManager {
     private static final String TAG = "QMUISkinManager";
     public static final int DEFAULT_SKIN = -1;
-    private static final String[] EMPTY_ITEMS = new String[]{};
+    public static final int DEFAULT_RESOLVED_VALUES_BUDGET = 4 * 1024 * 1024;
+    // skin values built at runtime may be all different, so the compiled rule tables are bounded by count
+    public static final int DEFAULT_RULE_TABLE_CACHE_SIZE = 512;
     private static ArrayMap<String, QMUISkinManager> sInstances = new ArrayMap<>();
     private static final String DEFAULT_NAME = "default";
     public static final DispatchListenStrategySelector DEFAULT_DISPATCH_LISTEN_STRATEGY_SELECTOR = new DispatchListenStrategySelector() {
@@ -127,40 +138,82 @@ public final class QMUISkinManager {
     private Resources mResources;
     private String mPackageName;
     private SparseArray<SkinItem> mSkins = new SparseArray<>();
-    private static HashMap<String, IQMUISkinRuleHandler> sRuleHandlers = new HashMap<>();
-    private static HashMap<Integer, Resources.Theme> sStyleIdThemeMap = new HashMap<>();
+    // every rule name gets an id once, compiled QMUISkinRuleTable and generated IQMUISkinApplier refer
+    // to rules by the id, so ids are never removed. The handler of an id is null until it is set.
+    private static ArrayList<IQMUISkinRuleHandler> sRuleHandlers = new ArrayList<>();
+    private static HashMap<String, Integer> sRuleIds = new HashMap<>();
+    private LruCache<String, QMUISkinRuleTable> mRuleTableCache = new LruCache<>(DEFAULT_RULE_TABLE_CACHE_SIZE);
+    private HashMap<String, Integer> mAttrIdCache = new HashMap<>();
+    private SparseBooleanArray mUsedAttrs = new SparseBooleanArray();
+    private SparseArray<QMUISkinResolvedValues> mResolvedValues = new SparseArray<>();
+    private int mResolvedValuesBudget = DEFAULT_RESOLVED_VALUES_BUDGET;
+    private int mResolvedUseSeq = 0;
+    private static Executor sResolveExecutor;
+    private static final HashMap<Integer, Resources.Theme> sStyleIdThemeMap = new HashMap<>();
+    private static QMUISkinApplierRegistry sSkinApplierRegistry;
+    private static HashMap<Class<?>, IQMUISkinApplier> sSkinApplierCache = new HashMap<>();
     private boolean mIsInSkinChangeDispatch = false;
 
     static {
-        sRuleHandlers.put(QMUISkinValueBuilder.BACKGROUND, new QMUISkinRuleBackgroundHandler());
+        try {
+            Class<?> cls = Class.forName(QMUISkinApplierRegistry.class.getName() + "Impl");
+            sSkinApplierRegistry = (QMUISkinApplierRegistry) cls.newInstance();
+        } catch (ClassNotFoundException ignored) {
+            // no view is annotated by QMUISkinSetter
+        } catch (IllegalAccessException | InstantiationException e) {
+            throw new RuntimeException("Can not instance the Class QMUISkinApplierRegistryImpl. " +
+                    "Please file a issue to report this.", e);
+        }
+    }
+
+    static {
+        putRuleHandler(QMUISkinValueBuilder.BACKGROUND, new QMUISkinRuleBackgroundHandler());
         IQMUISkinRuleHandler textColorHandler = new QMUISkinRuleTextColorHandler();
-        sRuleHandlers.put(QMUISkinValueBuilder.TEXT_COLOR, textColorHandler);
-        sRuleHandlers.put(QMUISkinValueBuilder.SECOND_TEXT_COLOR, textColorHandler);
-        sRuleHandlers.put(QMUISkinValueBuilder.SRC, new QMUISkinRuleSrcHandler());
-        sRuleHandlers.put(QMUISkinValueBuilder.BORDER, new QMUISkinRuleBorderHandler());
+        putRuleHandler(QMUISkinValueBuilder.TEXT_COLOR, textColorHandler);
+        putRuleHandler(QMUISkinValueBuilder.SECOND_TEXT_COLOR, textColorHandler);
+        putRuleHandler(QMUISkinValueBuilder.SRC, new QMUISkinRuleSrcHandler());
+        putRuleHandler(QMUISkinValueBuilder.BORDER, new QMUISkinRuleBorderHandler());
         IQMUISkinRuleHandler separatorHandler = new QMUISkinRuleSeparatorHandler();
-        sRuleHandlers.put(QMUISkinValueBuilder.TOP_SEPARATOR, separatorHandler);
-        sRuleHandlers.put(QMUISkinValueBuilder.RIGHT_SEPARATOR, separatorHandler);
-        sRuleHandlers.put(QMUISkinValueBuilder.BOTTOM_SEPARATOR, separatorHandler);
-        sRuleHandlers.put(QMUISkinValueBuilder.LEFT_SEPARATOR, separatorHandler);
-        sRuleHandlers.put(QMUISkinValueBuilder.TINT_COLOR, new QMUISkinRuleTintColorHandler());
-        sRuleHandlers.put(QMUISkinValueBuilder.ALPHA, new QMUISkinRuleAlphaHandler());
-        sRuleHandlers.put(QMUISkinValueBuilder.BG_TINT_COLOR, new QMUISkinRuleBgTintColorHandler());
-        sRuleHandlers.put(QMUISkinValueBuilder.PROGRESS_COLOR, new QMUISkinRuleProgressColorHandler());
-        sRuleHandlers.put(QMUISkinValueBuilder.TEXT_COMPOUND_TINT_COLOR, new QMUISkinRuleTextCompoundTintColorHandler());
+        putRuleHandler(QMUISkinValueBuilder.TOP_SEPARATOR, separatorHandler);
+        putRuleHandler(QMUISkinValueBuilder.RIGHT_SEPARATOR, separatorHandler);
+        putRuleHandler(QMUISkinValueBuilder.BOTTOM_SEPARATOR, separatorHandler);
+        putRuleHandler(QMUISkinValueBuilder.LEFT_SEPARATOR, separatorHandler);
+        putRuleHandler(QMUISkinValueBuilder.TINT_COLOR, new QMUISkinRuleTintColorHandler());
+        putRuleHandler(QMUISkinValueBuilder.ALPHA, new QMUISkinRuleAlphaHandler());
+        putRuleHandler(QMUISkinValueBuilder.BG_TINT_COLOR, new QMUISkinRuleBgTintColorHandler());
+        putRuleHandler(QMUISkinValueBuilder.PROGRESS_COLOR, new QMUISkinRuleProgressColorHandler());
+        putRuleHandler(QMUISkinValueBuilder.TEXT_COMPOUND_TINT_COLOR, new QMUISkinRuleTextCompoundTintColorHandler());
         IQMUISkinRuleHandler textCompoundSrcHandler = new QMUISkinRuleTextCompoundSrcHandler();
-        sRuleHandlers.put(QMUISkinValueBuilder.TEXT_COMPOUND_LEFT_SRC, textCompoundSrcHandler);
-        sRuleHandlers.put(QMUISkinValueBuilder.TEXT_COMPOUND_TOP_SRC, textCompoundSrcHandler);
-        sRuleHandlers.put(QMUISkinValueBuilder.TEXT_COMPOUND_RIGHT_SRC, textCompoundSrcHandler);
-        sRuleHandlers.put(QMUISkinValueBuilder.TEXT_COMPOUND_BOTTOM_SRC, textCompoundSrcHandler);
-        sRuleHandlers.put(QMUISkinValueBuilder.HINT_COLOR, new QMUISkinRuleHintColorHandler());
-        sRuleHandlers.put(QMUISkinValueBuilder.UNDERLINE, new QMUISkinRuleUnderlineHandler());
-        sRuleHandlers.put(QMUISkinValueBuilder.MORE_TEXT_COLOR, new QMUISkinRuleMoreTextColorHandler());
-        sRuleHandlers.put(QMUISkinValueBuilder.MORE_BG_COLOR, new QMUISkinRuleMoreBgColorHandler());
+        putRuleHandler(QMUISkinValueBuilder.TEXT_COMPOUND_LEFT_SRC, textCompoundSrcHandler);
+        putRuleHandler(QMUISkinValueBuilder.TEXT_COMPOUND_TOP_SRC, textCompoundSrcHandler);
+        putRuleHandler(QMUISkinValueBuilder.TEXT_COMPOUND_RIGHT_SRC, textCompoundSrcHandler);
+        putRuleHandler(QMUISkinValueBuilder.TEXT_COMPOUND_BOTTOM_SRC, textCompoundSrcHandler);
+        putRuleHandler(QMUISkinValueBuilder.HINT_COLOR, new QMUISkinRuleHintColorHandler());
+        putRuleHandler(QMUISkinValueBuilder.UNDERLINE, new QMUISkinRuleUnderlineHandler());
+        putRuleHandler(QMUISkinValueBuilder.MORE_TEXT_COLOR, new QMUISkinRuleMoreTextColorHandler());
+        putRuleHandler(QMUISkinValueBuilder.MORE_BG_COLOR, new QMUISkinRuleMoreBgColorHandler());
     }
 
     public static void setRuleHandler(String name, IQMUISkinRuleHandler handler) {
-        sRuleHandlers.put(name, handler);
+        putRuleHandler(name, handler);
+    }
+
+    private static void putRuleHandler(String name, IQMUISkinRuleHandler handler) {
+        sRuleHandlers.set(getRuleId(name), handler);
+    }
+
+    /**
+     * @return the id of the skin rule name, it is assigned when the name is seen for the first time.
+     * Generated appliers use it to dispatch rules without comparing names.
+     */
+    public static int getRuleId(@NonNull String name) {
+        Integer id = sRuleIds.get(name);
+        if (id == null) {
+            id = sRuleHandlers.size();
+            sRuleIds.put(name, id);
+            sRuleHandlers.add(null);
+        }
+        return id;
     }
 
     // Actually, ViewGroup.OnHierarchyChangeListener is a better choice, but it only has a setter.
@@ -266,59 +319,169 @@ public final class QMUISkinManager {
         if (view == null) {
             return;
         }
-        if (BuildConfig.DEBUG) {
+        boolean traceSection = BuildConfig.DEBUG || mTraceSectionEnabled;
+        if (traceSection) {
             Trace.beginSection("QMUISkin::dispatch");
         }
+        try {
+            Resources.Theme theme = getDispatchTheme(view, skinIndex);
+            boolean isOutermost = mDispatchDepth++ == 0;
+            IQMUISkinDispatchTracer tracer = mDispatchTracer;
+            long startTime = 0;
+            if (isOutermost) {
+                mVisitedCount = 0;
+                mAppliedCount = 0;
+                mSkippedCount = 0;
+                if (tracer != null) {
+                    tracer.onDispatchStart(this, view, skinIndex);
+                    startTime = System.nanoTime();
+                }
+            }
+            try {
+                runDispatch(view, skinIndex, theme);
+            } finally {
+                mDispatchDepth--;
+            }
+            if (isOutermost) {
+                if (tracer != null) {
+                    tracer.onDispatchEnd(this, view, skinIndex, System.nanoTime() - startTime,
+                            mVisitedCount, mAppliedCount, mSkippedCount);
+                }
+                for (int i = mSkinDispatchListeners.size() - 1; i >= 0; i--) {
+                    mSkinDispatchListeners.get(i).onSkinDispatched(
+                            this, view, skinIndex, mVisitedCount, mAppliedCount, mSkippedCount);
+                }
+            }
+        } finally {
+            if (traceSection) {
+                Trace.endSection();
+            }
+        }
+    }
+
+
+    /**
+     * skin a batch of the off-screen item views of recyclerView, views attached again are skipped as
+     * the hierarchy/layout listeners have handled them. The batch is one outermost dispatch rooted at
+     * recyclerView for the tracer and trace section. Dispatch listeners are not called for it,
+     * {@link OnOffscreenSkinDispatchListener} is notified once all the batches are done.
+     *
+     * @param deadline in {@link SystemClock#uptimeMillis()}, the batch stops once it is passed
+     * @return the index of the first view not dispatched yet
+     */
+    int dispatchOffscreen(@NonNull RecyclerView recyclerView, @NonNull List<View> views, int start,
+                          int skinIndex, long deadline) {
+        boolean traceSection = BuildConfig.DEBUG || mTraceSectionEnabled;
+        if (traceSection) {
+            Trace.beginSection("QMUISkin::dispatchOffscreen");
+        }
+        try {
+            Resources.Theme theme = getDispatchTheme(recyclerView, skinIndex);
+            boolean isOutermost = mDispatchDepth++ == 0;
+            IQMUISkinDispatchTracer tracer = mDispatchTracer;
+            long startTime = 0;
+            if (isOutermost) {
+                mVisitedCount = 0;
+                mAppliedCount = 0;
+                mSkippedCount = 0;
+                if (tracer != null) {
+                    tracer.onDispatchStart(this, recyclerView, skinIndex);
+                    startTime = System.nanoTime();
+                }
+            }
+            int index = start;
+            try {
+                while (index < views.size()) {
+                    View view = views.get(index++);
+                    if (view.getParent() == null) {
+                        runDispatch(view, skinIndex, theme);
+                    }
+                    if (SystemClock.uptimeMillis() >= deadline) {
+                        break;
+                    }
+                }
+            } finally {
+                mDispatchDepth--;
+            }
+            if (isOutermost && tracer != null) {
+                tracer.onDispatchEnd(this, recyclerView, skinIndex, System.nanoTime() - startTime,
+                        mVisitedCount, mAppliedCount, mSkippedCount);
+            }
+            return index;
+        } finally {
+            if (traceSection) {
+                Trace.endSection();
+            }
+        }
+    }
+
+    private Resources.Theme getDispatchTheme(@NonNull View view, int skinIndex) {
         SkinItem skinItem = mSkins.get(skinIndex);
-        Resources.Theme theme;
         if (skinItem == null) {
             if (skinIndex != DEFAULT_SKIN) {
                 throw new IllegalArgumentException("The skin " + skinIndex + " does not exist");
             }
-            theme = view.getContext().getTheme();
-        } else {
-            theme = skinItem.getTheme();
-        }
-        runDispatch(view, skinIndex, theme);
-        if (BuildConfig.DEBUG) {
-            Trace.endSection();
+            return view.getContext().getTheme();
         }
+        return skinItem.getTheme();
     }
 
-
     private void runDispatch(@NonNull View view, int skinIndex, Resources.Theme theme) {
+        mVisitedCount++;
         ViewSkinCurrent currentTheme = getViewSkinCurrent(view);
-        if (currentTheme != null && currentTheme.index == skinIndex && Objects.equals(currentTheme.managerName, mName)) {
+        if (currentTheme != null && currentTheme.isUpToDate(mName, skinIndex, mSkinGeneration)) {
+            // the whole subtree is up to date, stale children are handled by the hierarchy/layout listeners
+            mSkippedCount++;
             return;
         }
-        view.setTag(R.id.qmui_skin_current, new ViewSkinCurrent(mName, skinIndex));
+        if (currentTheme == null) {
+            currentTheme = new ViewSkinCurrent(mName, skinIndex, mSkinGeneration);
+            view.setTag(R.id.qmui_skin_current, currentTheme);
+        } else {
+            if (!Objects.equals(currentTheme.managerName, mName)) {
+                // the listeners are installed for the manager that dispatched the view last
+                currentTheme.managerName = mName;
+                currentTheme.listenerInstalled = false;
+            }
+            currentTheme.index = skinIndex;
+            currentTheme.generation = mSkinGeneration;
+        }
 
         if (view instanceof IQMUISkinDispatchInterceptor) {
             if (((IQMUISkinDispatchInterceptor) view).intercept(skinIndex, theme)) {
+                mSkippedCount++;
                 return;
             }
         }
 
         Object interceptTag = view.getTag(R.id.qmui_skin_intercept_dispatch);
         if (interceptTag instanceof Boolean && ((Boolean) interceptTag)) {
+            mSkippedCount++;
             return;
         }
 
         Object ignoreApplyTag = view.getTag(R.id.qmui_skin_ignore_apply);
         boolean ignoreApply = ignoreApplyTag instanceof Boolean && ((Boolean) ignoreApplyTag);
         if (!ignoreApply) {
+            mAppliedCount++;
             applyTheme(view, skinIndex, theme);
         }
         if (view instanceof ViewGroup) {
             ViewGroup viewGroup = (ViewGroup) view;
-            if (sDispatchListenStrategySelector.select(viewGroup) == DispatchListenStrategy.LISTEN_ON_HIERARCHY_CHANGE) {
-                viewGroup.setOnHierarchyChangeListener(mOnHierarchyChangeListener);
-            } else {
-                viewGroup.addOnLayoutChangeListener(mOnLayoutChangeListener);
+            if (!currentTheme.listenerInstalled) {
+                if (sDispatchListenStrategySelector.select(viewGroup) == DispatchListenStrategy.LISTEN_ON_HIERARCHY_CHANGE) {
+                    viewGroup.setOnHierarchyChangeListener(mOnHierarchyChangeListener);
+                } else {
+                    viewGroup.addOnLayoutChangeListener(mOnLayoutChangeListener);
+                }
+                currentTheme.listenerInstalled = true;
             }
             for (int i = 0; i < viewGroup.getChildCount(); i++) {
                 runDispatch(viewGroup.getChildAt(i), skinIndex, theme);
             }
+            if (mOffscreenDispatchEnabled && viewGroup instanceof RecyclerView) {
+                QMUISkinOffscreenDispatcher.schedule(this, (RecyclerView) viewGroup, skinIndex);
+            }
         } else if (!ignoreApply && ((view instanceof TextView) || (view instanceof QMUIQQFaceView))) {
             CharSequence text;
             if (view instanceof TextView) {
@@ -329,8 +492,15 @@ public final class QMUISkinManager {
             if (text instanceof Spanned) {
                 IQMUISkinHandlerSpan[] spans = ((Spanned) text).getSpans(0, text.length(), IQMUISkinHandlerSpan.class);
                 if (spans != null) {
+                    IQMUISkinDispatchTracer tracer = mDispatchTracer;
                     for (int i = 0; i < spans.length; i++) {
-                        spans[i].handle(view, this, skinIndex, theme);
+                        if (tracer == null) {
+                            spans[i].handle(view, this, skinIndex, theme);
+                        } else {
+                            long startTime = System.nanoTime();
+                            spans[i].handle(view, this, skinIndex, theme);
+                            tracer.onSpanHandled(view, spans[i], System.nanoTime() - startTime);
+                        }
                     }
                 }
                 view.invalidate();
@@ -339,12 +509,45 @@ public final class QMUISkinManager {
     }
 
     private void applyTheme(@NonNull View view, int skinIndex, Resources.Theme theme) {
-        SimpleArrayMap<String, Integer> attrs = getSkinAttrs(view);
+        IQMUISkinDispatchTracer tracer = mDispatchTracer;
+        boolean traceSection = mTraceSectionEnabled;
+        if (tracer == null && !traceSection) {
+            doApplyTheme(view, skinIndex, theme);
+            return;
+        }
+        if (traceSection) {
+            // section name is limited to 127 characters
+            String sectionName = "QMUISkin::apply " + view.getClass().getSimpleName();
+            Trace.beginSection(sectionName.length() > 127 ? sectionName.substring(0, 127) : sectionName);
+        }
+        long startTime = System.nanoTime();
+        try {
+            doApplyTheme(view, skinIndex, theme);
+        } finally {
+            if (tracer != null) {
+                tracer.onViewApplied(view, System.nanoTime() - startTime);
+            }
+            if (traceSection) {
+                Trace.endSection();
+            }
+        }
+    }
+
+    private void doApplyTheme(@NonNull View view, int skinIndex, Resources.Theme theme) {
+        QMUISkinRuleTable rules = getSkinRuleTable(view);
+        SimpleArrayMap<String, Integer> attrs = null;
         try {
             if (view instanceof IQMUISkinHandlerView) {
+                attrs = getSkinAttrs(view, rules);
                 ((IQMUISkinHandlerView) view).handle(this, skinIndex, theme, attrs);
             } else {
-                defaultHandleSkinAttrs(view, theme, attrs);
+                attrs = getDefaultSkinAttrs(view);
+                if (attrs == null) {
+                    defaultHandleSkinRules(view, theme, rules);
+                } else {
+                    rules.putInto(attrs);
+                    defaultHandleSkinAttrs(view, theme, attrs);
+                }
             }
 
             Object skinApplyListener = view.getTag(R.id.qmui_skin_apply_listener);
@@ -365,7 +568,7 @@ public final class QMUISkinManager {
         } catch (Throwable throwable) {
             QMUILog.printErrStackTrace(TAG, throwable,
                     "catch error when apply theme: " + view.getClass().getSimpleName() +
-                            "; " + skinIndex + "; attrs = " + (attrs == null ? "null" : attrs.toString()));
+                            "; " + skinIndex + "; attrs = " + (attrs == null ? rules.toString() : attrs.toString()));
         }
     }
 
@@ -387,13 +590,14 @@ public final class QMUISkinManager {
 
     public void defaultHandleSkinAttrs(@NonNull View view, Resources.Theme theme, @Nullable SimpleArrayMap<String, Integer> attrs) {
         if (attrs != null) {
+            IQMUISkinApplier applier = getSkinApplier(view);
             for (int i = 0; i < attrs.size(); i++) {
                 String key = attrs.keyAt(i);
                 Integer attr = attrs.valueAt(i);
-                if (attr == null) {
+                if (attr == null || attr == 0) {
                     continue;
                 }
-                defaultHandleSkinAttr(view, theme, key, attr);
+                handleSkinRule(view, theme, applier, key, getRuleId(key), attr);
             }
         }
     }
@@ -402,7 +606,43 @@ public final class QMUISkinManager {
         if (attr == 0) {
             return;
         }
-        IQMUISkinRuleHandler handler = sRuleHandlers.get(name);
+        handleSkinRule(view, theme, getSkinApplier(view), name, getRuleId(name), attr);
+    }
+
+    private void defaultHandleSkinRules(@NonNull View view, Resources.Theme theme, @NonNull QMUISkinRuleTable rules) {
+        if (rules.isEmpty()) {
+            return;
+        }
+        IQMUISkinApplier applier = getSkinApplier(view);
+        int[] ruleIds = rules.ruleIds;
+        int[] ruleAttrs = rules.attrs;
+        String[] names = rules.names;
+        for (int i = 0; i < ruleAttrs.length; i++) {
+            handleSkinRule(view, theme, applier, names[i], ruleIds[i], ruleAttrs[i]);
+        }
+    }
+
+    private void handleSkinRule(View view, Resources.Theme theme, @Nullable IQMUISkinApplier applier,
+                                String name, int ruleId, int attr) {
+        IQMUISkinDispatchTracer tracer = mDispatchTracer;
+        if (tracer == null) {
+            doHandleSkinRule(view, theme, applier, name, ruleId, attr);
+            return;
+        }
+        long startTime = System.nanoTime();
+        try {
+            doHandleSkinRule(view, theme, applier, name, ruleId, attr);
+        } finally {
+            tracer.onRuleHandled(view, name, System.nanoTime() - startTime);
+        }
+    }
+
+    private void doHandleSkinRule(View view, Resources.Theme theme, @Nullable IQMUISkinApplier applier,
+                                  String name, int ruleId, int attr) {
+        if (applier != null && applier.apply(this, view, theme, ruleId, attr)) {
+            return;
+        }
+        IQMUISkinRuleHandler handler = sRuleHandlers.get(ruleId);
         if (handler == null) {
             QMUILog.w(TAG, "Do not find handler for skin attr name: " + name);
             return;
@@ -411,15 +651,41 @@ public final class QMUISkinManager {
     }
 
     @Nullable
-    private SimpleArrayMap<String, Integer> getSkinAttrs(View view) {
-        String skinValue = (String) view.getTag(R.id.qmui_skin_value);
-        String[] items;
-        if (skinValue == null || skinValue.isEmpty()) {
-            items = EMPTY_ITEMS;
-        } else {
-            items = skinValue.split("[|]");
+    private IQMUISkinApplier getSkinApplier(@NonNull View view) {
+        if (sSkinApplierRegistry == null) {
+            return null;
+        }
+        ViewSkinCurrent current = getViewSkinCurrent(view);
+        if (current != null && current.applierResolved) {
+            return current.applier;
         }
+        IQMUISkinApplier applier = findSkinApplier(view.getClass());
+        if (current != null) {
+            current.applier = applier;
+            current.applierResolved = true;
+        }
+        return applier;
+    }
 
+    @Nullable
+    private static IQMUISkinApplier findSkinApplier(Class<?> viewClass) {
+        if (sSkinApplierCache.containsKey(viewClass)) {
+            return sSkinApplierCache.get(viewClass);
+        }
+        IQMUISkinApplier applier = null;
+        // subclasses of annotated views use the applier of the nearest annotated super class
+        for (Class<?> cls = viewClass; cls != null && cls != View.class; cls = cls.getSuperclass()) {
+            applier = sSkinApplierRegistry.getApplier(cls);
+            if (applier != null) {
+                break;
+            }
+        }
+        sSkinApplierCache.put(viewClass, applier);
+        return applier;
+    }
+
+    @Nullable
+    private SimpleArrayMap<String, Integer> getDefaultSkinAttrs(View view) {
         SimpleArrayMap<String, Integer> attrs = null;
         if (view instanceof IQMUISkinDefaultAttrProvider) {
             SimpleArrayMap<String, Integer> defaultAttrs = ((IQMUISkinDefaultAttrProvider) view).getDefaultSkinAttrs();
@@ -439,35 +705,160 @@ public final class QMUISkinManager {
                 }
             }
         }
+        return attrs;
+    }
 
+    @Nullable
+    private SimpleArrayMap<String, Integer> getSkinAttrs(View view, @NonNull QMUISkinRuleTable rules) {
+        SimpleArrayMap<String, Integer> attrs = getDefaultSkinAttrs(view);
         if (attrs == null) {
-            if (items.length <= 0) {
+            if (rules.isEmpty()) {
                 return null;
             }
-            attrs = new SimpleArrayMap<>(items.length);
+            attrs = new SimpleArrayMap<>(rules.size());
+        }
+        rules.putInto(attrs);
+        return attrs;
+    }
+
+    @NonNull
+    QMUISkinRuleTable getSkinRuleTable(@NonNull View view) {
+        String skinValue = (String) view.getTag(R.id.qmui_skin_value);
+        if (skinValue == null) {
+            skinValue = "";
+        }
+        Object tag = view.getTag(R.id.qmui_skin_rule_table);
+        if (tag instanceof QMUISkinRuleTable && ((QMUISkinRuleTable) tag).isCompiledFrom(this, skinValue)) {
+            return (QMUISkinRuleTable) tag;
         }
+        QMUISkinRuleTable rules = compileSkinValue(skinValue);
+        view.setTag(R.id.qmui_skin_rule_table, rules);
+        return rules;
+    }
 
-        for (String item : items) {
-            String[] kv = item.split(":");
-            if (kv.length != 2) {
-                continue;
-            }
-            String key = kv[0].trim();
-            if (QMUILangHelper.isNullOrEmpty(key)) {
-                continue;
+    /**
+     * compile the skin value to a rule table, the result is shared by all views with the same skin value.
+     */
+    @NonNull
+    public QMUISkinRuleTable compileSkinValue(@NonNull String skinValue) {
+        QMUISkinRuleTable rules = mRuleTableCache.get(skinValue);
+        if (rules != null) {
+            return rules;
+        }
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<Integer> attrs = new ArrayList<>();
+        int length = skinValue.length();
+        int start = 0;
+        while (start < length) {
+            int end = skinValue.indexOf('|', start);
+            if (end < 0) {
+                end = length;
             }
-            int attr = getAttrFromName(kv[1].trim());
-            if (attr == 0) {
-                QMUILog.w(TAG, "Failed to get attr id from name: " + kv[1]);
-                continue;
+            // same as item.split(":") with exactly two parts
+            int colon = skinValue.indexOf(':', start);
+            int nextColon = colon < 0 ? -1 : skinValue.indexOf(':', colon + 1);
+            if (colon >= 0 && colon < end && (nextColon < 0 || nextColon >= end)) {
+                String key = skinValue.substring(start, colon).trim();
+                String attrName = skinValue.substring(colon + 1, end).trim();
+                if (!QMUILangHelper.isNullOrEmpty(key) && !attrName.isEmpty()) {
+                    int attr = getAttrFromName(attrName);
+                    if (attr == 0) {
+                        QMUILog.w(TAG, "Failed to get attr id from name: " + attrName);
+                    } else {
+                        int index = names.indexOf(key);
+                        if (index >= 0) {
+                            attrs.set(index, attr);
+                        } else {
+                            names.add(key.intern());
+                            attrs.add(attr);
+                        }
+                    }
+                }
             }
-            attrs.put(key, attr);
+            start = end + 1;
         }
-        return attrs;
+        int size = names.size();
+        String[] nameArray = names.toArray(new String[size]);
+        int[] ruleIds = new int[size];
+        int[] attrArray = new int[size];
+        for (int i = 0; i < size; i++) {
+            ruleIds[i] = getRuleId(nameArray[i]);
+            attrArray[i] = attrs.get(i);
+            // recorded here as the rule table may be evicted before the next prewarm
+            mUsedAttrs.put(attrArray[i], true);
+        }
+        rules = new QMUISkinRuleTable(this, skinValue, nameArray, ruleIds, attrArray);
+        mRuleTableCache.put(skinValue, rules);
+        return rules;
     }
 
     public int getAttrFromName(String attrName) {
-        return mResources.getIdentifier(attrName, "attr", mPackageName);
+        Integer cached = mAttrIdCache.get(attrName);
+        if (cached != null) {
+            return cached;
+        }
+        int attr = mResources.getIdentifier(attrName, "attr", mPackageName);
+        mAttrIdCache.put(attrName, attr);
+        return attr;
+    }
+
+    /**
+     * resolve color of attr for skin handlers, use the resolved snapshot of theme if exists.
+     */
+    public int getSkinColor(@NonNull Resources.Theme theme, int attr) {
+        QMUISkinResolvedValues values = findResolvedValues(theme, attr);
+        if (values != null) {
+            return values.getColor(attr);
+        }
+        return QMUIResHelper.getAttrColor(theme, attr);
+    }
+
+    public float getSkinFloat(@NonNull Resources.Theme theme, int attr) {
+        QMUISkinResolvedValues values = findResolvedValues(theme, attr);
+        if (values != null) {
+            return values.getFloat(attr);
+        }
+        return QMUIResHelper.getAttrFloatValue(theme, attr);
+    }
+
+    @Nullable
+    public ColorStateList getSkinColorStateList(@NonNull Context context, @NonNull Resources.Theme theme, int attr) {
+        QMUISkinResolvedValues values = findResolvedValues(theme, attr);
+        if (values != null && values.hasColorStateList(attr)) {
+            return values.getColorStateList(attr);
+        }
+        return QMUIResHelper.getAttrColorStateList(context, theme, attr);
+    }
+
+    @Nullable
+    public Drawable getSkinDrawable(@NonNull Context context, @NonNull Resources.Theme theme, int attr) {
+        QMUISkinResolvedValues values = findResolvedValues(theme, attr);
+        if (values != null && values.hasDrawable(attr)) {
+            return values.getDrawable(context.getResources(), attr);
+        }
+        return QMUIResHelper.getAttrDrawable(context, theme, attr);
+    }
+
+    @Nullable
+    private QMUISkinResolvedValues findResolvedValues(Resources.Theme theme, int attr) {
+        mUsedAttrs.put(attr, true);
+        for (int i = 0; i < mResolvedValues.size(); i++) {
+            QMUISkinResolvedValues values = mResolvedValues.valueAt(i);
+            if (values.getTheme() == theme) {
+                values.lastUsedSeq = mResolvedUseSeq;
+                return values.contains(attr) ? values : null;
+            }
+        }
+        return null;
+    }
+
+    private int[] collectUsedAttrs() {
+        mUsedAttrs.put(R.attr.qmui_skin_support_activity_background, true);
+        int[] attrs = new int[mUsedAttrs.size()];
+        for (int i = 0; i < attrs.length; i++) {
+            attrs[i] = mUsedAttrs.keyAt(i);
+        }
+        return attrs;
     }
 
     class SkinItem {
@@ -483,19 +874,34 @@ public final class QMUISkinManager {
 
         @NonNull
         Resources.Theme getTheme() {
-            Resources.Theme theme = sStyleIdThemeMap.get(styleRes);
-            if (theme == null) {
-                theme = mResources.newTheme();
-                theme.applyStyle(styleRes, true);
-                sStyleIdThemeMap.put(styleRes, theme);
+            // may be called from the prewarm thread
+            synchronized (sStyleIdThemeMap) {
+                Resources.Theme theme = sStyleIdThemeMap.get(styleRes);
+                if (theme == null) {
+                    theme = mResources.newTheme();
+                    theme.applyStyle(styleRes, true);
+                    sStyleIdThemeMap.put(styleRes, theme);
+                }
+                return theme;
             }
-            return theme;
         }
     }
 
     // =====================================================================================
 
     private int mCurrentSkin = DEFAULT_SKIN;
+    private int mChangeSkinSeq = 0;
+    // increased when skin is changed or refreshed, views dispatched with an old generation are stale
+    private int mSkinGeneration = 0;
+    private int mDispatchDepth = 0;
+    private int mVisitedCount = 0;
+    private int mAppliedCount = 0;
+    private int mSkippedCount = 0;
+    private final List<OnSkinDispatchListener> mSkinDispatchListeners = new ArrayList<>();
+    private final List<OnOffscreenSkinDispatchListener> mOffscreenSkinDispatchListeners = new ArrayList<>();
+    private boolean mOffscreenDispatchEnabled = true;
+    private IQMUISkinDispatchTracer mDispatchTracer;
+    private boolean mTraceSectionEnabled = false;
     private final List<WeakReference<?>> mSkinObserverList = new ArrayList<>();
     private final List<OnSkinChangeListener> mSkinChangeListeners = new ArrayList<>();
 
@@ -595,12 +1001,36 @@ public final class QMUISkinManager {
 
     @MainThread
     public void changeSkin(int index) {
+        mChangeSkinSeq++;
         if (mCurrentSkin == index) {
             return;
         }
         int oldIndex = mCurrentSkin;
         mCurrentSkin = index;
+        mSkinGeneration++;
+        mResolvedUseSeq++;
         mIsInSkinChangeDispatch = true;
+        dispatchToObservers(index);
+        trimResolvedValues();
+
+        for (int i = mSkinChangeListeners.size() - 1; i >= 0; i--) {
+            OnSkinChangeListener item = mSkinChangeListeners.get(i);
+            item.onSkinChange(this, oldIndex, mCurrentSkin);
+        }
+        mIsInSkinChangeDispatch = false;
+    }
+
+    /**
+     * re-apply the current skin to all observers, even if their views are already in the current skin.
+     */
+    @MainThread
+    public void refreshSkin() {
+        mSkinGeneration++;
+        dispatchToObservers(mCurrentSkin);
+    }
+
+    private void dispatchToObservers(int index) {
+        SkinItem skinItem = mSkins.get(index);
         for (int i = mSkinObserverList.size() - 1; i >= 0; i--) {
             Object item = mSkinObserverList.get(i).get();
             if (item == null) {
@@ -608,8 +1038,10 @@ public final class QMUISkinManager {
             } else {
                 if (item instanceof Activity) {
                     Activity activity = (Activity) item;
-                    activity.getWindow().setBackgroundDrawable(QMUIResHelper.getAttrDrawable(
-                            activity, mSkins.get(index).getTheme(), R.attr.qmui_skin_support_activity_background));
+                    if (skinItem != null) {
+                        activity.getWindow().setBackgroundDrawable(getSkinDrawable(
+                                activity, skinItem.getTheme(), R.attr.qmui_skin_support_activity_background));
+                    }
                     dispatch(activity.findViewById(Window.ID_ANDROID_CONTENT), index);
                 } else if (item instanceof Fragment) {
                     dispatch(((Fragment) item).getView(), index);
@@ -627,12 +1059,122 @@ public final class QMUISkinManager {
                 }
             }
         }
+    }
 
-        for (int i = mSkinChangeListeners.size() - 1; i >= 0; i--) {
-            OnSkinChangeListener item = mSkinChangeListeners.get(i);
-            item.onSkinChange(this, oldIndex, mCurrentSkin);
+    /**
+     * change skin in two phases: attrs used by the registered observers are resolved against the target
+     * theme on a background thread first, then the skin is dispatched on main thread with the resolved values.
+     * A later call of {@link #changeSkin(int)} or this method cancels the pending change.
+     */
+    @MainThread
+    public void changeSkinAsync(int index) {
+        changeSkinAsync(index, getResolveExecutor());
+    }
+
+    @MainThread
+    public void changeSkinAsync(final int index, @NonNull Executor executor) {
+        if (mCurrentSkin == index) {
+            changeSkin(index);
+            return;
         }
-        mIsInSkinChangeDispatch = false;
+        final int seq = ++mChangeSkinSeq;
+        resolveSkin(index, executor, new Runnable() {
+            @Override
+            public void run() {
+                if (seq == mChangeSkinSeq) {
+                    changeSkin(index);
+                }
+            }
+        });
+    }
+
+    /**
+     * build the theme of the skin and resolve all attrs used by the observers in background,
+     * so that the first switch to the skin is as fast as the subsequent ones.
+     * The resolved values of skins not in use are evicted when they exceed {@link #setResolvedValuesBudget(int)}.
+     */
+    @MainThread
+    public void prewarm(int skinIndex) {
+        prewarm(skinIndex, getResolveExecutor(), null);
+    }
+
+    @MainThread
+    public void prewarm(int skinIndex, @NonNull Executor executor, @Nullable Runnable onFinished) {
+        resolveSkin(skinIndex, executor, onFinished);
+    }
+
+    /**
+     * @param budget the max estimated bytes held by resolved values, the current skin is never evicted.
+     */
+    @MainThread
+    public void setResolvedValuesBudget(int budget) {
+        mResolvedValuesBudget = budget;
+        trimResolvedValues();
+    }
+
+    private void resolveSkin(final int index, @NonNull Executor executor, @Nullable final Runnable onResolved) {
+        final SkinItem skinItem = mSkins.get(index);
+        if (skinItem == null) {
+            throw new IllegalArgumentException("The skin " + index + " does not exist");
+        }
+        final int[] attrs = collectUsedAttrs();
+        QMUISkinResolvedValues resolved = mResolvedValues.get(index);
+        if (resolved != null && resolved.size() == attrs.length) {
+            resolved.lastUsedSeq = ++mResolvedUseSeq;
+            if (onResolved != null) {
+                onResolved.run();
+            }
+            return;
+        }
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final QMUISkinResolvedValues values = QMUISkinResolvedValues.resolve(
+                        mResources, skinItem.getTheme(), attrs);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        values.lastUsedSeq = ++mResolvedUseSeq;
+                        mResolvedValues.put(index, values);
+                        trimResolvedValues();
+                        if (onResolved != null) {
+                            onResolved.run();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void trimResolvedValues() {
+        long total = 0;
+        for (int i = 0; i < mResolvedValues.size(); i++) {
+            total += mResolvedValues.valueAt(i).getEstimatedBytes();
+        }
+        while (total > mResolvedValuesBudget) {
+            int evictIndex = -1;
+            for (int i = 0; i < mResolvedValues.size(); i++) {
+                if (mResolvedValues.keyAt(i) == mCurrentSkin) {
+                    continue;
+                }
+                if (evictIndex < 0 || mResolvedValues.valueAt(i).lastUsedSeq < mResolvedValues.valueAt(evictIndex).lastUsedSeq) {
+                    evictIndex = i;
+                }
+            }
+            if (evictIndex < 0) {
+                return;
+            }
+            total -= mResolvedValues.valueAt(evictIndex).getEstimatedBytes();
+            mResolvedValues.removeAt(evictIndex);
+        }
+    }
+
+    private static Executor getResolveExecutor() {
+        if (sResolveExecutor == null) {
+            sResolveExecutor = Executors.newSingleThreadExecutor();
+        }
+        return sResolveExecutor;
     }
 
     @MainThread
@@ -654,6 +1196,64 @@ public final class QMUISkinManager {
         return mCurrentSkin;
     }
 
+    @MainThread
+    public void addSkinDispatchListener(@NonNull OnSkinDispatchListener listener) {
+        mSkinDispatchListeners.add(listener);
+    }
+
+    @MainThread
+    public void removeSkinDispatchListener(@NonNull OnSkinDispatchListener listener) {
+        mSkinDispatchListeners.remove(listener);
+    }
+
+    /**
+     * set a tracer to receive the cost of dispatch, views, rules and spans. e.g. {@link QMUISkinDispatchStats}.
+     * There is no timing work if the tracer is null.
+     */
+    @MainThread
+    public void setDispatchTracer(@Nullable IQMUISkinDispatchTracer tracer) {
+        mDispatchTracer = tracer;
+    }
+
+    @Nullable
+    public IQMUISkinDispatchTracer getDispatchTracer() {
+        return mDispatchTracer;
+    }
+
+    /**
+     * if enabled, dispatch and each applied view are wrapped in {@link Trace} sections for systrace/perfetto,
+     * dispatch is always traced in debug build.
+     */
+    @MainThread
+    public void setTraceSectionEnabled(boolean enabled) {
+        mTraceSectionEnabled = enabled;
+    }
+
+    /**
+     * if enabled, the ViewHolders in RecyclerView's view cache and RecycledViewPool are skinned
+     * in batches while main thread is idle, instead of when they are attached again.
+     */
+    @MainThread
+    public void setOffscreenDispatchEnabled(boolean enabled) {
+        mOffscreenDispatchEnabled = enabled;
+    }
+
+    @MainThread
+    public void addOffscreenSkinDispatchListener(@NonNull OnOffscreenSkinDispatchListener listener) {
+        mOffscreenSkinDispatchListeners.add(listener);
+    }
+
+    @MainThread
+    public void removeOffscreenSkinDispatchListener(@NonNull OnOffscreenSkinDispatchListener listener) {
+        mOffscreenSkinDispatchListeners.remove(listener);
+    }
+
+    void notifyOffscreenSkinDispatched(@NonNull RecyclerView recyclerView, int skinIndex, int viewCount) {
+        for (int i = mOffscreenSkinDispatchListeners.size() - 1; i >= 0; i--) {
+            mOffscreenSkinDispatchListeners.get(i).onOffscreenSkinDispatched(this, recyclerView, skinIndex, viewCount);
+        }
+    }
+
     public interface OnSkinChangeListener {
         void onSkinChange(QMUISkinManager skinManager, int oldSkin, int newSkin);
     }
@@ -661,10 +1261,20 @@ public final class QMUISkinManager {
     class ViewSkinCurrent {
         String managerName;
         int index;
+        int generation;
+        boolean listenerInstalled = false;
+        boolean applierResolved = false;
+        IQMUISkinApplier applier;
 
-        ViewSkinCurrent(String managerName, int index) {
+        ViewSkinCurrent(String managerName, int index, int generation) {
             this.managerName = managerName;
             this.index = index;
+            this.generation = generation;
+        }
+
+        boolean isUpToDate(String managerName, int index, int generation) {
+            return this.index == index && this.generation == generation &&
+                    Objects.equals(this.managerName, managerName);
         }
 
         @Override
@@ -672,16 +1282,35 @@ public final class QMUISkinManager {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             ViewSkinCurrent that = (ViewSkinCurrent) o;
-            return index == that.index &&
-                    Objects.equals(managerName, that.managerName);
+            return isUpToDate(that.managerName, that.index, that.generation);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(managerName, index);
+            return Objects.hash(managerName, index, generation);
         }
     }
 
+    public interface OnSkinDispatchListener {
+        /**
+         * called after each outermost dispatch, can be used to verify the cost of skin dispatch.
+         *
+         * @param visitedCount views walked by the dispatch
+         * @param appliedCount views whose skin attrs were applied
+         * @param skippedCount views skipped because they were up to date or intercepted
+         */
+        void onSkinDispatched(QMUISkinManager skinManager, View root, int skinIndex,
+                              int visitedCount, int appliedCount, int skippedCount);
+    }
+
+    public interface OnOffscreenSkinDispatchListener {
+        /**
+         * called when all off-screen ViewHolders of the RecyclerView are skinned.
+         */
+        void onOffscreenSkinDispatched(QMUISkinManager skinManager, RecyclerView recyclerView,
+                                       int skinIndex, int viewCount);
+    }
+
     public interface DispatchListenStrategySelector {
         @NonNull
         DispatchListenStrategy select(@NonNull ViewGroup viewGroup);
@@ -0,0 +1,197 @@
+/*
+ * Tencent is pleased to support the open source community by making QMUI_Android available.
+ *
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qmuiteam.qmui.skin;
+
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.util.SparseArray;
+import android.view.View;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.qmuiteam.qmui.QMUILog;
+import com.qmuiteam.qmui.R;
+import com.qmuiteam.qmui.util.QMUIReflectHelper;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Skin dispatch only walks attached children, so the ViewHolders in RecyclerView's view cache and
+ * RecycledViewPool are re-skinned when they are attached again, which causes a burst of work in the first
+ * scroll after a skin change. This class applies skin to them in time-sliced batches while the main
+ * looper is idle.
+ */
+class QMUISkinOffscreenDispatcher implements MessageQueue.IdleHandler {
+    private static final String TAG = "QMUISkinOffscreen";
+    private static final long BATCH_TIME_MS = 4;
+    private static boolean sLookupFailureLogged = false;
+    // the reflected fields are looked up once, null if they are not found
+    private static boolean sFieldsResolved = false;
+    private static boolean sScrapHeapFieldResolved = false;
+    private static Field sRecyclerField;
+    private static Field sCachedViewsField;
+    private static Field sScrapField;
+    private static Field sScrapHeapField;
+
+    @MainThread
+    static void schedule(@NonNull QMUISkinManager manager, @NonNull RecyclerView recyclerView, int skinIndex) {
+        Object tag = recyclerView.getTag(R.id.qmui_skin_offscreen_dispatcher);
+        if (tag instanceof QMUISkinOffscreenDispatcher) {
+            ((QMUISkinOffscreenDispatcher) tag).cancel();
+        }
+        ArrayList<View> views = new ArrayList<>();
+        collectOffscreenItemViews(recyclerView, views);
+        if (views.isEmpty()) {
+            recyclerView.setTag(R.id.qmui_skin_offscreen_dispatcher, null);
+            manager.notifyOffscreenSkinDispatched(recyclerView, skinIndex, 0);
+            return;
+        }
+        QMUISkinOffscreenDispatcher dispatcher = new QMUISkinOffscreenDispatcher(
+                manager, recyclerView, skinIndex, views);
+        recyclerView.setTag(R.id.qmui_skin_offscreen_dispatcher, dispatcher);
+        Looper.myQueue().addIdleHandler(dispatcher);
+    }
+
+    /**
+     * RecyclerView does not expose its view cache and pool content, read them by reflection,
+     * and just skip them if the fields are renamed. The fields are kept by consumer-rules.pro.
+     */
+    private static void collectOffscreenItemViews(@NonNull RecyclerView recyclerView, @NonNull List<View> out) {
+        resolveFields();
+        Object recycler = readField(sRecyclerField, recyclerView);
+        if (recycler == null) {
+            logLookupFailed("RecyclerView.mRecycler");
+        } else {
+            addItemViews(readField(sCachedViewsField, recycler), "RecyclerView.Recycler.mCachedViews", out);
+        }
+        Object scrap = readField(sScrapField, recyclerView.getRecycledViewPool());
+        if (!(scrap instanceof SparseArray)) {
+            logLookupFailed("RecyclerView.RecycledViewPool.mScrap");
+            return;
+        }
+        SparseArray<?> scrapArray = (SparseArray<?>) scrap;
+        for (int i = 0; i < scrapArray.size(); i++) {
+            Object scrapData = scrapArray.valueAt(i);
+            if (scrapData == null) {
+                continue;
+            }
+            if (!sScrapHeapFieldResolved) {
+                // ScrapData is not visible here, so its field is resolved from the first instance
+                sScrapHeapFieldResolved = true;
+                sScrapHeapField = findField(scrapData.getClass(), "mScrapHeap");
+            }
+            addItemViews(readField(sScrapHeapField, scrapData),
+                    "RecyclerView.RecycledViewPool.ScrapData.mScrapHeap", out);
+        }
+    }
+
+    private static void resolveFields() {
+        if (sFieldsResolved) {
+            return;
+        }
+        sFieldsResolved = true;
+        sRecyclerField = findField(RecyclerView.class, "mRecycler");
+        sCachedViewsField = findField(RecyclerView.Recycler.class, "mCachedViews");
+        sScrapField = findField(RecyclerView.RecycledViewPool.class, "mScrap");
+    }
+
+    @Nullable
+    private static Field findField(@NonNull Class<?> cls, @NonNull String name) {
+        try {
+            Field field = QMUIReflectHelper.getField(cls, name);
+            if (field != null) {
+                field.setAccessible(true);
+            }
+            return field;
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private static Object readField(@Nullable Field field, @NonNull Object obj) {
+        if (field == null) {
+            return null;
+        }
+        try {
+            return field.get(obj);
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    private static void addItemViews(Object holders, String fieldName, @NonNull List<View> out) {
+        if (!(holders instanceof List)) {
+            logLookupFailed(fieldName);
+            return;
+        }
+        for (Object holder : (List<?>) holders) {
+            if (holder instanceof RecyclerView.ViewHolder) {
+                out.add(((RecyclerView.ViewHolder) holder).itemView);
+            }
+        }
+    }
+
+    private static void logLookupFailed(String fieldName) {
+        if (!sLookupFailureLogged) {
+            sLookupFailureLogged = true;
+            QMUILog.w(TAG, "Failed to read " + fieldName + ", off-screen ViewHolders will be skinned when attached");
+        }
+    }
+
+    private final QMUISkinManager mManager;
+    private final RecyclerView mRecyclerView;
+    private final int mSkinIndex;
+    private final List<View> mViews;
+    private int mNextIndex = 0;
+    private boolean mIsCanceled = false;
+
+    private QMUISkinOffscreenDispatcher(QMUISkinManager manager, RecyclerView recyclerView,
+                                        int skinIndex, List<View> views) {
+        mManager = manager;
+        mRecyclerView = recyclerView;
+        mSkinIndex = skinIndex;
+        mViews = views;
+    }
+
+    void cancel() {
+        mIsCanceled = true;
+        Looper.myQueue().removeIdleHandler(this);
+    }
+
+    @Override
+    public boolean queueIdle() {
+        if (mIsCanceled) {
+            return false;
+        }
+        long deadline = SystemClock.uptimeMillis() + BATCH_TIME_MS;
+        mNextIndex = mManager.dispatchOffscreen(mRecyclerView, mViews, mNextIndex, mSkinIndex, deadline);
+        if (mNextIndex < mViews.size()) {
+            return true;
+        }
+        if (mRecyclerView.getTag(R.id.qmui_skin_offscreen_dispatcher) == this) {
+            mRecyclerView.setTag(R.id.qmui_skin_offscreen_dispatcher, null);
+        }
+        mManager.notifyOffscreenSkinDispatched(mRecyclerView, mSkinIndex, mViews.size());
+        return false;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Tencent is pleased to support the open source community by making QMUI_Android available.
+ *
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qmuiteam.qmui.skin;
+
+import android.content.res.ColorStateList;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import android.util.TypedValue;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.core.content.res.ResourcesCompat;
+
+import com.qmuiteam.qmui.QMUILog;
+
+/**
+ * A snapshot of attr values resolved against one skin theme.
+ * It is built off the main thread by {@link QMUISkinManager#changeSkinAsync(int)} or
+ * {@link QMUISkinManager#prewarm(int)}, then skin handlers
+ * read colors, color state lists and drawables from it without any TypedValue work.
+ */
+public final class QMUISkinResolvedValues {
+    private static final String TAG = "QMUISkinResolvedValues";
+    private static final int MAX_ATTR_REF_DEPTH = 8;
+    private static final int ESTIMATED_ENTRY_BYTES = 48;
+    private static final int ESTIMATED_COLOR_STATE_LIST_BYTES = 128;
+    private static final int ESTIMATED_DRAWABLE_BYTES = 512;
+
+    private final Resources.Theme mTheme;
+    private final SparseIntArray mTypes;
+    private final SparseIntArray mData;
+    private final SparseIntArray mFloatData;
+    private final SparseArray<ColorStateList> mColorStateLists = new SparseArray<>();
+    private final SparseArray<Drawable.ConstantState> mDrawableStates = new SparseArray<>();
+    private long mEstimatedBytes = 0;
+    int lastUsedSeq;
+
+    private QMUISkinResolvedValues(Resources.Theme theme, int capacity) {
+        mTheme = theme;
+        mTypes = new SparseIntArray(capacity);
+        mData = new SparseIntArray(capacity);
+        mFloatData = new SparseIntArray(capacity);
+    }
+
+    @WorkerThread
+    @NonNull
+    static QMUISkinResolvedValues resolve(@NonNull Resources resources,
+                                          @NonNull Resources.Theme theme,
+                                          @NonNull int[] attrs) {
+        QMUISkinResolvedValues values = new QMUISkinResolvedValues(theme, attrs.length);
+        TypedValue typedValue = new TypedValue();
+        for (int attr : attrs) {
+            if (attr != 0) {
+                values.resolveAttr(resources, typedValue, attr);
+            }
+        }
+        return values;
+    }
+
+    private void resolveAttr(Resources resources, TypedValue typedValue, int attr) {
+        mEstimatedBytes += ESTIMATED_ENTRY_BYTES;
+        if (!mTheme.resolveAttribute(attr, typedValue, true)) {
+            mTypes.put(attr, TypedValue.TYPE_NULL);
+            return;
+        }
+        // QMUIResHelper.getAttrFloatValue does not follow attr references
+        mFloatData.put(attr, typedValue.data);
+        int depth = 0;
+        while (typedValue.type == TypedValue.TYPE_ATTRIBUTE && depth++ < MAX_ATTR_REF_DEPTH) {
+            if (!mTheme.resolveAttribute(typedValue.data, typedValue, true)) {
+                mTypes.put(attr, TypedValue.TYPE_NULL);
+                return;
+            }
+        }
+        mTypes.put(attr, typedValue.type);
+        mData.put(attr, typedValue.data);
+        if (typedValue.type >= TypedValue.TYPE_FIRST_COLOR_INT
+                && typedValue.type <= TypedValue.TYPE_LAST_COLOR_INT) {
+            return;
+        }
+        int resourceId = typedValue.resourceId;
+        if (resourceId == 0) {
+            return;
+        }
+        try {
+            if ("color".equals(resources.getResourceTypeName(resourceId))) {
+                mColorStateLists.put(attr, ResourcesCompat.getColorStateList(resources, resourceId, mTheme));
+                mEstimatedBytes += ESTIMATED_COLOR_STATE_LIST_BYTES;
+            }
+            Drawable drawable = ResourcesCompat.getDrawable(resources, resourceId, mTheme);
+            if (drawable != null && drawable.getConstantState() != null) {
+                mDrawableStates.put(attr, drawable.getConstantState());
+                mEstimatedBytes += estimateDrawableBytes(drawable);
+            }
+        } catch (Exception e) {
+            QMUILog.d(TAG, "failed to resolve resource for attr " + attr + ": " + e.getMessage());
+        }
+    }
+
+    private static long estimateDrawableBytes(Drawable drawable) {
+        if (drawable instanceof BitmapDrawable) {
+            Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+            if (bitmap != null) {
+                return bitmap.getAllocationByteCount();
+            }
+        }
+        return ESTIMATED_DRAWABLE_BYTES;
+    }
+
+    @NonNull
+    public Resources.Theme getTheme() {
+        return mTheme;
+    }
+
+    public int size() {
+        return mTypes.size();
+    }
+
+    /**
+     * the estimated memory held by the values, bitmaps are counted by their allocation size.
+     */
+    public long getEstimatedBytes() {
+        return mEstimatedBytes;
+    }
+
+    public boolean contains(int attr) {
+        return mTypes.indexOfKey(attr) >= 0;
+    }
+
+    /**
+     * @return false if the attr is resolved to nothing, then the handler should use the default value.
+     */
+    private boolean isResolved(int attr) {
+        return mTypes.get(attr, TypedValue.TYPE_NULL) != TypedValue.TYPE_NULL;
+    }
+
+    public int getColor(int attr) {
+        return isResolved(attr) ? mData.get(attr) : 0;
+    }
+
+    public float getFloat(int attr) {
+        return isResolved(attr) ? Float.intBitsToFloat(mFloatData.get(attr)) : 0;
+    }
+
+    /**
+     * @return true if {@link #getColorStateList(int)} can answer without touching resources
+     */
+    public boolean hasColorStateList(int attr) {
+        return !isResolved(attr) || isColorInt(attr) || mColorStateLists.indexOfKey(attr) >= 0;
+    }
+
+    @Nullable
+    public ColorStateList getColorStateList(int attr) {
+        if (!isResolved(attr)) {
+            return null;
+        }
+        if (isColorInt(attr)) {
+            return ColorStateList.valueOf(mData.get(attr));
+        }
+        return mColorStateLists.get(attr);
+    }
+
+    /**
+     * @return true if {@link #getDrawable(Resources, int)} can answer without touching resources
+     */
+    public boolean hasDrawable(int attr) {
+        return !isResolved(attr) || isColorInt(attr) || mDrawableStates.get(attr) != null;
+    }
+
+    @Nullable
+    public Drawable getDrawable(@NonNull Resources resources, int attr) {
+        if (!isResolved(attr)) {
+            return null;
+        }
+        if (isColorInt(attr)) {
+            return new ColorDrawable(mData.get(attr));
+        }
+        Drawable.ConstantState state = mDrawableStates.get(attr);
+        return state == null ? null : state.newDrawable(resources);
+    }
+
+    private boolean isColorInt(int attr) {
+        int type = mTypes.get(attr, TypedValue.TYPE_NULL);
+        return type >= TypedValue.TYPE_FIRST_COLOR_INT && type <= TypedValue.TYPE_LAST_COLOR_INT;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Tencent is pleased to support the open source community by making QMUI_Android available.
+ *
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qmuiteam.qmui.skin;
+
+import androidx.annotation.NonNull;
+import androidx.collection.SimpleArrayMap;
+
+/**
+ * The compiled form of a skin value such as "background:qmui_skin_support_color_background|textColor:xxx".
+ * It is created once per distinct skin value by {@link QMUISkinManager} and shared by every view
+ * that uses the same value, so dispatch only walks int arrays instead of parsing strings.
+ */
+public final class QMUISkinRuleTable {
+    final QMUISkinManager owner;
+    final String source;
+    final String[] names;
+    final int[] ruleIds;
+    final int[] attrs;
+
+    QMUISkinRuleTable(QMUISkinManager owner, String source,
+                      String[] names, int[] ruleIds, int[] attrs) {
+        this.owner = owner;
+        this.source = source;
+        this.names = names;
+        this.ruleIds = ruleIds;
+        this.attrs = attrs;
+    }
+
+    public int size() {
+        return attrs.length;
+    }
+
+    public boolean isEmpty() {
+        return attrs.length == 0;
+    }
+
+    @NonNull
+    public String nameAt(int index) {
+        return names[index];
+    }
+
+    public int attrAt(int index) {
+        return attrs[index];
+    }
+
+    boolean isCompiledFrom(QMUISkinManager manager, String value) {
+        return owner == manager && (source == value || source.equals(value));
+    }
+
+    void putInto(@NonNull SimpleArrayMap<String, Integer> map) {
+        for (int i = 0; i < attrs.length; i++) {
+            map.put(names[i], attrs[i]);
+        }
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < attrs.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(names[i]).append('=').append(attrs[i]);
+        }
+        return builder.append('}').toString();
+    }
+}
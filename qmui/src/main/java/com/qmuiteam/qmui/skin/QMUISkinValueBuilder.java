@@ -45,7 +45,7 @@ public class QMUISkinValueBuilder {
     public static final String MORE_BG_COLOR = "moreBgColor";
     private static LinkedList<QMUISkinValueBuilder> sValueBuilderPool;
 
-    public static QMUISkinValueBuilder acquire() {
+    public static synchronized QMUISkinValueBuilder acquire() {
         if (sValueBuilderPool == null) {
             return new QMUISkinValueBuilder();
         }
@@ -56,7 +56,7 @@ public class QMUISkinValueBuilder {
         return new QMUISkinValueBuilder();
     }
 
-    public static void release(@NonNull QMUISkinValueBuilder valueBuilder) {
+    public static synchronized void release(@NonNull QMUISkinValueBuilder valueBuilder) {
         valueBuilder.clear();
         if (sValueBuilderPool == null) {
             sValueBuilderPool = new LinkedList<>();
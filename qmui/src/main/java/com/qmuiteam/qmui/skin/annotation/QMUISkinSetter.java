@@ -0,0 +1,35 @@
+/*
+ * Tencent is pleased to support the open source community by making QMUI_Android available.
+ *
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qmuiteam.qmui.skin.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotate a public single-parameter setter of a View subclass, the skin rule named {@link #value()}
+ * will call the setter directly with the value resolved from skin theme, without going through
+ * the rule handlers. The parameter type decides how the attr is resolved: int for color,
+ * float, ColorStateList or Drawable.
+ * <p>
+ * It works with arch-compiler, which generates an IQMUISkinApplier for the view and a QMUISkinApplierRegistryImpl.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+public @interface QMUISkinSetter {
+    String value();
+}
@@ -20,7 +20,6 @@ import android.graphics.drawable.Drawable;
 import android.view.View;
 
 import com.qmuiteam.qmui.skin.QMUISkinManager;
-import com.qmuiteam.qmui.util.QMUIResHelper;
 import com.qmuiteam.qmui.util.QMUIViewHelper;
 import com.qmuiteam.qmui.widget.QMUIProgressBar;
 import com.qmuiteam.qmui.widget.QMUISlider;
@@ -34,14 +33,14 @@ public class QMUISkinRuleBackgroundHandler implements IQMUISkinRuleHandler {
     public void handle(@NotNull QMUISkinManager skinManager, @NotNull View view, @NotNull Resources.Theme theme, @NotNull String name, int attr) {
         if(view instanceof QMUIRoundButton){
             ((QMUIRoundButton)view).setBgData(
-                    QMUIResHelper.getAttrColorStateList(view.getContext(), theme, attr));
+                    skinManager.getSkinColorStateList(view.getContext(), theme, attr));
         }else if(view instanceof QMUIProgressBar){
-            view.setBackgroundColor(QMUIResHelper.getAttrColor(theme, attr));
+            view.setBackgroundColor(skinManager.getSkinColor(theme, attr));
         }else if(view instanceof QMUISlider){
-            ((QMUISlider)view).setBarNormalColor(QMUIResHelper.getAttrColor(theme, attr));
+            ((QMUISlider)view).setBarNormalColor(skinManager.getSkinColor(theme, attr));
         }else{
             QMUIViewHelper.setBackgroundKeepingPadding(view,
-                    QMUIResHelper.getAttrDrawable(view.getContext(), theme, attr));
+                    skinManager.getSkinDrawable(view.getContext(), theme, attr));
         }
     }
 }
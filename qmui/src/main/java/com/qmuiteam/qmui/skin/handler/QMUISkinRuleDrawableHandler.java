@@ -22,7 +22,6 @@ import android.view.View;
 import androidx.annotation.NonNull;
 
 import com.qmuiteam.qmui.skin.QMUISkinManager;
-import com.qmuiteam.qmui.util.QMUIResHelper;
 
 import org.jetbrains.annotations.NotNull;
 
@@ -32,7 +31,7 @@ public abstract class QMUISkinRuleDrawableHandler implements IQMUISkinRuleHandle
                              @NotNull @NonNull View view,
                              @NotNull @NonNull Resources.Theme theme,
                              @NotNull @NonNull String name, int attr) {
-        handle(view, name, QMUIResHelper.getAttrDrawable(view.getContext(), theme, attr));
+        handle(view, name, skinManager.getSkinDrawable(view.getContext(), theme, attr));
     }
 
     protected abstract void handle(@NonNull View view, @NonNull String name, Drawable drawable);
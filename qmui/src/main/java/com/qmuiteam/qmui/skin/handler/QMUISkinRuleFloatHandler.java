@@ -21,7 +21,6 @@ import android.view.View;
 import androidx.annotation.NonNull;
 
 import com.qmuiteam.qmui.skin.QMUISkinManager;
-import com.qmuiteam.qmui.util.QMUIResHelper;
 
 import org.jetbrains.annotations.NotNull;
 
@@ -29,7 +28,7 @@ public abstract class QMUISkinRuleFloatHandler implements IQMUISkinRuleHandler {
     @Override
     public final void handle(@NotNull QMUISkinManager skinManager, @NotNull View view, @NotNull Resources.Theme theme,
                              @NotNull String name, int attr) {
-        handle(view, name, QMUIResHelper.getAttrFloatValue(theme, attr));
+        handle(view, name, skinManager.getSkinFloat(theme, attr));
     }
 
     protected abstract void handle(@NonNull View view,
@@ -36,20 +36,31 @@ import com.qmuiteam.qmui.R;
  * @date 2016-09-22
  */
 public class QMUIResHelper {
-    private static TypedValue sTmpValue;
+    // every thread has its own scratch, so attrs can be resolved on worker threads, e.g. theme prewarming
+    private static final ThreadLocal<TypedValue> sTmpValue = new ThreadLocal<>();
+
+    private static TypedValue getTmpValue() {
+        TypedValue value = sTmpValue.get();
+        if (value == null) {
+            value = new TypedValue();
+            sTmpValue.set(value);
+        }
+        return value;
+    }
 
     public static float getAttrFloatValue(Context context, int attr) {
         return getAttrFloatValue(context.getTheme(), attr);
     }
 
     public static float getAttrFloatValue(Resources.Theme theme, int attr) {
-        if (sTmpValue == null) {
-            sTmpValue = new TypedValue();
-        }
-        if (!theme.resolveAttribute(attr, sTmpValue, true)) {
+        return getAttrFloatValue(theme, attr, getTmpValue());
+    }
+
+    public static float getAttrFloatValue(Resources.Theme theme, int attr, TypedValue tmpValue) {
+        if (!theme.resolveAttribute(attr, tmpValue, true)) {
             return 0;
         }
-        return sTmpValue.getFloat();
+        return tmpValue.getFloat();
     }
 
     public static int getAttrColor(Context context, int attrRes) {
@@ -57,16 +68,17 @@ public class QMUIResHelper {
     }
 
     public static int getAttrColor(Resources.Theme theme, int attr) {
-        if (sTmpValue == null) {
-            sTmpValue = new TypedValue();
-        }
-        if (!theme.resolveAttribute(attr, sTmpValue, true)) {
+        return getAttrColor(theme, attr, getTmpValue());
+    }
+
+    public static int getAttrColor(Resources.Theme theme, int attr, TypedValue tmpValue) {
+        if (!theme.resolveAttribute(attr, tmpValue, true)) {
             return 0;
         }
-        if (sTmpValue.type == TypedValue.TYPE_ATTRIBUTE) {
-            return getAttrColor(theme, sTmpValue.data);
+        if (tmpValue.type == TypedValue.TYPE_ATTRIBUTE) {
+            return getAttrColor(theme, tmpValue.data, tmpValue);
         }
-        return sTmpValue.data;
+        return tmpValue.data;
     }
 
     @Nullable
@@ -76,26 +88,28 @@ public class QMUIResHelper {
 
     @Nullable
     public static ColorStateList getAttrColorStateList(Context context, Resources.Theme theme, int attr) {
+        return getAttrColorStateList(context, theme, attr, getTmpValue());
+    }
+
+    @Nullable
+    public static ColorStateList getAttrColorStateList(Context context, Resources.Theme theme, int attr, TypedValue tmpValue) {
         if (attr == 0) {
             return null;
         }
-        if (sTmpValue == null) {
-            sTmpValue = new TypedValue();
-        }
-        if (!theme.resolveAttribute(attr, sTmpValue, true)) {
+        if (!theme.resolveAttribute(attr, tmpValue, true)) {
             return null;
         }
-        if (sTmpValue.type >= TypedValue.TYPE_FIRST_COLOR_INT
-                && sTmpValue.type <= TypedValue.TYPE_LAST_COLOR_INT) {
-            return ColorStateList.valueOf(sTmpValue.data);
+        if (tmpValue.type >= TypedValue.TYPE_FIRST_COLOR_INT
+                && tmpValue.type <= TypedValue.TYPE_LAST_COLOR_INT) {
+            return ColorStateList.valueOf(tmpValue.data);
         }
-        if (sTmpValue.type == TypedValue.TYPE_ATTRIBUTE) {
-            return getAttrColorStateList(context, theme, sTmpValue.data);
+        if (tmpValue.type == TypedValue.TYPE_ATTRIBUTE) {
+            return getAttrColorStateList(context, theme, tmpValue.data, tmpValue);
         }
-        if (sTmpValue.resourceId == 0) {
+        if (tmpValue.resourceId == 0) {
             return null;
         }
-        return ContextCompat.getColorStateList(context, sTmpValue.resourceId);
+        return ContextCompat.getColorStateList(context, tmpValue.resourceId);
     }
 
     @Nullable
@@ -105,25 +119,27 @@ public class QMUIResHelper {
 
     @Nullable
     public static Drawable getAttrDrawable(Context context, Resources.Theme theme, int attr) {
+        return getAttrDrawable(context, theme, attr, getTmpValue());
+    }
+
+    @Nullable
+    public static Drawable getAttrDrawable(Context context, Resources.Theme theme, int attr, TypedValue tmpValue) {
         if (attr == 0) {
             return null;
         }
-        if (sTmpValue == null) {
-            sTmpValue = new TypedValue();
-        }
-        if (!theme.resolveAttribute(attr, sTmpValue, true)) {
+        if (!theme.resolveAttribute(attr, tmpValue, true)) {
             return null;
         }
-        if (sTmpValue.type >= TypedValue.TYPE_FIRST_COLOR_INT
-                && sTmpValue.type <= TypedValue.TYPE_LAST_COLOR_INT) {
-            return new ColorDrawable(sTmpValue.data);
+        if (tmpValue.type >= TypedValue.TYPE_FIRST_COLOR_INT
+                && tmpValue.type <= TypedValue.TYPE_LAST_COLOR_INT) {
+            return new ColorDrawable(tmpValue.data);
         }
-        if (sTmpValue.type == TypedValue.TYPE_ATTRIBUTE) {
-            return getAttrDrawable(context, theme, sTmpValue.data);
+        if (tmpValue.type == TypedValue.TYPE_ATTRIBUTE) {
+            return getAttrDrawable(context, theme, tmpValue.data, tmpValue);
         }
 
-        if (sTmpValue.resourceId != 0) {
-            return QMUIDrawableHelper.getVectorDrawable(context, sTmpValue.resourceId);
+        if (tmpValue.resourceId != 0) {
+            return QMUIDrawableHelper.getVectorDrawable(context, tmpValue.resourceId);
         }
         return null;
     }
@@ -140,33 +156,27 @@ public class QMUIResHelper {
     }
 
     public static int getAttrDimen(Context context, int attrRes) {
-        if (sTmpValue == null) {
-            sTmpValue = new TypedValue();
-        }
-        if (!context.getTheme().resolveAttribute(attrRes, sTmpValue, true)) {
+        TypedValue tmpValue = getTmpValue();
+        if (!context.getTheme().resolveAttribute(attrRes, tmpValue, true)) {
             return 0;
         }
-        return TypedValue.complexToDimensionPixelSize(sTmpValue.data, QMUIDisplayHelper.getDisplayMetrics(context));
+        return TypedValue.complexToDimensionPixelSize(tmpValue.data, QMUIDisplayHelper.getDisplayMetrics(context));
     }
 
     @Nullable
     public static String getAttrString(Context context, int attrRes) {
-        if (sTmpValue == null) {
-            sTmpValue = new TypedValue();
-        }
-        if (!context.getTheme().resolveAttribute(attrRes, sTmpValue, true)) {
+        TypedValue tmpValue = getTmpValue();
+        if (!context.getTheme().resolveAttribute(attrRes, tmpValue, true)) {
             return null;
         }
-        CharSequence str = sTmpValue.string;
+        CharSequence str = tmpValue.string;
         return str == null ? null : str.toString();
     }
 
     public static int getAttrInt(Context context, int attrRes) {
-        if (sTmpValue == null) {
-            sTmpValue = new TypedValue();
-        }
-        context.getTheme().resolveAttribute(attrRes, sTmpValue, true);
-        return sTmpValue.data;
+        TypedValue tmpValue = getTmpValue();
+        context.getTheme().resolveAttribute(attrRes, tmpValue, true);
+        return tmpValue.data;
     }
 
 
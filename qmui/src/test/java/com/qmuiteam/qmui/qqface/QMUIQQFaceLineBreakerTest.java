@@ -0,0 +1,110 @@
+package com.qmuiteam.qmui.qqface;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test of the prefix-sum line breaking in {@link QMUIQQFaceLineBreaker}, driven by fake char widths.
+ */
+public class QMUIQQFaceLineBreakerTest {
+    private static final int WIDTH_START = 12;
+    private static final int WIDTH_END = 1012;
+
+    @Test
+    public void sameResultAsGreedyBreaking() {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            float[] widths = randomWidths(random, 1 + random.nextInt(2000));
+            int widthEnd = WIDTH_START + 40 + random.nextInt(600);
+            QMUIQQFaceLineBreaker breaker = breakText(widths, widthEnd);
+
+            int lines = 1;
+            int lineWidth = WIDTH_START;
+            for (float width : widths) {
+                if (lineWidth + width > widthEnd) {
+                    lines++;
+                    lineWidth = WIDTH_START;
+                }
+                lineWidth += (int) Math.ceil(width);
+            }
+            assertEquals(lines, breaker.getLines());
+            assertEquals(lineWidth, breaker.getLastLineWidth());
+            assertFalse(breaker.isCanNotLayout());
+        }
+    }
+
+    @Test
+    public void exactFitStaysInLine() {
+        float[] widths = new float[100];
+        Arrays.fill(widths, 10);
+        QMUIQQFaceLineBreaker breaker = breakText(widths, WIDTH_START + 500);
+        assertEquals(2, breaker.getLines());
+        assertEquals(WIDTH_START + 500, breaker.getLastLineWidth());
+    }
+
+    @Test
+    public void canNotLayoutWhenCharIsWiderThanLine() {
+        float[] widths = {10, 10, 80, 10};
+        QMUIQQFaceLineBreaker breaker = breakText(widths, WIDTH_START + 50);
+        assertTrue(breaker.isCanNotLayout());
+        // only the chars before the wide one are laid out
+        assertEquals(1, breaker.getLines());
+        assertEquals(WIDTH_START + 20, breaker.getLastLineWidth());
+    }
+
+    @Test
+    public void searchStepsGrowLinearlyWithTextLength() {
+        Random random = new Random(7);
+        for (int length : new int[]{1_000, 10_000, 100_000}) {
+            float[] widths = randomWidths(random, length);
+            QMUIQQFaceLineBreaker breaker = breakText(widths, WIDTH_END);
+            int steps = breaker.getSearchSteps();
+            // one binary search per line, each over no more than the whole text
+            int stepsPerSearch = 32 - Integer.numberOfLeadingZeros(length);
+            assertTrue(length + " chars: " + steps + " steps in " + breaker.getLines() + " lines",
+                    steps <= breaker.getLines() * stepsPerSearch);
+            // a line holds about 50 chars, so this is less than one step per char, as a scan would take
+            assertTrue(length + " chars: " + steps + " steps", steps < length);
+        }
+    }
+
+    private static QMUIQQFaceLineBreaker breakText(float[] widths, int widthEnd) {
+        QMUIQQFaceLineBreaker breaker = new QMUIQQFaceLineBreaker();
+        breaker.setup(null, 0, 0, Integer.MAX_VALUE, null);
+        breaker.breakLines(Collections.<QMUIQQFaceCompiler.Element>emptyList(), WIDTH_START, widthEnd);
+        breaker.measureText(widths, prefixSums(widths), maxWidth(widths), WIDTH_START, widthEnd);
+        return breaker;
+    }
+
+    private static float[] randomWidths(Random random, int length) {
+        float[] widths = new float[length];
+        for (int i = 0; i < length; i++) {
+            // latin and cjk like widths, some of them are fractional
+            widths[i] = random.nextBoolean() ? 8 + random.nextInt(8) * 0.5f : 28;
+        }
+        return widths;
+    }
+
+    private static int[] prefixSums(float[] widths) {
+        int[] prefixSums = new int[widths.length + 1];
+        for (int i = 0; i < widths.length; i++) {
+            prefixSums[i + 1] = prefixSums[i] + (int) Math.ceil(widths[i]);
+        }
+        return prefixSums;
+    }
+
+    private static float maxWidth(float[] widths) {
+        float max = 0;
+        for (float width : widths) {
+            max = Math.max(max, width);
+        }
+        return max;
+    }
+}
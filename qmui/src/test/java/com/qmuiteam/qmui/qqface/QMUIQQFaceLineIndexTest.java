@@ -0,0 +1,109 @@
+package com.qmuiteam.qmui.qqface;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test of the line lookup {@link QMUIQQFaceView} uses to hit-test spans,
+ * with lines laid out like toNewDrawLine does, paragraph space included.
+ */
+public class QMUIQQFaceLineIndexTest {
+    private static final int PADDING_TOP = 10;
+    private static final int FONT_HEIGHT = 40;
+    private static final int FIRST_BASE_LINE = 32;
+    private static final int LINE_SPACE = 8;
+    private static final int PARAGRAPH_SPACE = 60;
+    // every paragraph has 2 lines
+    private static final int LINE_COUNT = 12;
+
+    @Test
+    public void findLineAfterParagraphBreaks() {
+        QMUIQQFaceLineIndex index = recordLines();
+        for (int line = 1; line <= LINE_COUNT; line++) {
+            int top = lineTop(line);
+            assertEquals(line, index.findLine(top, FIRST_BASE_LINE));
+            assertEquals(line, index.findLine(top + FONT_HEIGHT - 1, FIRST_BASE_LINE));
+        }
+        // above the first line and below the last line
+        assertEquals(1, index.findLine(0, FIRST_BASE_LINE));
+        assertEquals(LINE_COUNT, index.findLine(lineTop(LINE_COUNT) + 1000, FIRST_BASE_LINE));
+
+        // an estimate with a fixed line height runs past the real line after a few paragraphs
+        int y = lineTop(LINE_COUNT - 1) + 1;
+        int estimate = (y - PADDING_TOP) / (FONT_HEIGHT + LINE_SPACE) + 1;
+        assertTrue(estimate > LINE_COUNT);
+    }
+
+    @Test
+    public void findSpansAfterParagraphBreaks() {
+        QMUIQQFaceLineIndex index = recordLines();
+        List<Range> spans = new ArrayList<>();
+        // one span on each line, plus spans across paragraph breaks
+        for (int line = 1; line <= LINE_COUNT; line++) {
+            spans.add(new Range(line, line));
+            if (line % 2 == 0 && line < LINE_COUNT) {
+                spans.add(new Range(line, line + 1));
+            }
+        }
+        for (int line = 1; line <= LINE_COUNT; line++) {
+            int touchedLine = index.findLine(lineTop(line) + FONT_HEIGHT / 2, FIRST_BASE_LINE);
+            int first = QMUIQQFaceLineIndex.findFirstRange(spans, touchedLine);
+            Range span = spans.get(first);
+            assertTrue(span.getStartLine() <= line && span.getEndLine() >= line);
+            // no span before the first one covers the line
+            for (int i = 0; i < first; i++) {
+                assertTrue(spans.get(i).getEndLine() < line);
+            }
+        }
+        assertEquals(spans.size(), QMUIQQFaceLineIndex.findFirstRange(spans, LINE_COUNT + 1));
+        assertEquals(0, QMUIQQFaceLineIndex.findFirstRange(new ArrayList<Range>(), 1));
+    }
+
+    private static QMUIQQFaceLineIndex recordLines() {
+        QMUIQQFaceLineIndex index = new QMUIQQFaceLineIndex();
+        Object elementList = new Object();
+        index.startRecord(elementList, 500, LINE_COUNT, 100, 0);
+        for (int line = 1; line <= LINE_COUNT; line++) {
+            index.record(line, line, QMUIQQFaceLineIndex.NO_CHILD, 0, lineTop(line) + FIRST_BASE_LINE, 0);
+        }
+        index.finishRecord();
+        assertTrue(index.isValid(elementList, 500, LINE_COUNT, 100, 0));
+        return index;
+    }
+
+    /**
+     * the same as the draw: every new line adds the line space, and a new paragraph adds the paragraph space too
+     */
+    private static int lineTop(int line) {
+        int top = PADDING_TOP;
+        for (int i = 2; i <= line; i++) {
+            top += FONT_HEIGHT + LINE_SPACE + (i % 2 == 1 ? PARAGRAPH_SPACE : 0);
+        }
+        return top;
+    }
+
+    private static class Range implements QMUIQQFaceLineIndex.LineRange {
+        private final int mStartLine;
+        private final int mEndLine;
+
+        Range(int startLine, int endLine) {
+            mStartLine = startLine;
+            mEndLine = endLine;
+        }
+
+        @Override
+        public int getStartLine() {
+            return mStartLine;
+        }
+
+        @Override
+        public int getEndLine() {
+            return mEndLine;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.qmuiteam.qmui.skin;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test of {@link QMUISkinDispatchStats}, it only uses the plain java record methods.
+ */
+public class QMUISkinDispatchStatsTest {
+
+    @Test
+    public void dispatchCounters() {
+        QMUISkinDispatchStats stats = new QMUISkinDispatchStats();
+        assertEquals(0, stats.getAverageDispatchNanos());
+
+        stats.recordDispatch(3_000_000, 100, 80, 20);
+        stats.recordDispatch(5_000_000, 50, 10, 40);
+
+        assertEquals(2, stats.getDispatchCount());
+        assertEquals(8_000_000, stats.getTotalDispatchNanos());
+        assertEquals(5_000_000, stats.getMaxDispatchNanos());
+        assertEquals(5_000_000, stats.getLastDispatchNanos());
+        assertEquals(4_000_000, stats.getAverageDispatchNanos());
+        assertEquals(150, stats.getVisitedCount());
+        assertEquals(90, stats.getAppliedCount());
+        assertEquals(60, stats.getSkippedCount());
+    }
+
+    @Test
+    public void ruleAndSpanCounters() {
+        QMUISkinDispatchStats stats = new QMUISkinDispatchStats();
+        stats.recordRule("textColor", 100);
+        stats.recordRule("textColor", 300);
+        stats.recordRule("background", 50);
+        stats.recordSpan(20);
+        stats.recordSpan(30);
+
+        assertEquals(2, stats.getRuleNames().size());
+        assertEquals(2, stats.getRuleCount("textColor"));
+        assertEquals(400, stats.getRuleNanos("textColor"));
+        assertEquals(300, stats.getRuleMaxNanos("textColor"));
+        assertEquals(1, stats.getRuleCount("background"));
+        assertEquals(0, stats.getRuleCount("src"));
+        assertEquals(2, stats.getSpanCount());
+        assertEquals(50, stats.getSpanNanos());
+    }
+
+    @Test
+    public void keepSlowestRecords() {
+        QMUISkinDispatchStats stats = new QMUISkinDispatchStats(3);
+        long[] costs = {40, 10, 70, 20, 90, 30, 60};
+        for (int i = 0; i < costs.length; i++) {
+            stats.recordView("view" + i, costs[i]);
+        }
+
+        assertEquals(costs.length, stats.getViewCount());
+        List<QMUISkinDispatchStats.Record> slowest = stats.getSlowestViews();
+        assertEquals(3, slowest.size());
+        assertEquals("view4", slowest.get(0).name);
+        assertEquals(90, slowest.get(0).costNanos);
+        assertEquals(70, slowest.get(1).costNanos);
+        assertEquals(60, slowest.get(2).costNanos);
+    }
+
+    @Test
+    public void keepNothingWithZeroSlowestCount() {
+        QMUISkinDispatchStats stats = new QMUISkinDispatchStats(0);
+        stats.recordView("view", 100);
+        stats.recordRule("textColor", 100);
+
+        assertEquals(1, stats.getViewCount());
+        assertEquals(1, stats.getRuleCount("textColor"));
+        assertTrue(stats.getSlowestViews().isEmpty());
+        assertTrue(stats.getSlowestRules().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectNegativeSlowestCount() {
+        new QMUISkinDispatchStats(-1);
+    }
+
+    @Test
+    public void reset() {
+        QMUISkinDispatchStats stats = new QMUISkinDispatchStats();
+        stats.recordDispatch(1_000_000, 10, 10, 0);
+        stats.recordView("view", 100);
+        stats.recordRule("textColor", 100);
+        stats.recordSpan(100);
+        stats.reset();
+
+        assertEquals(0, stats.getDispatchCount());
+        assertEquals(0, stats.getMaxDispatchNanos());
+        assertEquals(0, stats.getVisitedCount());
+        assertEquals(0, stats.getViewCount());
+        assertEquals(0, stats.getSpanCount());
+        assertTrue(stats.getRuleNames().isEmpty());
+        assertTrue(stats.getSlowestViews().isEmpty());
+        assertTrue(stats.getSlowestRules().isEmpty());
+    }
+
+    @Test
+    public void assertBudget() {
+        // the way a budget is asserted with the recorded dispatches
+        long frameBudgetNanos = 16_000_000;
+        QMUISkinDispatchStats stats = new QMUISkinDispatchStats();
+        for (int i = 0; i < 10; i++) {
+            stats.recordDispatch(1_000_000L * (i + 1), 100, 100, 0);
+        }
+        assertTrue(stats.getMaxDispatchNanos() <= frameBudgetNanos);
+        assertEquals(5_500_000, stats.getAverageDispatchNanos());
+
+        stats.recordDispatch(20_000_000, 100, 100, 0);
+        assertTrue(stats.getMaxDispatchNanos() > frameBudgetNanos);
+    }
+}
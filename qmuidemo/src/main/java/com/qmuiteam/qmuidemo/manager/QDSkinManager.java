@@ -46,7 +46,7 @@ public class QDSkinManager {
     }
 
     public static void changeSkin(int index) {
-        QMUISkinManager.defaultInstance(QDApplication.getContext()).changeSkin(index);
+        QMUISkinManager.defaultInstance(QDApplication.getContext()).changeSkinAsync(index);
         QDPreferenceManager.getInstance(QDApplication.getContext()).setSkinIndex(index);
     }
 
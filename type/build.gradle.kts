@@ -37,4 +37,8 @@ android {
 dependencies {
     api(Dep.AndroidX.annotation)
     api(Dep.AndroidX.coreKtx)
+    api(Dep.Coroutines.android)
+
+    testImplementation(Dep.Test.junit)
+    testImplementation(Dep.Test.robolectric)
 }
\ No newline at end of file
@@ -16,26 +16,15 @@
 package com.qmuiteam.qmui.type
 
 import android.graphics.Canvas
-import androidx.core.util.Pools
-import com.qmuiteam.qmui.type.TypeEnvironment
 import com.qmuiteam.qmui.type.element.BreakWordLineElement
 import com.qmuiteam.qmui.type.element.Element
 import com.qmuiteam.qmui.type.element.NextParagraphElement
 import com.qmuiteam.qmui.type.element.TextElement
-import java.util.*
 
-class Line private constructor() {
-    companion object {
-        private val sLinePool: Pools.Pool<Line> = Pools.SimplePool(16)
-
-        fun acquire(): Line {
-            var line = sLinePool.acquire()
-            if (line == null) {
-                line = Line()
-            }
-            return line
-        }
-    }
+/**
+ * A range of the element buffer owned by [LineLayout], lines are created and recycled by it.
+ */
+class Line internal constructor() {
 
     var x = 0
     var y = 0
@@ -47,105 +36,166 @@ class Line private constructor() {
         private set
     var layoutWidth = 0
         private set
-    private val mElements = LinkedList<Element>()
-    private var mVisibleChanged: HashMap<Element, Int>? = null
+    private lateinit var mBuffer: LineElementBuffer
+    private var mStart = 0
+    private var mEnd = 0
+
+    // only the last space of a line is hidden, so one slot is enough.
+    private var mVisibleChangedElement: Element? = null
+    private var mVisibleChangedOldValue = Element.VISIBLE
 
 
     val size: Int
-        get() = mElements.size
+        get() = mEnd - mStart
 
     fun get(i: Int): Element? {
-        return mElements.getOrNull(i)
+        return if (i >= 0 && i < size) mBuffer[mStart + i] else null
     }
 
-    fun init(x: Int, y: Int, widthLimit: Int) {
+    internal fun init(buffer: LineElementBuffer, x: Int, y: Int, widthLimit: Int) {
+        mBuffer = buffer
+        mStart = buffer.size
+        mEnd = mStart
         this.x = x
         this.y = y
         this.widthLimit = widthLimit
     }
 
     fun add(element: Element) {
-        mElements.add(element)
+        moveToBufferEnd()
+        mBuffer.add(element)
+        mEnd++
         contentWidth += element.measureWidth
         contentHeight = contentHeight.coerceAtLeast(element.measureHeight)
     }
 
-    fun addFirst(element: Element) {
-        mElements.add(0, element)
-        contentWidth += element.measureWidth
-        contentHeight = contentHeight.coerceAtLeast(element.measureHeight)
+    /**
+     * Take the elements removed from the previous line by [handleWordBreak],
+     * they are the last [count] elements of the buffer.
+     */
+    internal fun addBackElements(count: Int) {
+        mEnd = mBuffer.size
+        mStart = mEnd - count
+        for (i in mStart until mEnd) {
+            val element = mBuffer[i]
+            contentWidth += element.measureWidth
+            contentHeight = contentHeight.coerceAtLeast(element.measureHeight)
+        }
+    }
+
+    private fun moveToBufferEnd() {
+        if (mEnd != mBuffer.size) {
+            val count = size
+            mBuffer.copyToEnd(mStart, mEnd)
+            mEnd = mBuffer.size
+            mStart = mEnd - count
+        }
     }
 
     fun first(): Element? {
-        return if (mElements.isEmpty()) null else mElements[0]
+        return get(0)
+    }
+
+    fun last(): Element? {
+        return get(size - 1)
+    }
+
+    /**
+     * @return the element at [x] by binary search, or null if [x] is out of the elements of the line.
+     */
+    fun findElement(x: Int): Element? {
+        if (size == 0) {
+            return null
+        }
+        val last = mBuffer[mEnd - 1]
+        if (x < mBuffer[mStart].x || x >= last.x + last.measureWidth) {
+            return null
+        }
+        var low = mStart
+        var high = mEnd - 1
+        while (low < high) {
+            val mid = (low + high + 1) ushr 1
+            if (mBuffer[mid].x <= x) {
+                low = mid
+            } else {
+                high = mid - 1
+            }
+        }
+        return mBuffer[low]
     }
 
     fun move(environment: TypeEnvironment?) {
-        for (el in mElements) {
-            el.move(environment!!)
+        for (i in mStart until mEnd) {
+            mBuffer[i].move(environment!!)
         }
     }
 
-    fun handleWordBreak(environment: TypeEnvironment?, shouldHandleWordBreak: Boolean): List<Element>? {
-        if (mElements.size == 0 || !shouldHandleWordBreak) {
-            return null
+    /**
+     * @return the count of elements removed from the end of the line. In the buffer they are kept right
+     * behind the line, so the next line can take them by [addBackElements].
+     */
+    fun handleWordBreak(environment: TypeEnvironment?, shouldHandleWordBreak: Boolean): Int {
+        if (size == 0 || !shouldHandleWordBreak) {
+            return 0
         }
-        var lastIndex = mElements.size - 1
-        val last = mElements[lastIndex]
+        val oldEnd = mEnd
+        val last = mBuffer[mEnd - 1]
         val next = last.next
-        val back: MutableList<Element> = LinkedList()
+        var breakWordElement: Element? = null
         if (last.wordPart == Element.WORD_PART_WHOLE) {
             if (last.lineBreakType == Element.LINE_BREAK_TYPE_NOT_END ||
                     next != null && next.lineBreakType == Element.LINE_BREAK_TYPE_NOT_START) {
-                mElements.removeAt(lastIndex)
-                back.add(last)
+                mEnd--
             }
         } else if (last.wordPart == Element.WORD_PART_END && next != null && next.lineBreakType != Element.LINE_BREAK_TYPE_NOT_START) {
             // do nothing
         } else if (last.wordPart == Element.WORD_PART_START) {
-            mElements.removeAt(lastIndex)
-            back.add(last)
+            mEnd--
         } else {
-            back.add(last)
-            mElements.removeAt(lastIndex)
-            lastIndex--
-            val min = Math.max(0, lastIndex - 30) // try 30 letter.
+            mEnd--
+            val min = mStart.coerceAtLeast(mEnd - 1 - 30) // try 30 letter.
             var find = false
-            while (lastIndex > min) {
-                val el = mElements[lastIndex]
+            while (mEnd - 1 > min) {
+                val el = mBuffer[mEnd - 1]
                 if (el.wordPart == Element.WORD_PART_WHOLE || el.wordPart == Element.WORD_PART_END) {
                     find = true
                     break
                 } else if (el.lineBreakType == Element.LINE_BREAK_WORD_BREAK_ALLOWED) {
                     // TODO what if environment had changed after break? the measure may be wrong
-                    val b = BreakWordLineElement()
-                    b.measure(environment!!)
-                    add(b)
+                    breakWordElement = BreakWordLineElement()
+                    breakWordElement.measure(environment!!)
                     find = true
                     break
                 } else {
-                    back.add(0, el)
-                    mElements.removeAt(lastIndex)
-                    lastIndex--
+                    mEnd--
                 }
             }
             if (!find) {
                 // give up
-                mElements.addAll(back)
-                return null
+                mEnd = oldEnd
+                return 0
             }
         }
-        if (back.isEmpty()) {
-            return null
+        val backCount = oldEnd - mEnd
+        for (i in mEnd until oldEnd) {
+            contentWidth -= mBuffer[i].measureWidth
         }
-        for (el in back) {
-            contentWidth = (contentWidth -el.measureWidth).toInt()
+        if (breakWordElement != null) {
+            if (oldEnd == mBuffer.size) {
+                // keep the back elements behind the line
+                mBuffer.insert(mEnd, breakWordElement)
+                mEnd++
+                contentWidth += breakWordElement.measureWidth
+                contentHeight = contentHeight.coerceAtLeast(breakWordElement.measureHeight)
+            } else {
+                add(breakWordElement)
+            }
         }
-        return back
+        return backCount
     }
 
     private fun hideLastIfSpaceIfNeeded(dropLastIfSpace: Boolean): Boolean {
-        val last = mElements[mElements.size - 1]
+        val last = mBuffer[mEnd - 1]
         if (dropLastIfSpace && last is TextElement && last.length == 1 && last.text[0] == ' ' && last.visible != Element.GONE) {
             changeVisibleInner(last, Element.GONE)
             contentWidth = (contentWidth - last.measureWidth).toInt()
@@ -159,17 +209,18 @@ class Line private constructor() {
         if (visible == oldVal) {
             return
         }
-        if (mVisibleChanged == null) {
-            mVisibleChanged = HashMap()
+        if (mVisibleChangedElement !== element) {
+            restoreVisibleChange()
+            mVisibleChangedElement = element
+            mVisibleChangedOldValue = oldVal
         }
-        mVisibleChanged!![element] = oldVal
         element.visible = visible
     }
 
     private fun calculateGapCount(): Int {
         var ret = 0
-        for (i in 1 until mElements.size) {
-            val el = mElements[i]
+        for (i in mStart + 1 until mEnd) {
+            val el = mBuffer[i]
             if (el.visible != Element.GONE &&
                     (el.wordPart == Element.WORD_PART_WHOLE ||
                             el.wordPart == Element.WORD_PART_START)) {
@@ -180,10 +231,10 @@ class Line private constructor() {
     }
 
     val isMiddleParagraphEndLine: Boolean
-        get() = !mElements.isEmpty() && mElements[mElements.size - 1] is NextParagraphElement
+        get() = size > 0 && mBuffer[mEnd - 1] is NextParagraphElement
 
     fun layout(env: TypeEnvironment, dropLastIfSpace: Boolean, isEnd: Boolean) {
-        if (mElements.isEmpty()) {
+        if (size == 0) {
             return
         }
         hideLastIfSpaceIfNeeded(dropLastIfSpace)
@@ -206,12 +257,12 @@ class Line private constructor() {
             }
         }
         var x = start
-        for (i in mElements.indices) {
-            val el = mElements[i]
-            if (i > 0 && (el.wordPart == Element.WORD_PART_WHOLE
+        for (i in mStart until mEnd) {
+            val el = mBuffer[i]
+            if (i > mStart && (el.wordPart == Element.WORD_PART_WHOLE
                             || el.wordPart == Element.WORD_PART_START)) {
                 x += addSpace
-                mElements[i - 1].nextGapWidth = addSpace
+                mBuffer[i - 1].nextGapWidth = addSpace
             }
             el.x = x
             x += el.measureWidth
@@ -220,50 +271,43 @@ class Line private constructor() {
     }
 
     fun draw(env: TypeEnvironment, canvas: Canvas) {
-        for (element in mElements) {
-            element.draw(env, canvas)
+        for (i in mStart until mEnd) {
+            mBuffer[i].draw(env, canvas)
         }
     }
 
     fun restoreVisibleChange() {
-        if (mVisibleChanged != null) {
-            for (entry in mVisibleChanged!!.keys) {
-                val visible = mVisibleChanged!![entry]
-                if (visible != null) {
-                    entry.visible = visible
-                }
-            }
-            mVisibleChanged!!.clear()
-        }
+        val element = mVisibleChangedElement ?: return
+        element.visible = mVisibleChangedOldValue
+        mVisibleChangedElement = null
     }
 
     fun popAll(): List<Element> {
-        val elements: List<Element> = ArrayList(mElements)
-        mElements.clear()
-        restoreVisibleChange()
-        contentWidth = 0
-        contentHeight = 0
-        layoutWidth = 0
+        val elements = ArrayList<Element>(size)
+        for (i in mStart until mEnd) {
+            elements.add(mBuffer[i])
+        }
+        clear()
         return elements
     }
 
     fun clear() {
-        mElements.clear()
+        mEnd = mStart
         restoreVisibleChange()
         contentWidth = 0
         contentHeight = 0
         layoutWidth = 0
     }
 
-    fun release() {
+    internal fun release() {
         x = 0
         y = 0
         widthLimit = 0
         contentWidth = 0
         contentHeight = 0
         layoutWidth = 0
-        mElements.clear()
+        mStart = 0
+        mEnd = 0
         restoreVisibleChange()
-        sLinePool.release(this)
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,64 @@
+/*
+ * Tencent is pleased to support the open source community by making QMUI_Android available.
+ *
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qmuiteam.qmui.type
+
+import com.qmuiteam.qmui.type.element.Element
+
+/**
+ * The elements of all lines laid out by a [LineLayout], each [Line] is a range of it.
+ * Elements are only appended or inserted right before the tail, so a line not at the end
+ * is copied to the end before it grows, and the old range is left unused until [clear].
+ */
+internal class LineElementBuffer {
+    private var mElements = arrayOfNulls<Element>(64)
+
+    var size = 0
+        private set
+
+    operator fun get(i: Int): Element {
+        return mElements[i]!!
+    }
+
+    fun add(element: Element) {
+        ensureCapacity(size + 1)
+        mElements[size++] = element
+    }
+
+    fun insert(index: Int, element: Element) {
+        ensureCapacity(size + 1)
+        System.arraycopy(mElements, index, mElements, index + 1, size - index)
+        mElements[index] = element
+        size++
+    }
+
+    fun copyToEnd(start: Int, end: Int) {
+        val count = end - start
+        ensureCapacity(size + count)
+        System.arraycopy(mElements, start, mElements, size, count)
+        size += count
+    }
+
+    fun clear() {
+        mElements.fill(null, 0, size)
+        size = 0
+    }
+
+    private fun ensureCapacity(capacity: Int) {
+        if (capacity > mElements.size) {
+            mElements = mElements.copyOf(capacity.coerceAtLeast(mElements.size * 2))
+        }
+    }
+}
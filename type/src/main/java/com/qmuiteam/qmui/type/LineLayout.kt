@@ -37,8 +37,12 @@ class LineLayout {
     var shouldHandleWordBreak: Boolean = true
 
     private var exactlyHeightMaxLine = Int.MAX_VALUE
+    private var mLayoutKey: LayoutKey? = null
 
-    private val mLines: MutableList<Line> = ArrayList()
+    private val mLines = ArrayList<Line>()
+    private var mElements = LineElementBuffer()
+    // lines released by the last layout, so the pool grows to the line count of the previous layout
+    private val mRecycledLines = ArrayList<Line>()
 
     var totalLineCount = 0
         private set
@@ -52,17 +56,47 @@ class LineLayout {
         return mLines.getOrNull(i)
     }
 
+    /**
+     * @return the index of the line at [y] by binary search, the space below a line belongs to it.
+     * -1 if [y] is above the first line or below the last one.
+     */
+    fun findLineIndex(y: Int): Int {
+        if (mLines.isEmpty() || y < mLines[0].y) {
+            return -1
+        }
+        val last = mLines[mLines.size - 1]
+        if (y > last.y + last.contentHeight) {
+            return -1
+        }
+        var low = 0
+        var high = mLines.size - 1
+        while (low < high) {
+            val mid = (low + high + 1) ushr 1
+            if (mLines[mid].y <= y) {
+                low = mid
+            } else {
+                high = mid - 1
+            }
+        }
+        return low
+    }
+
     fun measureAndLayout(env: TypeEnvironment, exactlyHeight: Boolean) {
-        exactlyHeightMaxLine = Int.MAX_VALUE
         env.clear()
+        val layoutKey = LayoutKey(this, env, exactlyHeight)
+        if (layoutKey == mLayoutKey) {
+            // measured twice with the same width and environment, the lines are still valid.
+            return
+        }
+        exactlyHeightMaxLine = Int.MAX_VALUE
         release()
         if (typeModel == null) {
             return
         }
+        mLayoutKey = layoutKey
         var element: Element? = typeModel!!.firstElement()
-        var line = Line.acquire()
         var y = 0
-        line.init(0, y, env.widthLimit)
+        var line = createNewLine(env, y)
 
         fun addLineAndHandleMaxLineAndNextY(line: Line, isParagraphEndLine: Boolean){
             mLines.add(line)
@@ -97,7 +131,7 @@ class LineLayout {
             } else if (line.contentWidth + element.measureWidth > env.widthLimit) {
                 if (mLines.size == 0 && line.size == 0) {
                     // the width is too small.
-                    line.release()
+                    recycleLine(line)
                     return
                 }
                 val back = line.handleWordBreak(env, shouldHandleWordBreak)
@@ -110,10 +144,8 @@ class LineLayout {
                 }
 
                 line = createNewLine(env, y)
-                if (back != null && back.isNotEmpty()) {
-                    for (el in back) {
-                        line.add(el)
-                    }
+                if (back > 0) {
+                    line.addBackElements(back)
                 }
                 line.add(element)
             } else {
@@ -125,7 +157,7 @@ class LineLayout {
             line.layout(env, dropLastIfSpace, true)
             addLineAndHandleMaxLineAndNextY(line, false)
         } else {
-            line.release()
+            recycleLine(line)
         }
         totalLineCount = mLines.size
         handleEllipse(env,false)
@@ -142,11 +174,16 @@ class LineLayout {
     }
 
     private fun createNewLine(env: TypeEnvironment, y: Int): Line {
-        val line = Line.acquire()
-        line.init(0, y, env.widthLimit)
+        val line = if (mRecycledLines.isEmpty()) Line() else mRecycledLines.removeAt(mRecycledLines.size - 1)
+        line.init(mElements, 0, y, env.widthLimit)
         return line
     }
 
+    private fun recycleLine(line: Line) {
+        line.release()
+        mRecycledLines.add(line)
+    }
+
     private fun handleEllipse(env: TypeEnvironment, fromInterrupt: Boolean) {
         if (mLines.isEmpty() || mLines.size < getUsedMaxLine() || (mLines.size == getUsedMaxLine() && !fromInterrupt)) {
             return
@@ -163,9 +200,7 @@ class LineLayout {
     private fun handleEllipseEnd(env: TypeEnvironment) {
         val maxSize = getUsedMaxLine()
         while (mLines.size > maxSize){
-            val line = mLines[mLines.size - 1]
-            mLines.remove(line)
-            line.release()
+            recycleLine(mLines.removeAt(mLines.size - 1))
         }
 
         if(mLines.isEmpty()){
@@ -245,6 +280,9 @@ class LineLayout {
             tmpY += mLines[i].contentHeight
             tmpList.add(mLines[i])
         }
+        for (i in 0 until startIndex) {
+            recycleLine(mLines[i])
+        }
         mLines.clear()
         mLines.addAll(tmpList)
         val ellipseElement: Element = TextElement("...", -1, -1)
@@ -333,8 +371,10 @@ class LineLayout {
         for (i in ellipseLine..startLine) {
             unHandled.addAll(lines[i].popAll())
         }
+        val fitted = ArrayList<Element>()
         for (i in startLine downTo nextFullShowLine) {
             val line = lines[i]
+            var fittedWidth = line.contentWidth
             while (!unHandled.isEmpty()) {
                 val element = unHandled.peekLast()
                 if (element != null) {
@@ -346,9 +386,10 @@ class LineLayout {
                         unHandled.pollLast()
                         continue
                     }
-                    if (line.contentWidth + element.measureWidth <= line.widthLimit) {
+                    if (fittedWidth + element.measureWidth <= line.widthLimit) {
                         unHandled.pollLast()
-                        line.addFirst(element)
+                        fitted.add(element)
+                        fittedWidth += element.measureWidth
                     } else {
                         break
                     }
@@ -356,6 +397,14 @@ class LineLayout {
                     unHandled.pollLast()
                 }
             }
+            // fitted from the end of the line, add them back in order.
+            for (j in fitted.size - 1 downTo 0) {
+                line.add(fitted[j])
+            }
+            fitted.clear()
+        }
+        for (i in ellipseLine until nextFullShowLine) {
+            recycleLine(lines[i])
         }
         val toAdd = LinkedList<Element>()
         var toAddWidth = 0
@@ -424,8 +473,8 @@ class LineLayout {
     val maxLayoutWidth: Int
         get() {
             var maxWidth = 0
-            for (line in mLines) {
-                maxWidth = line.layoutWidth.coerceAtLeast(maxWidth)
+            for (i in mLines.indices) {
+                maxWidth = mLines[i].layoutWidth.coerceAtLeast(maxWidth)
             }
             return maxWidth
         }
@@ -440,8 +489,8 @@ class LineLayout {
 
     fun draw(canvas: Canvas, env: TypeEnvironment) {
         env.clear()
-        for (line in mLines) {
-            line.draw(env, canvas)
+        for (i in mLines.indices) {
+            mLines[i].draw(env, canvas)
         }
     }
 
@@ -453,10 +502,95 @@ class LineLayout {
         return maxLines.coerceAtMost(exactlyHeightMaxLine)
     }
 
+    fun copyConfigFrom(other: LineLayout) {
+        maxLines = other.maxLines
+        ellipsize = other.ellipsize
+        calculateWholeLines = other.calculateWholeLines
+        dropLastIfSpace = other.dropLastIfSpace
+        moreText = other.moreText
+        moreTextColor = other.moreTextColor
+        moreTextTypeface = other.moreTextTypeface
+        moreUnderlineColor = other.moreUnderlineColor
+        moreBgColor = other.moreBgColor
+        moreUnderlineHeight = other.moreUnderlineHeight
+        shouldHandleWordBreak = other.shouldHandleWordBreak
+    }
+
+    /**
+     * Take over the type model and the lines laid out by [other], which is left empty.
+     * If the config or environment is changed after [other] was laid out, the next [measureAndLayout] will lay out again.
+     */
+    fun takeLayoutFrom(other: LineLayout) {
+        release()
+        typeModel = other.typeModel
+        // the lines are ranges of the element buffer of other, so swap the buffers.
+        val elements = mElements
+        mElements = other.mElements
+        other.mElements = elements
+        mLines.addAll(other.mLines)
+        other.mLines.clear()
+        totalLineCount = other.totalLineCount
+        exactlyHeightMaxLine = other.exactlyHeightMaxLine
+        mLayoutKey = other.mLayoutKey
+        other.mLayoutKey = null
+    }
+
     fun release() {
-        for (line in mLines) {
-            line.release()
+        mLayoutKey = null
+        mRecycledLines.ensureCapacity(mRecycledLines.size + mLines.size)
+        for (i in mLines.indices) {
+            recycleLine(mLines[i])
         }
         mLines.clear()
+        mElements.clear()
+    }
+
+    /**
+     * Everything that affects the result of [measureAndLayout].
+     * The height limit only matters when the height is exactly.
+     */
+    private data class LayoutKey(
+            val typeModel: TypeModel?,
+            val effectVersion: Int,
+            val widthLimit: Int,
+            val heightLimit: Int,
+            val maxLines: Int,
+            val ellipsize: TruncateAt?,
+            val calculateWholeLines: Boolean,
+            val dropLastIfSpace: Boolean,
+            val shouldHandleWordBreak: Boolean,
+            val moreText: String?,
+            val moreTextTypeface: Typeface?,
+            val moreUnderlineHeight: Int,
+            val textSize: Float,
+            val typeface: Typeface?,
+            val letterSpacing: Float,
+            val alignment: TypeEnvironment.Alignment,
+            val lastLineJustifyMaxWidth: Int,
+            val lineSpace: Int,
+            val lineHeight: Int,
+            val paragraphSpace: Int) {
+
+        constructor(layout: LineLayout, env: TypeEnvironment, exactlyHeight: Boolean) : this(
+                layout.typeModel,
+                layout.typeModel?.effectVersion ?: 0,
+                env.widthLimit,
+                if (exactlyHeight) env.heightLimit else -1,
+                layout.maxLines,
+                layout.ellipsize,
+                layout.calculateWholeLines,
+                layout.dropLastIfSpace,
+                layout.shouldHandleWordBreak,
+                layout.moreText,
+                layout.moreTextTypeface,
+                layout.moreUnderlineHeight,
+                env.textSize,
+                env.typeface,
+                env.paint.letterSpacing,
+                env.alignment,
+                env.lastLineJustifyMaxWidth,
+                env.lineSpace,
+                env.lineHeight,
+                env.paragraphSpace)
     }
 }
\ No newline at end of file
@@ -21,7 +21,6 @@ import android.graphics.Paint
 import android.graphics.Typeface
 import android.util.Log
 import android.util.SparseArray
-import java.util.*
 
 class TypeEnvironment {
     companion object {
@@ -44,7 +43,13 @@ class TypeEnvironment {
         const val TYPE_BORDER_PAINT = -16
         const val TYPE_LINE_HEIGHT = -17
 
+        private const val BUILT_IN_TYPE_COUNT = 17
+
         val DEFAULT_LAST_LINE_JUSTIFY_MAX_WIDTH = (Resources.getSystem().displayMetrics.density * 36).toInt()
+
+        private fun isBuiltInType(type: Int): Boolean {
+            return type < 0 && type >= -BUILT_IN_TYPE_COUNT
+        }
     }
 
     enum class Alignment {
@@ -69,7 +74,11 @@ class TypeEnvironment {
         isAntiAlias = true
     }
     private val mCustomProp: SparseArray<Any?> = SparseArray()
-    private val mStack = SparseArray<Stack<Any?>>()
+
+    // save/restore stacks of the built in types are indexed by -type and hold primitive values.
+    // they may be shared with snapshots, and are copied before the first write by an env that does not own it.
+    private val mStacks = arrayOfNulls<ValueStack>(BUILT_IN_TYPE_COUNT + 1)
+    private var mCustomStacks: SparseArray<ObjectStack>? = null
 
 
     var lineSpace = 0
@@ -101,69 +110,85 @@ class TypeEnvironment {
             bgPaint.color = value
         }
 
+    var borderTopWidth: Int = 0
+        private set
+    var borderTopColor: Int = 0
+        private set
+    var borderRightWidth: Int = 0
+        private set
+    var borderRightColor: Int = 0
+        private set
+    var borderBottomWidth: Int = 0
+        private set
+    var borderBottomColor: Int = 0
+        private set
+    var borderLeftWidth: Int = 0
+        private set
+    var borderLeftColor: Int = 0
+        private set
+    private var mBorderPaint: Paint? = null
+
     fun setCustomProp(type: Int, value: Any?) {
-        mCustomProp.put(type, value)
+        when (type) {
+            TYPE_BORDER_TOP_WIDTH -> borderTopWidth = value as? Int ?: 0
+            TYPE_BORDER_TOP_COLOR -> borderTopColor = value as? Int ?: 0
+            TYPE_BORDER_RIGHT_WIDTH -> borderRightWidth = value as? Int ?: 0
+            TYPE_BORDER_RIGHT_COLOR -> borderRightColor = value as? Int ?: 0
+            TYPE_BORDER_BOTTOM_WIDTH -> borderBottomWidth = value as? Int ?: 0
+            TYPE_BORDER_BOTTOM_COLOR -> borderBottomColor = value as? Int ?: 0
+            TYPE_BORDER_LEFT_WIDTH -> borderLeftWidth = value as? Int ?: 0
+            TYPE_BORDER_LEFT_COLOR -> borderLeftColor = value as? Int ?: 0
+            TYPE_BORDER_PAINT -> mBorderPaint = value as? Paint
+            else -> mCustomProp.put(type, value)
+        }
     }
 
     fun setBorderTop(width: Int, color: Int) {
-        setCustomProp(TYPE_BORDER_TOP_WIDTH, width)
-        setCustomProp(TYPE_BORDER_TOP_COLOR, color)
+        borderTopWidth = width
+        borderTopColor = color
     }
 
-    val borderTopWidth: Int
-        get() = getIntCustomProp(TYPE_BORDER_TOP_WIDTH)
-    val borderTopColor: Int
-        get() = getIntCustomProp(TYPE_BORDER_TOP_COLOR)
-
     fun setBorderRight(width: Int, color: Int) {
-        setCustomProp(TYPE_BORDER_RIGHT_WIDTH, width)
-        setCustomProp(TYPE_BORDER_RIGHT_COLOR, color)
+        borderRightWidth = width
+        borderRightColor = color
     }
 
-    val borderRightWidth: Int
-        get() = getIntCustomProp(TYPE_BORDER_RIGHT_WIDTH)
-    val borderRightColor: Int
-        get() = getIntCustomProp(TYPE_BORDER_RIGHT_COLOR)
-
     fun setBorderBottom(width: Int, color: Int) {
-        setCustomProp(TYPE_BORDER_BOTTOM_WIDTH, width)
-        setCustomProp(TYPE_BORDER_BOTTOM_COLOR, color)
+        borderBottomWidth = width
+        borderBottomColor = color
     }
 
-    val borderBottomWidth: Int
-        get() = getIntCustomProp(TYPE_BORDER_BOTTOM_WIDTH)
-    val borderBottomColor: Int
-        get() = getIntCustomProp(TYPE_BORDER_BOTTOM_COLOR)
-
     fun setBorderLeft(width: Int, color: Int) {
-        setCustomProp(TYPE_BORDER_LEFT_WIDTH, width)
-        setCustomProp(TYPE_BORDER_LEFT_COLOR, color)
+        borderLeftWidth = width
+        borderLeftColor = color
     }
 
-    val borderLeftWidth: Int
-        get() = getIntCustomProp(TYPE_BORDER_LEFT_WIDTH)
-    val borderLeftColor: Int
-        get() = getIntCustomProp(TYPE_BORDER_LEFT_COLOR)
     val borderPaint: Paint
         get() {
-            val obj = getCustomProp(TYPE_BORDER_PAINT)
-            val paint: Paint
-            if (obj == null) {
-                paint = Paint()
-                paint.isAntiAlias = true
-                setCustomProp(TYPE_BORDER_PAINT, paint)
-            } else {
-                paint = obj as Paint
+            return mBorderPaint ?: Paint().apply {
+                isAntiAlias = true
+            }.also {
+                mBorderPaint = it
             }
-            return paint
         }
 
     fun getCustomProp(type: Int): Any? {
-        return mCustomProp[type]
+        return when (type) {
+            TYPE_BORDER_TOP_WIDTH -> borderTopWidth
+            TYPE_BORDER_TOP_COLOR -> borderTopColor
+            TYPE_BORDER_RIGHT_WIDTH -> borderRightWidth
+            TYPE_BORDER_RIGHT_COLOR -> borderRightColor
+            TYPE_BORDER_BOTTOM_WIDTH -> borderBottomWidth
+            TYPE_BORDER_BOTTOM_COLOR -> borderBottomColor
+            TYPE_BORDER_LEFT_WIDTH -> borderLeftWidth
+            TYPE_BORDER_LEFT_COLOR -> borderLeftColor
+            TYPE_BORDER_PAINT -> mBorderPaint
+            else -> mCustomProp[type]
+        }
     }
 
     fun getIntCustomProp(type: Int): Int {
-        val obj = mCustomProp[type]
+        val obj = getCustomProp(type)
         return if (obj !is Int) {
             0
         } else obj
@@ -174,10 +199,15 @@ class TypeEnvironment {
         this.heightLimit = heightLimit
     }
 
+    /**
+     * The stacks are shared with the snapshot until either side saves or restores,
+     * so taking a snapshot does not copy them.
+     */
     fun snapshot(): TypeEnvironment {
         val env = TypeEnvironment()
         env.setMeasureLimit(widthLimit, heightLimit)
         env.alignment = alignment
+        env.lastLineJustifyMaxWidth = lastLineJustifyMaxWidth
         env.lineSpace = lineSpace
         env.lineHeight = lineHeight
         env.paragraphSpace = paragraphSpace
@@ -185,93 +215,262 @@ class TypeEnvironment {
         env.typeface = typeface
         env.textColor = textColor
         env.backgroundColor = backgroundColor
-        for (i in 0 until mStack.size()) {
-            env.mStack.put(mStack.keyAt(i), mStack.valueAt(i).clone() as Stack<Any?>)
+        env.setBorderTop(borderTopWidth, borderTopColor)
+        env.setBorderRight(borderRightWidth, borderRightColor)
+        env.setBorderBottom(borderBottomWidth, borderBottomColor)
+        env.setBorderLeft(borderLeftWidth, borderLeftColor)
+        env.mBorderPaint = mBorderPaint
+        for (i in mStacks.indices) {
+            val stack = mStacks[i] ?: continue
+            stack.owner = null
+            env.mStacks[i] = stack
+        }
+        val customStacks = mCustomStacks
+        if (customStacks != null) {
+            val envCustomStacks = SparseArray<ObjectStack>(customStacks.size())
+            for (i in 0 until customStacks.size()) {
+                val stack = customStacks.valueAt(i)
+                stack.owner = null
+                envCustomStacks.put(customStacks.keyAt(i), stack)
+            }
+            env.mCustomStacks = envCustomStacks
         }
         for (i in 0 until mCustomProp.size()) {
-            env.setCustomProp(mCustomProp.keyAt(i), mCustomProp.valueAt(i))
+            env.mCustomProp.put(mCustomProp.keyAt(i), mCustomProp.valueAt(i))
         }
         return env
     }
 
     fun save(type: Int) {
-        var stack = mStack[type]
-        if (stack == null) {
-            stack = Stack()
-            mStack.put(type, stack)
-        }
-        if (type == TYPE_TEXT_COLOR) {
-            stack.push(textColor)
-        } else if (type == TYPE_BG_COLOR) {
-            stack.push(backgroundColor)
-        } else if (type == TYPE_TYPEFACE) {
-            stack.push(typeface)
-        } else if (type == TYPE_TEXT_SIZE) {
-            stack.push(textSize)
-        } else if (type == TYPE_ALIGNMENT) {
-            stack.push(alignment)
-        } else if (type == TYPE_LINE_SPACE) {
-            stack.push(lineSpace)
-        } else if (type == TYPE_PARAGRAPH_SPACE) {
-            stack.push(paragraphSpace)
-        } else if(type == TYPE_LINE_HEIGHT){
-            stack.push(lineHeight)
-        } else{
-            stack.push(mCustomProp[type])
+        when (type) {
+            TYPE_TEXT_COLOR -> writableIntStack(type).push(textColor)
+            TYPE_BG_COLOR -> writableIntStack(type).push(backgroundColor)
+            TYPE_TYPEFACE -> writableObjectStack(type).push(typeface)
+            TYPE_TEXT_SIZE -> writableFloatStack(type).push(textSize)
+            TYPE_ALIGNMENT -> writableObjectStack(type).push(alignment)
+            TYPE_LINE_SPACE -> writableIntStack(type).push(lineSpace)
+            TYPE_PARAGRAPH_SPACE -> writableIntStack(type).push(paragraphSpace)
+            TYPE_LINE_HEIGHT -> writableIntStack(type).push(lineHeight)
+            TYPE_BORDER_TOP_WIDTH -> writableIntStack(type).push(borderTopWidth)
+            TYPE_BORDER_TOP_COLOR -> writableIntStack(type).push(borderTopColor)
+            TYPE_BORDER_RIGHT_WIDTH -> writableIntStack(type).push(borderRightWidth)
+            TYPE_BORDER_RIGHT_COLOR -> writableIntStack(type).push(borderRightColor)
+            TYPE_BORDER_BOTTOM_WIDTH -> writableIntStack(type).push(borderBottomWidth)
+            TYPE_BORDER_BOTTOM_COLOR -> writableIntStack(type).push(borderBottomColor)
+            TYPE_BORDER_LEFT_WIDTH -> writableIntStack(type).push(borderLeftWidth)
+            TYPE_BORDER_LEFT_COLOR -> writableIntStack(type).push(borderLeftColor)
+            else -> writableObjectStack(type).push(getCustomProp(type))
         }
     }
 
     fun restore(type: Int) {
-        val stack = mStack[type]
-        if (stack == null || stack.isEmpty()) {
+        val stack = if (isBuiltInType(type)) mStacks[-type] else mCustomStacks?.get(type)
+        if (stack == null || stack.size == 0) {
             Log.d(TAG, "restore (type = $type)with a empty stack.")
             return
         }
-        val v = stack.pop()
-        restore(type, v)
+        restoreTop(type, writableStack(type, stack))
     }
 
-    private fun restore(type: Int, v: Any?) {
-        if (type == TYPE_TEXT_COLOR) {
-            textColor = v as Int
-        } else if (type == TYPE_BG_COLOR) {
-            backgroundColor = v as Int
-        } else if (type == TYPE_TYPEFACE) {
-            typeface = v as? Typeface
-        } else if (type == TYPE_TEXT_SIZE) {
-            textSize = v as Float
-        } else if (type == TYPE_ALIGNMENT) {
-            alignment = v as Alignment
-        } else if (type == TYPE_LINE_SPACE) {
-            lineSpace = v as Int
-        } else if (type == TYPE_PARAGRAPH_SPACE) {
-            paragraphSpace = v as Int
-        }else if (type == TYPE_LINE_HEIGHT) {
-            lineHeight = v as Int
-        } else {
-            setCustomProp(type, v)
+    private fun restoreTop(type: Int, stack: ValueStack) {
+        when (stack) {
+            is IntStack -> restoreInt(type, stack.pop())
+            is FloatStack -> restoreFloat(type, stack.pop())
+            is ObjectStack -> restoreObject(type, stack.pop())
+        }
+    }
+
+    private fun restoreInt(type: Int, v: Int) {
+        when (type) {
+            TYPE_TEXT_COLOR -> textColor = v
+            TYPE_BG_COLOR -> backgroundColor = v
+            TYPE_LINE_SPACE -> lineSpace = v
+            TYPE_PARAGRAPH_SPACE -> paragraphSpace = v
+            TYPE_LINE_HEIGHT -> lineHeight = v
+            TYPE_BORDER_TOP_WIDTH -> borderTopWidth = v
+            TYPE_BORDER_TOP_COLOR -> borderTopColor = v
+            TYPE_BORDER_RIGHT_WIDTH -> borderRightWidth = v
+            TYPE_BORDER_RIGHT_COLOR -> borderRightColor = v
+            TYPE_BORDER_BOTTOM_WIDTH -> borderBottomWidth = v
+            TYPE_BORDER_BOTTOM_COLOR -> borderBottomColor = v
+            TYPE_BORDER_LEFT_WIDTH -> borderLeftWidth = v
+            TYPE_BORDER_LEFT_COLOR -> borderLeftColor = v
+        }
+    }
+
+    private fun restoreFloat(type: Int, v: Float) {
+        if (type == TYPE_TEXT_SIZE) {
+            textSize = v
+        }
+    }
+
+    private fun restoreObject(type: Int, v: Any?) {
+        when (type) {
+            TYPE_TYPEFACE -> typeface = v as? Typeface
+            TYPE_ALIGNMENT -> alignment = v as Alignment
+            else -> setCustomProp(type, v)
         }
     }
 
     fun clear() {
-        for (i in 0 until mStack.size()) {
-            val stack = mStack.valueAt(i)
-            if (stack != null && stack.size > 0) {
-                while (stack.size > 1) {
-                    stack.pop()
-                }
-                restore(mStack.keyAt(i), stack.pop())
-            }
+        for (i in mStacks.indices) {
+            clearStack(-i, mStacks[i])
+        }
+        val customStacks = mCustomStacks ?: return
+        for (i in 0 until customStacks.size()) {
+            clearStack(customStacks.keyAt(i), customStacks.valueAt(i))
+        }
+    }
+
+    private fun clearStack(type: Int, stack: ValueStack?) {
+        if (stack != null && stack.size > 0) {
+            val writable = writableStack(type, stack)
+            writable.truncate(1)
+            restoreTop(type, writable)
         }
     }
 
-    fun isRunning(): Boolean{
-        for (i in 0 until mStack.size()) {
-            val stack = mStack.valueAt(i)
-            if(stack.size > 0){
+    fun isRunning(): Boolean {
+        for (stack in mStacks) {
+            if (stack != null && stack.size > 0) {
+                return true
+            }
+        }
+        val customStacks = mCustomStacks ?: return false
+        for (i in 0 until customStacks.size()) {
+            if (customStacks.valueAt(i).size > 0) {
                 return true
             }
         }
         return false
     }
-}
\ No newline at end of file
+
+    private fun writableIntStack(type: Int): IntStack {
+        val stack = mStacks[-type]
+        if (stack == null) {
+            return IntStack(this).also { mStacks[-type] = it }
+        }
+        return writableStack(type, stack) as IntStack
+    }
+
+    private fun writableFloatStack(type: Int): FloatStack {
+        val stack = mStacks[-type]
+        if (stack == null) {
+            return FloatStack(this).also { mStacks[-type] = it }
+        }
+        return writableStack(type, stack) as FloatStack
+    }
+
+    private fun writableObjectStack(type: Int): ObjectStack {
+        val stack = if (isBuiltInType(type)) mStacks[-type] else mCustomStacks?.get(type)
+        if (stack == null) {
+            val created = ObjectStack(this)
+            if (isBuiltInType(type)) {
+                mStacks[-type] = created
+            } else {
+                (mCustomStacks ?: SparseArray<ObjectStack>().also { mCustomStacks = it }).put(type, created)
+            }
+            return created
+        }
+        return writableStack(type, stack) as ObjectStack
+    }
+
+    /**
+     * copy on write: a stack shared with a snapshot is copied before this env changes it.
+     */
+    private fun writableStack(type: Int, stack: ValueStack): ValueStack {
+        if (stack.owner === this) {
+            return stack
+        }
+        val copy = stack.copy(this)
+        if (isBuiltInType(type)) {
+            mStacks[-type] = copy
+        } else {
+            mCustomStacks!!.put(type, copy as ObjectStack)
+        }
+        return copy
+    }
+
+    private abstract class ValueStack(var owner: TypeEnvironment?) {
+        var size = 0
+
+        open fun truncate(newSize: Int) {
+            size = newSize
+        }
+
+        abstract fun copy(owner: TypeEnvironment): ValueStack
+    }
+
+    private class IntStack(owner: TypeEnvironment?) : ValueStack(owner) {
+        private var values = IntArray(4)
+
+        fun push(v: Int) {
+            if (size == values.size) {
+                values = values.copyOf(size * 2)
+            }
+            values[size++] = v
+        }
+
+        fun pop(): Int {
+            return values[--size]
+        }
+
+        override fun copy(owner: TypeEnvironment): ValueStack {
+            return IntStack(owner).also {
+                it.values = values.copyOf()
+                it.size = size
+            }
+        }
+    }
+
+    private class FloatStack(owner: TypeEnvironment?) : ValueStack(owner) {
+        private var values = FloatArray(4)
+
+        fun push(v: Float) {
+            if (size == values.size) {
+                values = values.copyOf(size * 2)
+            }
+            values[size++] = v
+        }
+
+        fun pop(): Float {
+            return values[--size]
+        }
+
+        override fun copy(owner: TypeEnvironment): ValueStack {
+            return FloatStack(owner).also {
+                it.values = values.copyOf()
+                it.size = size
+            }
+        }
+    }
+
+    private class ObjectStack(owner: TypeEnvironment?) : ValueStack(owner) {
+        private var values = arrayOfNulls<Any>(4)
+
+        fun push(v: Any?) {
+            if (size == values.size) {
+                values = values.copyOf(size * 2)
+            }
+            values[size++] = v
+        }
+
+        fun pop(): Any? {
+            val v = values[--size]
+            values[size] = null
+            return v
+        }
+
+        override fun truncate(newSize: Int) {
+            values.fill(null, newSize, size)
+            size = newSize
+        }
+
+        override fun copy(owner: TypeEnvironment): ValueStack {
+            return ObjectStack(owner).also {
+                it.values = values.copyOf()
+                it.size = size
+            }
+        }
+    }
+}
@@ -17,17 +17,115 @@ package com.qmuiteam.qmui.type
 
 import android.graphics.Typeface
 import com.qmuiteam.qmui.type.element.Element
+import com.qmuiteam.qmui.type.element.TextElement
+import com.qmuiteam.qmui.type.element.TextRun
 import java.lang.RuntimeException
 import java.util.*
 
+/**
+ * @param mElements the elements in order, the element at position i must have index i.
+ */
 class TypeModel(
         val origin: CharSequence,
-        private val mElementMap: Map<Int, Element>,
-        private val mFirstElement: Element,
-        private val mLastElement: Element) {
+        private val mElements: Array<Element>) {
+
+    companion object {
+        private fun collectElements(first: Element): Array<Element> {
+            val list = ArrayList<Element>()
+            var current: Element? = first
+            while (current != null) {
+                list.add(current)
+                current = current.next
+            }
+            return list.toTypedArray()
+        }
+    }
+
+    @Deprecated("the element map is not used any more", ReplaceWith("TypeModel(origin, elements)"))
+    constructor(origin: CharSequence,
+                elementMap: Map<Int, Element>,
+                firstElement: Element,
+                lastElement: Element) : this(origin, collectElements(firstElement))
+
+    private val mFirstElement: Element = mElements[0]
+    private val mLastElement: Element = mElements[mElements.size - 1]
+
+    // sorted start offsets in origin and the positions of their elements,
+    // elements not from origin (start < 0) are left out so the offsets stay sorted.
+    private val mOriginStarts: IntArray
+    private val mOriginPositions: IntArray
 
     var firstEffect: Element? = null
 
+    /**
+     * increased when an effect is added or removed, used to check whether a cached layout is still valid.
+     */
+    var effectVersion = 0
+        private set
+
+    init {
+        var count = 0
+        var lastStart = -1
+        for (element in mElements) {
+            if (element.start > lastStart) {
+                count++
+                lastStart = element.start
+            }
+        }
+        mOriginStarts = IntArray(count)
+        mOriginPositions = IntArray(count)
+        count = 0
+        lastStart = -1
+        for (i in mElements.indices) {
+            val start = mElements[i].start
+            if (start > lastStart) {
+                mOriginStarts[count] = start
+                mOriginPositions[count] = i
+                count++
+                lastStart = start
+            }
+        }
+        buildTextRuns()
+    }
+
+    private fun buildTextRuns() {
+        var run: TextRun? = null
+        for (element in mElements) {
+            if (element !is TextElement || element.javaClass != TextElement::class.java || element.start < 0) {
+                run = null
+                continue
+            }
+            val current = run
+            if (current != null && current.textEnd == element.start) {
+                current.extendTo(element.start + element.length)
+                element.textRun = current
+            } else {
+                run = TextRun(origin, element.start, element.start + element.length).also {
+                    element.textRun = it
+                }
+            }
+        }
+    }
+
+    /**
+     * elements inside a run are measured together, so the run must not cross an effect boundary.
+     */
+    private fun splitTextRunBefore(element: Element) {
+        if (element !is TextElement) {
+            return
+        }
+        val run = element.textRun ?: return
+        if (run.textStart == element.start) {
+            return
+        }
+        val tail = run.splitAt(element.start)
+        var current: Element? = element
+        while (current is TextElement && current.textRun === run) {
+            current.textRun = tail
+            current = current.next
+        }
+    }
+
     fun addTypefaceEffect(start: Int, end: Int, typeface: Typeface): EffectRemover? {
         val types: MutableList<Int> = ArrayList()
         types.add(TypeEnvironment.TYPE_TYPEFACE)
@@ -83,16 +181,19 @@ class TypeModel(
         if(start > end){
             throw RuntimeException("unsafeAddEffect: start($start) is bigger than end($end)")
         }
-        val elementStart = mElementMap[start]
-        val elementEnd = mElementMap[end]
+        val elementStart = get(start)
+        val elementEnd = get(end)
         if (elementStart == null || elementEnd == null) {
             return null
         }
+        splitTextRunBefore(elementStart)
+        elementEnd.next?.let { splitTextRunBefore(it) }
         for (type in types) {
             elementStart.addSaveType(type)
             elementEnd.addRestoreType(type)
         }
         elementStart.addEnvironmentUpdater(environmentUpdater)
+        effectVersion++
         firstEffect = if (firstEffect == null) {
             elementStart
         } else {
@@ -103,8 +204,8 @@ class TypeModel(
     }
 
     fun unsafeRemoveEffect(start: Int, end: Int, types: List<Int>, environmentUpdater: EnvironmentUpdater): Boolean {
-        val elementStart = mElementMap[start]
-        val elementEnd = mElementMap[end]
+        val elementStart = get(start)
+        val elementEnd = get(end)
         if (elementStart == null || elementEnd == null) {
             return false
         }
@@ -113,6 +214,7 @@ class TypeModel(
             elementEnd.removeStoreType(type)
         }
         elementStart.removeEnvironmentUpdater(environmentUpdater)
+        effectVersion++
         firstEffect = elementStart.removeFromEffectListIfNeeded(firstEffect)
         firstEffect = elementEnd.removeFromEffectListIfNeeded(firstEffect)
         return true
@@ -126,8 +228,33 @@ class TypeModel(
         return mLastElement
     }
 
+    val elementCount: Int
+        get() = mElements.size
+
     operator fun get(pos: Int): Element? {
-        return mElementMap[pos]
+        return mElements.getOrNull(pos)
+    }
+
+    /**
+     * @return the element that contains the char at [offset] of [origin],
+     * null if the char is not covered by any element from origin.
+     */
+    fun findElementByTextOffset(offset: Int): Element? {
+        var low = 0
+        var high = mOriginStarts.size - 1
+        while (low <= high) {
+            val mid = (low + high) ushr 1
+            if (mOriginStarts[mid] <= offset) {
+                low = mid + 1
+            } else {
+                high = mid - 1
+            }
+        }
+        if (high < 0) {
+            return null
+        }
+        val element = mElements[mOriginPositions[high]]
+        return if (offset < element.start + element.length) element else null
     }
 
     fun interface EffectRemover {
@@ -17,6 +17,7 @@ package com.qmuiteam.qmui.type.element
 
 import android.graphics.Canvas
 import android.graphics.Color
+import android.graphics.Typeface
 import com.qmuiteam.qmui.type.EnvironmentUpdater
 import com.qmuiteam.qmui.type.TypeEnvironment
 import java.util.*
@@ -66,6 +67,13 @@ abstract class Element(val text: CharSequence, val index: Int, val start: Int) {
     var baseLine = 0
     var nextGapWidth = 0
 
+    // the paint state of the last measure, see isMeasureCacheable()
+    private var measuredTextSize = Float.NaN
+    private var measuredTypeface: Typeface? = null
+    private var measuredLetterSpacing = 0f
+    private var measuredTextScaleX = 0f
+    private var measuredFakeBoldText = false
+
     private var saveTypeList: MutableList<Int>? = null
     private var restoreTypeList: MutableList<Int>? = null
     private var environmentUpdaterList: MutableList<EnvironmentUpdater>? = null
@@ -244,10 +252,33 @@ abstract class Element(val text: CharSequence, val index: Int, val start: Int) {
 
     fun measure(env: TypeEnvironment) {
         updateEnv(env)
-        onMeasure(env)
+        if (isMeasureCacheable()) {
+            val paint = env.paint
+            if (measuredTextSize != paint.textSize || measuredTypeface !== paint.typeface ||
+                    measuredLetterSpacing != paint.letterSpacing || measuredTextScaleX != paint.textScaleX ||
+                    measuredFakeBoldText != paint.isFakeBoldText) {
+                onMeasure(env)
+                measuredTextSize = paint.textSize
+                measuredTypeface = paint.typeface
+                measuredLetterSpacing = paint.letterSpacing
+                measuredTextScaleX = paint.textScaleX
+                measuredFakeBoldText = paint.isFakeBoldText
+            }
+        } else {
+            onMeasure(env)
+        }
         restoreEnv(env)
     }
 
+    /**
+     * Return true if the measure result only depends on the text size, typeface, letter spacing, text scale x
+     * and fake bold flag of the paint, then measuring again with the same paint state is skipped.
+     * Implementations should not let subclasses that measure with other state inherit the opt-in.
+     */
+    protected open fun isMeasureCacheable(): Boolean {
+        return false
+    }
+
     fun draw(env: TypeEnvironment, canvas: Canvas) {
         updateEnv(env)
         if (visible == VISIBLE) {
@@ -256,18 +287,26 @@ abstract class Element(val text: CharSequence, val index: Int, val start: Int) {
         restoreEnv(env)
     }
 
+    // indexed loops, these run for every element in each measure and draw pass
     fun updateEnv(env: TypeEnvironment) {
-        saveTypeList?.forEach {
-            env.save(it)
+        val saveTypes = saveTypeList
+        if (saveTypes != null) {
+            for (i in saveTypes.indices) {
+                env.save(saveTypes[i])
+            }
         }
-        environmentUpdaterList?.forEach {
-            it.update(env)
+        val updaters = environmentUpdaterList
+        if (updaters != null) {
+            for (i in updaters.indices) {
+                updaters[i].update(env)
+            }
         }
     }
 
     fun restoreEnv(env: TypeEnvironment) {
-        restoreTypeList?.forEach {
-            env.restore(it)
+        val restoreTypes = restoreTypeList ?: return
+        for (i in restoreTypes.indices) {
+            env.restore(restoreTypes[i])
         }
     }
 
@@ -21,6 +21,10 @@ import com.qmuiteam.qmui.type.TypeEnvironment
 
 class EmojiElement(val drawable: Drawable, text: CharSequence, index: Int, start: Int) : Element(text, index, start) {
 
+    override fun isMeasureCacheable(): Boolean {
+        return true
+    }
+
     override fun onMeasure(env: TypeEnvironment) {
         val paint = env.paint
         val size = (paint.fontMetrics.descent - paint.fontMetrics.ascent).toInt()
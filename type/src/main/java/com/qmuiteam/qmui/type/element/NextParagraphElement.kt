@@ -20,6 +20,10 @@ import com.qmuiteam.qmui.type.TypeEnvironment
 
 class NextParagraphElement(text: CharSequence, index: Int, start: Int) : Element(text, index, start) {
 
+    override fun isMeasureCacheable(): Boolean {
+        return true
+    }
+
     override fun onMeasure(env: TypeEnvironment) {
         setMeasureDimen(0, 0, 0)
     }
@@ -20,11 +20,25 @@ import com.qmuiteam.qmui.type.TypeEnvironment
 
 open class TextElement(text: CharSequence, index: Int, start: Int) : Element(text, index, start) {
 
+    internal var textRun: TextRun? = null
+
+    /**
+     * subclasses outside this module may measure with more than the paint, so only the known classes opt in.
+     */
+    override fun isMeasureCacheable(): Boolean {
+        val clazz = javaClass
+        return clazz == TextElement::class.java || clazz == MoreTextElement::class.java ||
+                clazz == BreakWordLineElement::class.java
+    }
+
     override fun onMeasure(env: TypeEnvironment) {
         val paint = env.paint
-        setMeasureDimen((paint.measureText(text, 0, text.length) + 0.5f).toInt(),
-                paint.fontMetricsInt.descent - paint.fontMetricsInt.ascent,
-                -paint.fontMetricsInt.ascent)
+        val run = textRun
+        val width = run?.measure(paint, start, length) ?: paint.measureText(text, 0, text.length)
+        val fontMetrics = paint.fontMetricsInt
+        setMeasureDimen((width + 0.5f).toInt(),
+                fontMetrics.descent - fontMetrics.ascent,
+                -fontMetrics.ascent)
     }
 
     override fun onDraw(env: TypeEnvironment, canvas: Canvas) {
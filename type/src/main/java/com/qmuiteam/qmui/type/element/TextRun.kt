@@ -0,0 +1,82 @@
+/*
+ * Tencent is pleased to support the open source community by making QMUI_Android available.
+ *
+ * Copyright (C) 2017-2018 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qmuiteam.qmui.type.element
+
+import android.graphics.Paint
+import android.graphics.Typeface
+
+/**
+ * A run of contiguous [TextElement]s in the origin text that are always measured with the same environment.
+ * The advances of the whole run are got by one [Paint.getTextWidths] call and cached for the paint state,
+ * so measuring does not cost one native call per character.
+ *
+ * [com.qmuiteam.qmui.type.TypeModel] splits runs at the boundaries of effects.
+ */
+internal class TextRun(val origin: CharSequence, val textStart: Int, textEnd: Int) {
+
+    var textEnd: Int = textEnd
+        private set
+
+    private var advances: FloatArray? = null
+    private var textSize = 0f
+    private var typeface: Typeface? = null
+    private var letterSpacing = 0f
+    private var textScaleX = 0f
+    private var fakeBoldText = false
+
+    fun extendTo(end: Int) {
+        textEnd = end
+        advances = null
+    }
+
+    /**
+     * split the run at [textOffset], this run keeps the head and the tail is returned.
+     */
+    fun splitAt(textOffset: Int): TextRun {
+        val tail = TextRun(origin, textOffset, textEnd)
+        textEnd = textOffset
+        advances = null
+        return tail
+    }
+
+    fun measure(paint: Paint, start: Int, length: Int): Float {
+        val widths = obtainAdvances(paint)
+        val offset = start - textStart
+        var sum = 0f
+        for (i in offset until offset + length) {
+            sum += widths[i]
+        }
+        return sum
+    }
+
+    private fun obtainAdvances(paint: Paint): FloatArray {
+        val cached = advances
+        if (cached != null && textSize == paint.textSize && typeface == paint.typeface &&
+                letterSpacing == paint.letterSpacing && textScaleX == paint.textScaleX &&
+                fakeBoldText == paint.isFakeBoldText) {
+            return cached
+        }
+        val widths = FloatArray(textEnd - textStart)
+        paint.getTextWidths(origin, textStart, textEnd, widths)
+        textSize = paint.textSize
+        typeface = paint.typeface
+        letterSpacing = paint.letterSpacing
+        textScaleX = paint.textScaleX
+        fakeBoldText = paint.isFakeBoldText
+        advances = widths
+        return widths
+    }
+}
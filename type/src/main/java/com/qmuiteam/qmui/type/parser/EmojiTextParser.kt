@@ -30,7 +30,7 @@ class EmojiTextParser(private val emojiProvider: EmojiResourceProvider) : TextPa
         }
 
         val size = text.length
-        val map = HashMap<Int, Element>(size)
+        val elements = ArrayList<Element>(size)
         var first: Element? = null
         var last: Element? = null
         var tmp: Element? = null
@@ -114,9 +114,9 @@ class EmojiTextParser(private val emojiProvider: EmojiResourceProvider) : TextPa
                 last!!.next = tmp
                 last = tmp
             }
-            map[tmp.index] = tmp
+            elements.add(tmp)
             i++
         }
-        return TypeModel(text, map, first!!, last!!)
+        return TypeModel(text, elements.toTypedArray())
     }
 }
\ No newline at end of file
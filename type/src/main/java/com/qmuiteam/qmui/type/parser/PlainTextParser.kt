@@ -35,7 +35,7 @@ class PlainTextParser : TextParser {
             return null
         }
         val size = text.length
-        val map = HashMap<Int, Element>(size)
+        val elements = ArrayList<Element>(size)
         var first: Element? = null
         var last: Element? = null
         var tmp: Element
@@ -67,9 +67,9 @@ class PlainTextParser : TextParser {
                 last!!.next = tmp
                 last = tmp
             }
-            map[tmp.index] = tmp
+            elements.add(tmp)
             i++
         }
-        return TypeModel(text, map, first!!, last!!)
+        return TypeModel(text, elements.toTypedArray())
     }
 }
\ No newline at end of file
@@ -24,12 +24,15 @@ import android.util.AttributeSet
 import android.util.Log
 import android.view.MotionEvent
 import androidx.annotation.ColorInt
+import com.qmuiteam.qmui.type.Line
 import com.qmuiteam.qmui.type.LineLayout
 import com.qmuiteam.qmui.type.TypeEnvironment
 import com.qmuiteam.qmui.type.TypeModel
 import com.qmuiteam.qmui.type.parser.PlainTextParser
 import com.qmuiteam.qmui.type.parser.TextParser
+import kotlinx.coroutines.*
 import java.util.*
+import kotlin.math.floor
 
 private const val TAG = "LineTypeView"
 
@@ -41,13 +44,27 @@ open class LineTypeView : BaseTypeView {
         set(value) {
             if (field != value) {
                 field = value
+                cancelAsyncText()
                 lineLayout.typeModel = value.parse(text)
                 requestLayout()
             }
         }
 
+    /**
+     * the dispatcher [setTextAsync] parses and lays out text on.
+     */
+    var asyncDispatcher: CoroutineDispatcher = Dispatchers.Default
+
     private val touchSpanList = arrayListOf<TouchSpan>()
+    // built when touched after touchSpanList is changed
+    private var touchSpanIndex: TouchSpanIndex? = null
     private var currentTouchSpan: TouchSpan? = null
+    private val asyncScope = MainScope()
+    private var asyncJob: Job? = null
+    private var asyncEffectApplier: ((TypeModel) -> Unit)? = null
+    // the async text is canceled when detached and started again when attached
+    private var isAsyncTextInterrupted = false
+    private var isLastMeasureExactlyHeight = false
 
     constructor(context: Context) : super(context)
     constructor(context: Context, attrs: AttributeSet?) : super(context, attrs)
@@ -59,7 +76,8 @@ open class LineTypeView : BaseTypeView {
         val heightSize = MeasureSpec.getSize(heightMeasureSpec)
         val heightMode = MeasureSpec.getMode(heightMeasureSpec)
         environment.setMeasureLimit(widthSize - paddingLeft - paddingRight, heightSize - paddingTop - paddingBottom)
-        lineLayout.measureAndLayout(environment, heightMode == MeasureSpec.EXACTLY)
+        isLastMeasureExactlyHeight = heightMode == MeasureSpec.EXACTLY
+        lineLayout.measureAndLayout(environment, isLastMeasureExactlyHeight)
         val usedWidth = if (widthMode == MeasureSpec.AT_MOST) {
             lineLayout.maxLayoutWidth + paddingLeft + paddingRight
         } else widthSize
@@ -69,17 +87,103 @@ open class LineTypeView : BaseTypeView {
         setMeasuredDimension(usedWidth, usedHeight)
     }
 
-    var text: CharSequence? = null
+    private var _text: CharSequence? = null
+
+    var text: CharSequence?
+        get() = _text
         set(value) {
-            if (field != value) {
-                field = value
+            if (_text != value) {
+                _text = value
+                cancelAsyncText()
                 touchSpanList.clear()
+                touchSpanIndex = null
                 currentTouchSpan = null
                 lineLayout.typeModel = textParser.parse(value)
                 requestLayout()
             }
         }
 
+    /**
+     * Parse [value], apply effects by [effectApplier] and lay out lines with the width of the last measure
+     * on [asyncDispatcher], then hand the result to [lineLayout] on the main thread.
+     * The view shows nothing for the text until then, and a later call or setting [text] cancels the pending one.
+     *
+     * [textParser] and [effectApplier] are called in background, so they must be thread safe.
+     * Click effects register touch spans in the view, add them after the returned job is completed.
+     *
+     * The job is canceled if the view is detached before it is completed, and a new one is started
+     * when the view is attached again.
+     */
+    fun setTextAsync(value: CharSequence?, effectApplier: ((TypeModel) -> Unit)? = null): Job? {
+        cancelAsyncText()
+        _text = value
+        touchSpanList.clear()
+        touchSpanIndex = null
+        currentTouchSpan = null
+        lineLayout.typeModel = null
+        if (value.isNullOrEmpty()) {
+            requestLayout()
+            return null
+        }
+        asyncEffectApplier = effectApplier
+        val parser = textParser
+        val env = environment.snapshot()
+        val exactlyHeight = isLastMeasureExactlyHeight
+        val layout = LineLayout().apply {
+            copyConfigFrom(lineLayout)
+        }
+        return asyncScope.launch {
+            // withContext returns after its block is completed, so the layout is not used in background any more
+            val result = try {
+                withContext(asyncDispatcher) {
+                    val typeModel = parser.parse(value)
+                    if (typeModel != null) {
+                        effectApplier?.invoke(typeModel)
+                        layout.typeModel = typeModel
+                        ensureActive()
+                        if (env.widthLimit > 0) {
+                            layout.measureAndLayout(env, exactlyHeight)
+                        }
+                    }
+                    layout
+                }
+            } catch (e: CancellationException) {
+                layout.release()
+                throw e
+            }
+            asyncJob = null
+            asyncEffectApplier = null
+            lineLayout.takeLayoutFrom(result)
+            requestLayout()
+            invalidate()
+        }.also {
+            asyncJob = it
+        }
+    }
+
+    private fun cancelAsyncText() {
+        asyncJob?.cancel()
+        asyncJob = null
+        asyncEffectApplier = null
+        isAsyncTextInterrupted = false
+    }
+
+    override fun onAttachedToWindow() {
+        super.onAttachedToWindow()
+        if (isAsyncTextInterrupted) {
+            setTextAsync(_text, asyncEffectApplier)
+        }
+    }
+
+    override fun onDetachedFromWindow() {
+        super.onDetachedFromWindow()
+        // do not keep the view and the background layout alive with a pending job
+        val job = asyncJob ?: return
+        job.cancel()
+        asyncJob = null
+        isAsyncTextInterrupted = true
+    }
+
     var ellipsized: TextUtils.TruncateAt?
         get() = lineLayout.ellipsize
         set(value) {
@@ -123,9 +227,11 @@ open class LineTypeView : BaseTypeView {
             updater.invoke(it, touchSpan)
         }
         touchSpanList.add(touchSpan)
+        touchSpanIndex = null
         return TypeModel.EffectRemover {
             remover?.remove()
             touchSpanList.remove(touchSpan)
+            touchSpanIndex = null
         }
     }
 
@@ -172,8 +278,7 @@ open class LineTypeView : BaseTypeView {
     }
 
     override fun onTouchEvent(event: MotionEvent): Boolean {
-        val typeModel = lineLayout.typeModel ?: return super.onTouchEvent(event)
-        if (touchSpanList.isEmpty()) {
+        if (lineLayout.typeModel == null || touchSpanList.isEmpty()) {
             return super.onTouchEvent(event)
         }
         when (event.action) {
@@ -183,7 +288,7 @@ open class LineTypeView : BaseTypeView {
                     Log.i(TAG, "the currentTouchSpan is not null when touch down.")
                     current.isPressed = false
                 }
-                val touchSpan = findCurrentTouchSpan(typeModel, event.x, event.y)
+                val touchSpan = findCurrentTouchSpan(event.x, event.y)
                 if (touchSpan != null) {
                     touchSpan.isPressed = true
                     currentTouchSpan = touchSpan
@@ -194,9 +299,9 @@ open class LineTypeView : BaseTypeView {
             MotionEvent.ACTION_MOVE -> {
                 val current = currentTouchSpan
                 if (current != null) {
-                    if (!isSpanTouched(typeModel, current, event.x, event.y)) {
+                    if (!isSpanTouched(current, event.x, event.y)) {
                         current.isPressed = false
-                        val touchSpan = findCurrentTouchSpan(typeModel, event.x, event.y)
+                        val touchSpan = findCurrentTouchSpan(event.x, event.y)
                         if (touchSpan != null) {
                             touchSpan.isPressed = true
                             currentTouchSpan = touchSpan
@@ -207,7 +312,7 @@ open class LineTypeView : BaseTypeView {
                     }
                     return true
                 } else {
-                    val touchSpan = findCurrentTouchSpan(typeModel, event.x, event.y)
+                    val touchSpan = findCurrentTouchSpan(event.x, event.y)
                     if (touchSpan != null) {
                         touchSpan.isPressed = true
                         currentTouchSpan = touchSpan
@@ -233,31 +338,93 @@ open class LineTypeView : BaseTypeView {
         return super.onTouchEvent(event)
     }
 
-    private fun findCurrentTouchSpan(typeModel: TypeModel, x: Float, y: Float): TouchSpan? {
-        for (i in 0 until touchSpanList.size) {
-            val touchSpan = touchSpanList[i]
-            if (isSpanTouched(typeModel, touchSpan, x, y)) {
-                return touchSpan
-            }
+    private fun findCurrentTouchSpan(x: Float, y: Float): TouchSpan? {
+        val line = findTouchedLine(y) ?: return null
+        val index = touchSpanIndex ?: TouchSpanIndex(touchSpanList).also { touchSpanIndex = it }
+        val element = line.findElement(floor(x - paddingLeft).toInt())
+        if (element != null) {
+            return index.find(element.index, element.index)
+        }
+        val firstIndex = line.first()?.index ?: return null
+        val lastIndex = line.last()?.index ?: return null
+        if (firstIndex < 0 || lastIndex < 0) {
+            return null
+        }
+        return index.find(firstIndex - 1, lastIndex + 1)
+    }
+
+    private fun isSpanTouched(touchSpan: TouchSpan, x: Float, y: Float): Boolean {
+        val line = findTouchedLine(y) ?: return false
+        val element = line.findElement(floor(x - paddingLeft).toInt())
+        if (element != null) {
+            return element.index >= touchSpan.start && element.index <= touchSpan.end
+        }
+        val firstIndex = line.first()?.index ?: return false
+        val lastIndex = line.last()?.index ?: return false
+        return firstIndex >= 0 && lastIndex >= 0 && touchSpan.start < firstIndex && touchSpan.end > lastIndex
+    }
+
+    /**
+     * Find the line by y by binary search, the element in it is then found by x.
+     * The blank out of the elements of a line is only touched for a span that covers the whole line
+     * and goes on in the lines before and after it, so a span is not clicked beside its first or last line.
+     */
+    private fun findTouchedLine(y: Float): Line? {
+        val lineIndex = lineLayout.findLineIndex(floor(y - paddingTop).toInt())
+        if (lineIndex < 0) {
+            return null
         }
-        return null
+        return lineLayout.getLine(lineIndex)
     }
 
-    private fun isSpanTouched(typeModel: TypeModel, touchSpan: TouchSpan, x: Float, y: Float): Boolean {
-        val start = typeModel[touchSpan.start] ?: return false
-        val end = typeModel[touchSpan.end] ?: return false
-        if (start.y + paddingTop > y || end.y + paddingTop + end.measureHeight < y) {
-            return false
-        } else if (start.y == end.y) { // in one line
-            return !(start.x + paddingLeft > x || end.x + paddingLeft < x)
-        } else {
-            // in muti line
-            if (x < start.x + paddingLeft && y < start.y + start.measureHeight + paddingTop) {
-                return false
-            } else if (x > end.x + end.measureWidth + paddingLeft && y > end.y) {
-                return false
+    /**
+     * Touch spans sorted by start element, with the max end of every prefix,
+     * so the spans containing an element range are found by binary search and a short backward scan.
+     * Overlapped spans are resolved to the earliest added one, the same as the list order.
+     */
+    private class TouchSpanIndex(spans: List<TouchSpan>) {
+        private val orders: IntArray
+        private val starts: IntArray
+        private val maxEnds: IntArray
+        private val sortedSpans: Array<TouchSpan>
+
+        init {
+            val sortedOrders = spans.indices.sortedBy { spans[it].start }
+            orders = IntArray(sortedOrders.size) { sortedOrders[it] }
+            sortedSpans = Array(orders.size) { spans[orders[it]] }
+            starts = IntArray(orders.size) { sortedSpans[it].start }
+            maxEnds = IntArray(orders.size)
+            var maxEnd = Int.MIN_VALUE
+            for (i in sortedSpans.indices) {
+                maxEnd = maxEnd.coerceAtLeast(sortedSpans[i].end)
+                maxEnds[i] = maxEnd
+            }
+        }
+
+        /**
+         * @return the span with start <= [startAtMost] and end >= [endAtLeast]
+         */
+        fun find(startAtMost: Int, endAtLeast: Int): TouchSpan? {
+            // the last span starts before or at startAtMost
+            var low = 0
+            var high = starts.size - 1
+            while (low <= high) {
+                val mid = (low + high) ushr 1
+                if (starts[mid] <= startAtMost) {
+                    low = mid + 1
+                } else {
+                    high = mid - 1
+                }
+            }
+            var found = -1
+            var i = high
+            while (i >= 0 && maxEnds[i] >= endAtLeast) {
+                if (sortedSpans[i].end >= endAtLeast && (found < 0 || orders[i] < orders[found])) {
+                    found = i
+                }
+                i--
             }
-            return true
+            return if (found < 0) null else sortedSpans[found]
         }
     }
 
@@ -2,6 +2,7 @@ package com.qmuiteam.qmui.type.view
 
 import android.content.Context
 import android.graphics.*
+import android.os.Build
 import android.os.SystemClock
 import android.util.AttributeSet
 import com.qmuiteam.qmui.type.TypeModel
@@ -51,6 +52,7 @@ class MarqueeTypeView : BaseTypeView {
     private var elementMaxHeight = 0
     private var contentWidth = -1
     private var fadeHelper: FadeHelper? = null
+    private val contentCache = ContentCache()
     private var startX: Float = 0f
 
 
@@ -80,6 +82,7 @@ class MarqueeTypeView : BaseTypeView {
             current.y = (usedHeight - current.measureHeight) / 2
             current = current.next
         }
+        contentCache.invalidate()
         setMeasuredDimension(usedWidth, usedHeight)
     }
 
@@ -108,6 +111,7 @@ class MarqueeTypeView : BaseTypeView {
     override fun onDetachedFromWindow() {
         super.onDetachedFromWindow()
         stop()
+        contentCache.release()
     }
 
     fun start() {
@@ -141,29 +145,13 @@ class MarqueeTypeView : BaseTypeView {
         }
         canvas.save()
         canvas.translate(startX, 0f)
-        var current = typeModel?.firstElement()
-        while (current != null) {
-            if (current.x + startX > width) {
-                break
-            } else if (current.x + startX + current.measureWidth > 0) {
-                current.draw(environment, canvas)
-            }
-            current = current.next
-        }
+        contentCache.draw(canvas)
         canvas.restore()
         val gapRight = startX + contentWidth + gap
         if (startX < 0 && gapRight < width) {
             canvas.save()
             canvas.translate(gapRight, 0f)
-            current = typeModel?.firstElement()
-            while (current != null) {
-                if (current.x + gapRight > width) {
-                    break
-                } else {
-                    current.draw(environment, canvas)
-                }
-                current = current.next
-            }
+            contentCache.draw(canvas)
             canvas.restore()
         }
         if (lastDrawTime == -2L) {
@@ -192,30 +180,141 @@ class MarqueeTypeView : BaseTypeView {
                 }
             } // else is keep time
         }
-        postInvalidateOnAnimation()
+        val now = SystemClock.elapsedRealtime()
+        if (lastDrawTime > now) {
+            // nothing moves in keep time, wake up when it ends.
+            postInvalidateDelayed(lastDrawTime - now)
+        } else {
+            postInvalidateOnAnimation()
+        }
+    }
+
+    private fun drawElements(canvas: Canvas) {
+        environment.clear()
+        var current = typeModel?.firstElement()
+        while (current != null) {
+            current.draw(environment, canvas)
+            current = current.next
+        }
+    }
+
+    /**
+     * The content is recorded once after measure and replayed by every frame at the scrolled position,
+     * into a RenderNode when hardware accelerated on Q and above, otherwise into a Picture.
+     * Changes that only invalidate, such as the text color or effects, are checked when drawing.
+     */
+    private inner class ContentCache {
+        private var renderNode: RenderNode? = null
+        private var picture: Picture? = null
+        private var isRenderNodeDirty = true
+        private var isPictureDirty = true
+        private var recordedTypeModel: TypeModel? = null
+        private var recordedEffectVersion = 0
+        private var recordedTextColor = 0
+        private var recordedBgColor = 0
+
+        fun invalidate() {
+            isRenderNodeDirty = true
+            isPictureDirty = true
+        }
+
+        fun draw(canvas: Canvas) {
+            checkRecordedState()
+            if (canvas.isHardwareAccelerated) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                    drawRenderNode(canvas)
+                } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                    drawPicture(canvas)
+                } else {
+                    // hardware canvas can not draw picture before M
+                    drawElements(canvas)
+                }
+            } else {
+                drawPicture(canvas)
+            }
+        }
+
+        private fun checkRecordedState() {
+            val model = typeModel
+            val effectVersion = model?.effectVersion ?: 0
+            if (recordedTypeModel !== model || recordedEffectVersion != effectVersion ||
+                    recordedTextColor != environment.textColor || recordedBgColor != environment.backgroundColor) {
+                invalidate()
+                recordedTypeModel = model
+                recordedEffectVersion = effectVersion
+                recordedTextColor = environment.textColor
+                recordedBgColor = environment.backgroundColor
+            }
+        }
+
+        private fun drawRenderNode(canvas: Canvas) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+                return
+            }
+            val node = renderNode ?: RenderNode("MarqueeTypeView").also { renderNode = it }
+            if (isRenderNodeDirty || !node.hasDisplayList()) {
+                node.setPosition(0, 0, contentWidth.coerceAtLeast(0), height)
+                val recordingCanvas = node.beginRecording()
+                try {
+                    drawElements(recordingCanvas)
+                } finally {
+                    node.endRecording()
+                }
+                isRenderNodeDirty = false
+            }
+            canvas.drawRenderNode(node)
+        }
+
+        private fun drawPicture(canvas: Canvas) {
+            val p = picture ?: Picture().also { picture = it }
+            if (isPictureDirty) {
+                drawElements(p.beginRecording(contentWidth.coerceAtLeast(0), height))
+                p.endRecording()
+                isPictureDirty = false
+            }
+            canvas.drawPicture(p)
+        }
+
+        fun release() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                renderNode?.discardDisplayList()
+            }
+            picture = null
+            invalidate()
+        }
     }
 
     private inner class FadeHelper{
 
         var fadeWidth = 0f
+            set(value) {
+                if (field != value) {
+                    field = value
+                    leftFadeShader = null
+                    rightFadeShader = null
+                }
+            }
 
         private val paint = Paint().apply {
             style = Paint.Style.FILL
             xfermode = PorterDuffXfermode(PorterDuff.Mode.DST_IN)
         }
 
-        private val leftFadeShader by lazy(LazyThreadSafetyMode.NONE) {
-            LinearGradient(
+        private var leftFadeShader: Shader? = null
+        private var rightFadeShader: Shader? = null
+
+        private fun leftFadeShader(): Shader {
+            return leftFadeShader ?: LinearGradient(
                     0f, 0f, fadeWidth, 0f,
                     intArrayOf(Color.TRANSPARENT, Color.BLACK), null, Shader.TileMode.CLAMP
-            )
+            ).also { leftFadeShader = it }
         }
 
-        private val rightFadeShader by lazy(LazyThreadSafetyMode.NONE) {
-            LinearGradient(
+        private fun rightFadeShader(): Shader {
+            return rightFadeShader ?: LinearGradient(
                     0f, 0f, fadeWidth, 0f,
                     intArrayOf(Color.BLACK, Color.TRANSPARENT), null, Shader.TileMode.CLAMP
-            )
+            ).also { rightFadeShader = it }
         }
 
         inline fun drawFade(canvas: Canvas, action: (Canvas) -> Unit) = canvas.apply {
@@ -225,12 +324,12 @@ class MarqueeTypeView : BaseTypeView {
                 val layerId = saveLayer(0f, 0f, width.toFloat(), height.toFloat(), null)
                 action(this)
                 if(startX < 0){
-                    paint.shader = leftFadeShader
+                    paint.shader = leftFadeShader()
                     drawRect(0f, 0f, fadeWidth, height.toFloat(), paint)
                 }
 
                 translate((width - fadeWidth).coerceAtLeast(0f), 0f)
-                paint.shader = rightFadeShader
+                paint.shader = rightFadeShader()
                 drawRect(0f, 0f, fadeWidth, height.toFloat(), paint)
                 restoreToCount(layerId)
             }
@@ -0,0 +1,132 @@
+package com.qmuiteam.qmui.type
+
+import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.Paint
+import android.graphics.Typeface
+import com.qmuiteam.qmui.type.parser.PlainTextParser
+import com.sun.management.ThreadMXBean
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.lang.management.ManagementFactory
+
+/**
+ * Checks that save/restore of [TypeEnvironment], and the measure and draw passes over text with effects
+ * that go through it, do not allocate once the stacks are grown and the measure cache is filled.
+ *
+ * An iteration allocating anything costs at least 16 bytes, so less than one byte per iteration in total
+ * means nothing is allocated per iteration, while the few bytes the allocation counter may report are allowed.
+ */
+@RunWith(RobolectricTestRunner::class)
+class TypeEnvironmentBenchmarkTest {
+
+    companion object {
+        private const val TYPE_CUSTOM = 100
+        private const val WARM_UP_ITERATIONS = 2_000
+        private const val ITERATIONS = 20_000
+
+        private val TYPES = intArrayOf(
+                TypeEnvironment.TYPE_TEXT_COLOR,
+                TypeEnvironment.TYPE_BG_COLOR,
+                TypeEnvironment.TYPE_TYPEFACE,
+                TypeEnvironment.TYPE_TEXT_SIZE,
+                TypeEnvironment.TYPE_LINE_SPACE,
+                TypeEnvironment.TYPE_LINE_HEIGHT,
+                TypeEnvironment.TYPE_PARAGRAPH_SPACE,
+                TypeEnvironment.TYPE_ALIGNMENT,
+                TypeEnvironment.TYPE_BORDER_BOTTOM_WIDTH,
+                TypeEnvironment.TYPE_BORDER_BOTTOM_COLOR,
+                TYPE_CUSTOM)
+
+        private const val TEXT = "QMUI Android 的排版模块把文字拆成元素，逐行测量与绘制。\n" +
+                "Effects such as text color, background, text size, typeface and underline " +
+                "are applied by saving and restoring the environment around the elements.\n" +
+                "点击效果同样会保存与恢复文字颜色和背景色。"
+    }
+
+    /**
+     * the draw pass is measured without the cost of the framework
+     */
+    private class NoOpCanvas : Canvas() {
+        override fun drawText(text: CharSequence, start: Int, end: Int, x: Float, y: Float, paint: Paint) {}
+
+        override fun drawRect(left: Float, top: Float, right: Float, bottom: Float, paint: Paint) {}
+    }
+
+    @Test
+    fun saveAndRestoreWithoutAllocation() {
+        val env = TypeEnvironment()
+        env.setCustomProp(TYPE_CUSTOM, "custom")
+        assertNoAllocation {
+            for (depth in 0 until 3) {
+                for (type in TYPES) {
+                    env.save(type)
+                }
+                env.textColor = depth
+                env.backgroundColor = depth
+                env.textSize = 10f + depth
+                env.typeface = if (depth % 2 == 0) Typeface.DEFAULT_BOLD else Typeface.DEFAULT
+                env.lineSpace = depth
+                env.setBorderBottom(depth, depth)
+            }
+            for (depth in 0 until 3) {
+                for (type in TYPES) {
+                    env.restore(type)
+                }
+            }
+            assertFalse(env.isRunning())
+        }
+    }
+
+    @Test
+    fun measureAndDrawWithEffectsWithoutAllocation() {
+        val model = PlainTextParser.instance.parse(TEXT)!!
+        model.addTextColorEffect(0, 30, Color.RED)
+        model.addBgEffect(20, 60, Color.YELLOW)
+        model.addTextSizeEffect(40, 90, 40f)
+        model.addTypefaceEffect(80, 130, Typeface.DEFAULT_BOLD)
+        model.addUnderLineEffect(120, 170, Color.BLUE, 2)
+        // a click effect saves and restores text color and background
+        model.addTextColorEffect(150, 160, Color.GREEN)
+        model.addBgEffect(150, 160, Color.GRAY)
+
+        val env = TypeEnvironment()
+        env.setMeasureLimit(600, Int.MAX_VALUE)
+        val layout = LineLayout()
+        layout.typeModel = model
+        layout.measureAndLayout(env, false)
+        assertTrue(layout.lineCount > 1)
+
+        val canvas = NoOpCanvas()
+        assertNoAllocation {
+            env.clear()
+            var element = model.firstElement()
+            while (true) {
+                element.measure(env)
+                element = element.next ?: break
+            }
+            layout.draw(canvas, env)
+        }
+    }
+
+    private inline fun assertNoAllocation(iteration: () -> Unit) {
+        val threadBean = ManagementFactory.getThreadMXBean() as? ThreadMXBean
+        assumeTrue(threadBean != null && threadBean.isThreadAllocatedMemorySupported)
+        threadBean!!.isThreadAllocatedMemoryEnabled = true
+        val threadId = Thread.currentThread().id
+
+        for (i in 0 until WARM_UP_ITERATIONS) {
+            iteration()
+        }
+        val startBytes = threadBean.getThreadAllocatedBytes(threadId)
+        for (i in 0 until ITERATIONS) {
+            iteration()
+        }
+        val allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - startBytes
+        assertTrue("allocated $allocatedBytes bytes in $ITERATIONS iterations", allocatedBytes < ITERATIONS)
+    }
+}
@@ -0,0 +1,185 @@
+package com.qmuiteam.qmui.type
+
+import android.graphics.Color
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Save/restore and copy-on-write snapshot of [TypeEnvironment].
+ * It runs with Robolectric as the environment holds Paint, SparseArray and the system Resources.
+ */
+@RunWith(RobolectricTestRunner::class)
+class TypeEnvironmentTest {
+
+    companion object {
+        private const val TYPE_CUSTOM = 100
+    }
+
+    @Test
+    fun saveAndRestoreIntType() {
+        val env = TypeEnvironment()
+        env.textColor = Color.RED
+        env.save(TypeEnvironment.TYPE_TEXT_COLOR)
+        env.textColor = Color.GREEN
+        env.save(TypeEnvironment.TYPE_TEXT_COLOR)
+        env.textColor = Color.BLUE
+
+        env.restore(TypeEnvironment.TYPE_TEXT_COLOR)
+        assertEquals(Color.GREEN, env.textColor)
+        env.restore(TypeEnvironment.TYPE_TEXT_COLOR)
+        assertEquals(Color.RED, env.textColor)
+        assertEquals(Color.RED, env.paint.color)
+        assertFalse(env.isRunning())
+    }
+
+    @Test
+    fun saveAndRestoreFloatAndObjectTypes() {
+        val env = TypeEnvironment()
+        env.textSize = 20f
+        env.alignment = TypeEnvironment.Alignment.LEFT
+        env.save(TypeEnvironment.TYPE_TEXT_SIZE)
+        env.save(TypeEnvironment.TYPE_ALIGNMENT)
+        env.textSize = 30f
+        env.alignment = TypeEnvironment.Alignment.CENTER
+
+        env.restore(TypeEnvironment.TYPE_ALIGNMENT)
+        env.restore(TypeEnvironment.TYPE_TEXT_SIZE)
+        assertEquals(20f, env.textSize, 0f)
+        assertEquals(20f, env.paint.textSize, 0f)
+        assertEquals(TypeEnvironment.Alignment.LEFT, env.alignment)
+    }
+
+    @Test
+    fun saveAndRestoreBorderAndCustomTypes() {
+        val env = TypeEnvironment()
+        env.setBorderBottom(2, Color.RED)
+        env.setCustomProp(TYPE_CUSTOM, "a")
+        env.save(TypeEnvironment.TYPE_BORDER_BOTTOM_WIDTH)
+        env.save(TypeEnvironment.TYPE_BORDER_BOTTOM_COLOR)
+        env.save(TYPE_CUSTOM)
+        env.setBorderBottom(4, Color.BLUE)
+        env.setCustomProp(TYPE_CUSTOM, "b")
+        assertEquals(4, env.getIntCustomProp(TypeEnvironment.TYPE_BORDER_BOTTOM_WIDTH))
+
+        env.restore(TYPE_CUSTOM)
+        env.restore(TypeEnvironment.TYPE_BORDER_BOTTOM_COLOR)
+        env.restore(TypeEnvironment.TYPE_BORDER_BOTTOM_WIDTH)
+        assertEquals(2, env.borderBottomWidth)
+        assertEquals(Color.RED, env.borderBottomColor)
+        assertEquals("a", env.getCustomProp(TYPE_CUSTOM))
+        assertFalse(env.isRunning())
+    }
+
+    @Test
+    fun restoreEmptyStackKeepsValue() {
+        val env = TypeEnvironment()
+        env.lineSpace = 3
+        env.restore(TypeEnvironment.TYPE_LINE_SPACE)
+        env.restore(TYPE_CUSTOM)
+        assertEquals(3, env.lineSpace)
+    }
+
+    @Test
+    fun clearRestoresTheFirstSavedValues() {
+        val env = TypeEnvironment()
+        env.lineSpace = 1
+        env.setCustomProp(TYPE_CUSTOM, "a")
+        env.save(TypeEnvironment.TYPE_LINE_SPACE)
+        env.save(TYPE_CUSTOM)
+        env.lineSpace = 2
+        env.setCustomProp(TYPE_CUSTOM, "b")
+        env.save(TypeEnvironment.TYPE_LINE_SPACE)
+        env.save(TYPE_CUSTOM)
+        env.lineSpace = 3
+        env.setCustomProp(TYPE_CUSTOM, "c")
+        assertTrue(env.isRunning())
+
+        env.clear()
+        assertEquals(1, env.lineSpace)
+        assertEquals("a", env.getCustomProp(TYPE_CUSTOM))
+        assertFalse(env.isRunning())
+    }
+
+    @Test
+    fun snapshotCopiesValues() {
+        val env = TypeEnvironment()
+        env.setMeasureLimit(300, 400)
+        env.textColor = Color.RED
+        env.textSize = 24f
+        env.lineSpace = 5
+        env.setBorderTop(1, Color.BLUE)
+        env.setCustomProp(TYPE_CUSTOM, "a")
+
+        val snapshot = env.snapshot()
+        assertEquals(300, snapshot.widthLimit)
+        assertEquals(400, snapshot.heightLimit)
+        assertEquals(Color.RED, snapshot.paint.color)
+        assertEquals(24f, snapshot.paint.textSize, 0f)
+        assertEquals(5, snapshot.lineSpace)
+        assertEquals(1, snapshot.borderTopWidth)
+        assertEquals(Color.BLUE, snapshot.borderTopColor)
+        assertEquals("a", snapshot.getCustomProp(TYPE_CUSTOM))
+        assertNotSame(env.paint, snapshot.paint)
+    }
+
+    @Test
+    fun snapshotSharesStacksUntilWritten() {
+        val env = TypeEnvironment()
+        env.lineSpace = 1
+        env.setCustomProp(TYPE_CUSTOM, "a")
+        env.save(TypeEnvironment.TYPE_LINE_SPACE)
+        env.save(TYPE_CUSTOM)
+        env.lineSpace = 2
+        env.setCustomProp(TYPE_CUSTOM, "b")
+
+        val snapshot = env.snapshot()
+
+        // the snapshot pops its own copy, the saved values of env are kept
+        snapshot.restore(TypeEnvironment.TYPE_LINE_SPACE)
+        snapshot.restore(TYPE_CUSTOM)
+        assertEquals(1, snapshot.lineSpace)
+        assertEquals("a", snapshot.getCustomProp(TYPE_CUSTOM))
+        assertFalse(snapshot.isRunning())
+        assertTrue(env.isRunning())
+        assertEquals(2, env.lineSpace)
+
+        // pushes of env are not seen by the snapshot
+        env.lineSpace = 3
+        env.save(TypeEnvironment.TYPE_LINE_SPACE)
+        assertFalse(snapshot.isRunning())
+        snapshot.restore(TypeEnvironment.TYPE_LINE_SPACE)
+        assertEquals(1, snapshot.lineSpace)
+
+        env.restore(TypeEnvironment.TYPE_LINE_SPACE)
+        assertEquals(3, env.lineSpace)
+        env.restore(TypeEnvironment.TYPE_LINE_SPACE)
+        env.restore(TYPE_CUSTOM)
+        assertEquals(1, env.lineSpace)
+        assertEquals("a", env.getCustomProp(TYPE_CUSTOM))
+        assertFalse(env.isRunning())
+    }
+
+    @Test
+    fun snapshotOfSnapshot() {
+        val env = TypeEnvironment()
+        env.textSize = 10f
+        env.save(TypeEnvironment.TYPE_TEXT_SIZE)
+        env.textSize = 20f
+        val first = env.snapshot()
+        val second = first.snapshot()
+
+        first.textSize = 30f
+        first.save(TypeEnvironment.TYPE_TEXT_SIZE)
+        first.restore(TypeEnvironment.TYPE_TEXT_SIZE)
+        assertEquals(30f, first.textSize, 0f)
+
+        second.restore(TypeEnvironment.TYPE_TEXT_SIZE)
+        env.restore(TypeEnvironment.TYPE_TEXT_SIZE)
+        first.restore(TypeEnvironment.TYPE_TEXT_SIZE)
+        assertEquals(10f, second.textSize, 0f)
+        assertEquals(10f, env.textSize, 0f)
+        assertEquals(10f, first.textSize, 0f)
+    }
+}
@@ -0,0 +1,61 @@
+package com.qmuiteam.qmui.type
+
+import com.qmuiteam.qmui.type.element.Element
+import com.qmuiteam.qmui.type.element.MoreTextElement
+import com.qmuiteam.qmui.type.element.TextElement
+import com.qmuiteam.qmui.type.parser.PlainTextParser
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Element lookup of [TypeModel] by position and by text offset.
+ * It runs with Robolectric as elements hold Android graphics types.
+ */
+@RunWith(RobolectricTestRunner::class)
+class TypeModelTest {
+
+    @Test
+    fun findElementByTextOffset() {
+        // the emoji takes 2 chars and "\r\n" is one paragraph element
+        val text = "a😀b\r\nc"
+        val model = PlainTextParser.instance.parse(text)!!
+        assertEquals(5, model.elementCount)
+        assertSame(model[0], model.findElementByTextOffset(0))
+        assertSame(model[1], model.findElementByTextOffset(1))
+        assertSame(model[1], model.findElementByTextOffset(2))
+        assertSame(model[2], model.findElementByTextOffset(3))
+        assertSame(model[3], model.findElementByTextOffset(4))
+        assertSame(model[3], model.findElementByTextOffset(5))
+        assertSame(model[4], model.findElementByTextOffset(6))
+        assertNull(model.findElementByTextOffset(-1))
+        assertNull(model.findElementByTextOffset(text.length))
+    }
+
+    @Test
+    fun skipElementsNotFromOrigin() {
+        val text = "abc"
+        val elements = arrayOf<Element>(
+                TextElement("a", 0, 0),
+                MoreTextElement("...", 1, -1),
+                TextElement("b", 2, 1),
+                MoreTextElement("...", 3, -1),
+                MoreTextElement("...", 4, -1),
+                TextElement("c", 5, 2))
+        val model = TypeModel(text, elements)
+        assertEquals(6, model.elementCount)
+        assertSame(elements[0], model.findElementByTextOffset(0))
+        assertSame(elements[2], model.findElementByTextOffset(1))
+        assertSame(elements[5], model.findElementByTextOffset(2))
+        assertNull(model.findElementByTextOffset(3))
+    }
+
+    @Test
+    fun noElementFromOrigin() {
+        val model = TypeModel("", arrayOf<Element>(MoreTextElement("...", 0, -1)))
+        assertNull(model.findElementByTextOffset(0))
+        assertSame(model.firstElement(), model[0])
+        assertNull(model[1])
+    }
+}